@@ -27,10 +27,14 @@ import org.slf4j.LoggerFactory;
 import javax.management.JMException;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 
 public class AdminConsoleClient implements AdminConsoleMXBean, AutoCloseable {
     static final Logger LOG = LoggerFactory.getLogger(AdminConsoleClient.class);
@@ -70,6 +74,16 @@ public class AdminConsoleClient implements AdminConsoleMXBean, AutoCloseable {
         }
     }
 
+    @Override
+    public String exportUsage(String start, String end, String dir) {
+        try {
+            return (String) client.invokeOperation(objectName, "exportUsage", start, end, dir);
+        } catch (Exception e) {
+            LOG.error(e.toString(), e);
+            return "{}";
+        }
+    }
+
     @Override
     public List<String> listUser() {
         try {
@@ -127,6 +141,53 @@ public class AdminConsoleClient implements AdminConsoleMXBean, AutoCloseable {
         }
     }
 
+    @Override
+    public boolean migrate() {
+        try {
+            return (boolean) client.invokeOperation(objectName, "migrate");
+        } catch (Exception e) {
+            LOG.error(e.toString(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public List<String> listStats() {
+        try {
+            String[] names = (String[]) client.invokeOperation(objectName, "listStats");
+            return Arrays.asList(names);
+        } catch (Exception e) {
+            LOG.error(e.toString(), e);
+            return Arrays.asList();
+        }
+    }
+
+    // Map<String, Long> of MXBean comes as a table of key and value
+    @Override
+    public Map<String, Long> getStats(String name) {
+        Map<String, Long> stats = new TreeMap<>();
+        try {
+            TabularData table = (TabularData) client.invokeOperation(objectName, "getStats", name);
+            for (Object row : table.values()) {
+                CompositeData data = (CompositeData) row;
+                stats.put((String) data.get("key"), (Long) data.get("value"));
+            }
+        } catch (Exception e) {
+            LOG.error(e.toString(), e);
+        }
+        return stats;
+    }
+
+    @Override
+    public String getSchemaMigrations() {
+        try {
+            return (String) client.getAttribute(objectName, "SchemaMigrations");
+        } catch (Exception e) {
+            LOG.error(e.toString(), e);
+            return "{}";
+        }
+    }
+
     @Override
     public void close() throws IOException {
         client.close();
@@ -0,0 +1,79 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.admin;
+
+import com.beust.jcommander.Parameter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.j256.simplejmx.client.JmxClient;
+import io.github.retz.cli.FileConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+public class CommandMigrate implements SubCommand {
+    static final Logger LOG = LoggerFactory.getLogger(CommandMigrate.class);
+
+    @Parameter(names = "--dry-run", description = "Only show pending schema migrations and their statements")
+    private boolean dryRun = false;
+
+    @Override
+    public String description() {
+        return "Apply pending database schema migrations, including online ones deferred at startup";
+    }
+
+    @Override
+    public String getName() {
+        return "migrate";
+    }
+
+    @Override
+    public int handle(FileConfiguration fileConfig, boolean verbose) throws Throwable {
+        int port = fileConfig.getJmxPort();
+        try (AdminConsoleClient client = new AdminConsoleClient(new JmxClient("localhost", port))) {
+            if (!dryRun && !client.migrate()) {
+                LOG.error("Schema migration failed; see log of the server");
+                print(client.getSchemaMigrations());
+                return -1;
+            }
+            return print(client.getSchemaMigrations());
+        }
+    }
+
+    private int print(String json) throws Exception {
+        if (!json.startsWith("[")) {
+            LOG.error(json);
+            return -1;
+        }
+        List<Map<String, Object>> steps = new ObjectMapper().readValue(json, new TypeReference<List<Map<String, Object>>>() {
+        });
+        for (Map<String, Object> step : steps) {
+            if (step.get("applied") != null) {
+                LOG.info("{}\t{}\tapplied at {}", step.get("version"), step.get("description"), step.get("applied"));
+            } else {
+                LOG.info("{}\t{}\tpending{}", step.get("version"), step.get("description"),
+                        Boolean.TRUE.equals(step.get("online")) ? " (online)" : "");
+                for (Object statement : (List<?>) step.get("statements")) {
+                    LOG.info("\t{}", statement);
+                }
+            }
+        }
+        return 0;
+    }
+}
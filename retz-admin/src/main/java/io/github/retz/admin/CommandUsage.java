@@ -33,9 +33,12 @@ public class CommandUsage implements SubCommand {
     @Parameter(names = {"--end", "-end"}, description = "End time of a period to fetch")
     private String end = "9999-12-32";
 
+    @Parameter(names = "--export", description = "Directory of the server to write all jobs in the period to, instead of usage")
+    private String export;
+
     @Override
     public String description() {
-        return "Get usage of all users (time range is compared as String)";
+        return "Get usage of all users per application and day (time range is compared as String)";
     }
 
     @Override
@@ -47,6 +50,10 @@ public class CommandUsage implements SubCommand {
     public int handle(FileConfiguration fileConfig, boolean verbose) throws Throwable {
         int port =fileConfig.getJmxPort();
         try(AdminConsoleClient client = new AdminConsoleClient(new JmxClient("localhost", port))) {
+            if (export != null) {
+                LOG.info(client.exportUsage(start, end, export));
+                return 0;
+            }
             List<String> lines = client.getUsage(start, end);
             for(String line: lines) {
                 LOG.info(line);
@@ -56,6 +56,7 @@ public class Launcher {
                 new CommandGetUser(),
                 new CommandHelp(),
                 new CommandListUser(),
+                new CommandMigrate(),
                 new CommandUsage()
         };
         SUB_COMMANDS.addAll(Arrays.asList(subCommands));
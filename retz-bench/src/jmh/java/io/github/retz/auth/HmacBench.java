@@ -0,0 +1,74 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.auth;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Signature verification as WebConsole.authenticate does, by 1, 8 and 32
+// threads sharing one authenticator like a cached user does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HmacBench {
+    private static final String KEY = "deadbeef";
+    private static final String VERB = "GET";
+    private static final String MD5 = "";
+    private static final String DATE = "Tue, 07 Mar 2017 10:12:24 GMT";
+    private static final String RESOURCE = "/job/12345/file?path=stdout&offset=1048576&length=65536";
+
+    private Authenticator authenticator;
+    private String signature;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        authenticator = new HmacSHA256Authenticator(KEY, "cafebabe");
+        signature = authenticator.signature(VERB, MD5, DATE, RESOURCE);
+    }
+
+    private boolean authenticate() {
+        if (!authenticator.authenticate(VERB, MD5, DATE, RESOURCE, KEY, signature)) {
+            throw new AssertionError("Wrong signature");
+        }
+        return true;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean authenticate1() {
+        return authenticate();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean authenticate8() {
+        return authenticate();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean authenticate32() {
+        return authenticate();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String signature8() {
+        return authenticator.signature(VERB, MD5, DATE, RESOURCE);
+    }
+}
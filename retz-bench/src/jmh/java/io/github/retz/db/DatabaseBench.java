@@ -0,0 +1,121 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.protocol.data.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Database against H2 on memory, with 'jobs' QUEUED jobs in the table
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DatabaseBench {
+    private static final String APPID = "bench-app";
+    private static final List<String> ORDER_BY = Arrays.asList("id");
+
+    @Param({"10000", "100000", "1000000"})
+    int jobs;
+
+    // Number of jobs to be fetched by findFit and listJobs
+    @Param({"1000"})
+    int fetch;
+
+    private Database db;
+    private String name;
+    private String owner;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        name = "retz-bench-" + System.nanoTime();
+        db = Database.newMemInstance(name);
+        User user = db.createUser("bench user");
+        owner = user.keyId();
+        db.addApplication(new Application(APPID, Arrays.asList(), Arrays.asList(),
+                Optional.empty(), owner, 0, new MesosContainer(), true));
+
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+        // Bulk load in a single transaction; going through safeAddJob takes too long for 1M jobs
+        try (Connection conn = DriverManager.getConnection(db.databaseURL)) {
+            conn.setAutoCommit(false);
+            Jobs dao = new Jobs(conn, mapper);
+            for (int i = 1; i <= jobs; ++i) {
+                dao.addJob(newJob(i));
+                if (i % 10000 == 0) {
+                    conn.commit();
+                }
+            }
+            conn.commit();
+        }
+        nextId = jobs + 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.clear();
+        db.stop();
+    }
+
+    static Job newJob(int id) {
+        Properties env = new Properties();
+        env.setProperty("PATH", "/usr/local/bin:/usr/bin:/bin");
+        Job job = new Job(APPID, "/opt/bench/bin/run --input /data/" + id, env, 1, 32, 0);
+        job.addTags("bench");
+        job.schedule(id, TimestampHelper.now());
+        return job;
+    }
+
+    @Benchmark
+    public List<Job> findFit() throws Exception {
+        return db.findFit(ORDER_BY, fetch, fetch * 32);
+    }
+
+    @Benchmark
+    public List<Job> listJobs() throws Exception {
+        return db.listJobs(owner, Job.JobState.QUEUED, Optional.empty(), fetch);
+    }
+
+    @Benchmark
+    public Optional<Job> updateJob() throws Exception {
+        int id = ThreadLocalRandom.current().nextInt(1, jobs + 1);
+        return db.updateJob(id, job -> {
+            job.setPriority(job.priority() == 0 ? 1 : 0);
+            return Optional.of(job);
+        });
+    }
+
+    @Benchmark
+    public boolean addJob() {
+        return db.safeAddJob(newJob(nextId++));
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Extractors of MesosHTTPFetcher against reading the whole JSON into a Map, as they did before,
+// over synthetic /slaves of master, /state of an agent and /tasks of master, each 10MB or larger
+// in the default size. Add '-prof gc' to JMH options to see allocation per operation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MesosJsonBench {
+    private static final String FRAMEWORK_ID = "3a3e9491-84a5-4c9d-8fed-5ca10c23d922-0000";
+
+    // Number of agents in /slaves, executors in /state and tasks in /tasks
+    @Param({"20000"})
+    int size;
+
+    private ObjectMapper mapper;
+    private byte[] slaves;
+    private byte[] state;
+    private byte[] tasks;
+    private String slaveId;
+    private String executorId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mapper = new ObjectMapper();
+        JsonFactory factory = new JsonFactory();
+        // Looking for the last ones, as the worst case
+        slaveId = "6c751ae7-6856-4127-aea1-42f3a9210846-S" + (size - 1);
+        executorId = "retz-bench-app-id-" + (size - 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("slaves");
+            for (int i = 0; i < size; ++i) {
+                gen.writeStartObject();
+                gen.writeStringField("id", "6c751ae7-6856-4127-aea1-42f3a9210846-S" + i);
+                gen.writeStringField("pid", "slave(1)@10.0." + (i / 256) + "." + (i % 256) + ":5051");
+                gen.writeStringField("hostname", "agent-" + i + ".example.com");
+                writeResources(gen, "resources");
+                writeResources(gen, "used_resources");
+                writeResources(gen, "offered_resources");
+                writeResources(gen, "reserved_resources");
+                writeResources(gen, "unreserved_resources");
+                gen.writeObjectFieldStart("attributes");
+                gen.writeStringField("rack", "rack-" + (i % 40));
+                gen.writeStringField("zone", "zone-" + (i % 3));
+                gen.writeEndObject();
+                gen.writeBooleanField("active", true);
+                gen.writeStringField("version", "1.1.0");
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        slaves = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("id", slaveId);
+            gen.writeObjectFieldStart("flags");
+            gen.writeStringField("work_dir", "/tmp/mesos");
+            gen.writeEndObject();
+            gen.writeArrayFieldStart("frameworks");
+            for (int f = 0; f < 2; ++f) {
+                String frameworkId = f == 0 ? "other-framework-0000" : FRAMEWORK_ID;
+                gen.writeStartObject();
+                gen.writeStringField("id", frameworkId);
+                gen.writeStringField("name", "framework-" + f);
+                gen.writeArrayFieldStart("executors");
+                for (int i = f * size / 2; i < (f + 1) * size / 2; ++i) {
+                    String id = "retz-bench-app-id-" + i;
+                    String dir = "/tmp/mesos/slaves/" + slaveId + "/frameworks/" + frameworkId
+                            + "/executors/" + id + "/runs/927b4c8a-bcfb-40fb-bf24-" + String.format("%012d", i);
+                    gen.writeStartObject();
+                    gen.writeStringField("id", id);
+                    gen.writeStringField("name", "Command Executor (Task: " + id + ")");
+                    gen.writeStringField("source", id);
+                    gen.writeStringField("container", "927b4c8a-bcfb-40fb-bf24-" + String.format("%012d", i));
+                    gen.writeStringField("directory", dir);
+                    writeResources(gen, "resources");
+                    gen.writeArrayFieldStart("tasks");
+                    writeTask(gen, id, frameworkId, "TASK_RUNNING");
+                    gen.writeEndArray();
+                    gen.writeArrayFieldStart("queued_tasks");
+                    gen.writeEndArray();
+                    gen.writeArrayFieldStart("completed_tasks");
+                    gen.writeEndArray();
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        state = out.toByteArray();
+
+        out = new ByteArrayOutputStream();
+        try (JsonGenerator gen = factory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("tasks");
+            for (int i = 0; i < size; ++i) {
+                // Tasks of others are as many as ours
+                writeTask(gen, "retz-bench-app-id-" + i, i % 2 == 0 ? FRAMEWORK_ID : "other-framework-0000",
+                        i % 3 == 0 ? "TASK_FINISHED" : "TASK_RUNNING");
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        tasks = out.toByteArray();
+
+        System.err.printf("/slaves: %d bytes, /state: %d bytes, /tasks: %d bytes%n",
+                slaves.length, state.length, tasks.length);
+    }
+
+    private static void writeResources(JsonGenerator gen, String name) throws IOException {
+        gen.writeObjectFieldStart(name);
+        gen.writeNumberField("cpus", 32.0);
+        gen.writeNumberField("mem", 257754.0);
+        gen.writeNumberField("disk", 1862000.0);
+        gen.writeNumberField("gpus", 0.0);
+        gen.writeStringField("ports", "[31000-32000]");
+        gen.writeEndObject();
+    }
+
+    private static void writeTask(JsonGenerator gen, String id, String frameworkId, String state) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", id);
+        gen.writeStringField("name", id);
+        gen.writeStringField("framework_id", frameworkId);
+        gen.writeStringField("executor_id", "");
+        gen.writeStringField("slave_id", "6c751ae7-6856-4127-aea1-42f3a9210846-S0");
+        gen.writeStringField("state", state);
+        writeResources(gen, "resources");
+        gen.writeArrayFieldStart("statuses");
+        for (String s : new String[]{"TASK_STARTING", "TASK_RUNNING"}) {
+            gen.writeStartObject();
+            gen.writeStringField("state", s);
+            gen.writeNumberField("timestamp", 1486359032.77452);
+            gen.writeObjectFieldStart("container_status");
+            gen.writeArrayFieldStart("network_infos");
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("ip_addresses");
+            gen.writeStartObject();
+            gen.writeStringField("ip_address", "10.0.0.1");
+            gen.writeEndObject();
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    @Benchmark
+    public Optional<String> slaveAddr() throws IOException {
+        return MesosHTTPFetcher.extractSlaveAddr(new ByteArrayInputStream(slaves), slaveId);
+    }
+
+    @Benchmark
+    public Optional<String> slaveAddrByMap() throws IOException {
+        Map<String, List<Map<String, Object>>> map = mapper.readValue(slaves, Map.class);
+        for (Map<String, Object> slave : map.get("slaves")) {
+            if (slave.get("id").equals(slaveId)) {
+                return Optional.of(((String) slave.get("pid")).split("@")[1]);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Benchmark
+    public Map<String, String> slaveAddrs() throws IOException {
+        return MesosHTTPFetcher.extractSlaveAddrs(new ByteArrayInputStream(slaves));
+    }
+
+    @Benchmark
+    public Optional<String> directory() throws IOException {
+        return MesosHTTPFetcher.extractDirectory(new ByteArrayInputStream(state), FRAMEWORK_ID, executorId);
+    }
+
+    @Benchmark
+    public Optional<String> directoryByMap() throws IOException {
+        Map<String, Object> map = mapper.readValue(state, Map.class);
+        for (Map<String, Object> framework : (List<Map<String, Object>>) map.get("frameworks")) {
+            if (FRAMEWORK_ID.equals(framework.get("id"))) {
+                for (Map<String, Object> executor : (List<Map<String, Object>>) framework.get("executors")) {
+                    if (executor.get("id").equals(executorId)) {
+                        return Optional.ofNullable((String) executor.get("directory"));
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Benchmark
+    public Map<String, String> directories() throws IOException {
+        return MesosHTTPFetcher.extractDirectories(new ByteArrayInputStream(state), FRAMEWORK_ID);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> tasks() throws IOException {
+        return MesosHTTPFetcher.parseTasks(new ByteArrayInputStream(tasks), FRAMEWORK_ID);
+    }
+
+    @Benchmark
+    public int tasksByMap() throws IOException {
+        Map<String, List<Map<String, Object>>> map = mapper.readValue(tasks, Map.class);
+        int count = 0;
+        for (Map<String, Object> task : map.get("tasks")) {
+            if (FRAMEWORK_ID.equals(task.get("framework_id"))) {
+                ++count;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.db.Database;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import io.github.retz.scheduler.Applications;
+import io.github.retz.scheduler.ServerConfiguration;
+import org.apache.mesos.Protos;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Planner.plan with synthetic offers; 'naive' is NaivePlanner while 'fifo', 'priority2'
+// and 'bestfit' are FIFOPlanner, PriorityPlanner and BestFitPlanner via ExtensiblePlanner
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlannerBench {
+    private static final String APPID = "bench-app";
+
+    @Param({"naive", "fifo", "priority2", "bestfit"})
+    String planner;
+
+    @Param({"10", "100", "1000", "5000"})
+    int agents;
+
+    // Jobs per agent; each agent offers 8 CPUs and 8GB, each job takes 2 CPUs and 1GB
+    @Param({"4"})
+    int density;
+
+    private Planner plannerImpl;
+    private List<Protos.Offer> offers;
+    private List<AppJobPair> jobs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        ServerConfiguration config;
+        try (InputStream in = PlannerBench.class.getResourceAsStream("/retz-bench.properties")) {
+            config = new ServerConfiguration(in);
+        }
+        // ExtensiblePlanner looks up applications from database
+        Database.getInstance().init(config);
+        Application app = new Application(APPID, Arrays.asList(), Arrays.asList(),
+                Optional.empty(), config.getUser().keyId(), 0, new MesosContainer(), true);
+        Applications.load(app);
+
+        plannerImpl = PlannerFactory.create(planner, config);
+
+        Protos.FrameworkID fid = Protos.FrameworkID.newBuilder().setValue("retz-bench").build();
+        offers = new ArrayList<>(agents);
+        for (int i = 0; i < agents; ++i) {
+            String slaveId = "slave-" + i;
+            offers.add(Protos.Offer.newBuilder()
+                    .addAllResources(ResourceConstructor.construct(8, 8192))
+                    .setSlaveId(Protos.SlaveID.newBuilder().setValue(slaveId).build())
+                    .setFrameworkId(fid)
+                    .setHostname("agent-" + i)
+                    .setId(Protos.OfferID.newBuilder().setValue("offer-" + i).build())
+                    .build());
+        }
+
+        jobs = new ArrayList<>(agents * density);
+        for (int i = 0; i < agents * density; ++i) {
+            Job job = new Job(APPID, "bench", new Properties(), 2, 1024, 0);
+            job.schedule(i, TimestampHelper.now());
+            jobs.add(new AppJobPair(Optional.of(app), job));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    @Benchmark
+    public Plan plan() {
+        return plannerImpl.plan(offers, jobs, 0, "nobody");
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner.builtin;
+
+import io.github.retz.planner.spi.Offer;
+import io.github.retz.planner.spi.Plan;
+import io.github.retz.planner.spi.Planner;
+import io.github.retz.protocol.data.Job;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Planning time of built-in SPI planners without Retz server around;
+// see PackingSimulation for utilization of the same workloads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PackingBench {
+
+    @Param({"fifo", "bestfit"})
+    String planner;
+
+    @Param({"uniform", "mixed", "large-head"})
+    String workload;
+
+    @Param({"10", "100", "1000"})
+    int agents;
+
+    private Planner plannerImpl;
+    private Map<String, Offer> offers;
+    private List<Job> jobs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        plannerImpl = Workloads.planner(planner);
+        offers = Workloads.offers(agents);
+        jobs = Workloads.jobs(workload, agents);
+    }
+
+    @Benchmark
+    public Plan plan() {
+        return plannerImpl.plan(offers, jobs);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner.builtin;
+
+import io.github.retz.planner.spi.Offer;
+import io.github.retz.planner.spi.Plan;
+import io.github.retz.planner.spi.Planner;
+import io.github.retz.protocol.data.Job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Runs a planning cycle of each planner over each workload and prints how much
+// of offered resources are used. Run with `./gradlew :retz-bench:simulate`.
+// Planners are given jobs taken from the queue as the server does (see QueueIndex.findFit).
+public class PackingSimulation {
+    private static final int RUNS = 20;
+
+    public static void main(String... args) {
+        int[] agentsList = {10, 100, 1000};
+        System.out.println("planner\tworkload\tagents\tjobs\tplaced\tcpu%\tmem%\tgpu%\tplan-ms");
+        for (String workload : Workloads.NAMES) {
+            for (int agents : agentsList) {
+                Map<String, Offer> offers = Workloads.offers(agents);
+                List<Job> jobs = Workloads.jobs(workload, agents);
+                for (String name : Workloads.PLANNERS) {
+                    Planner planner = Workloads.planner(name);
+                    List<Job> candidates = candidates(offers, jobs, planner.lookahead());
+                    Plan plan = null;
+                    long[] elapsed = new long[RUNS];
+                    for (int i = 0; i < RUNS; ++i) {
+                        long start = System.nanoTime();
+                        plan = planner.plan(offers, candidates);
+                        elapsed[i] = System.nanoTime() - start;
+                    }
+                    Arrays.sort(elapsed);
+
+                    int placed = 0;
+                    long cpu = 0, mem = 0, gpu = 0;
+                    for (List<Job> assigned : plan.getJobSpecs().values()) {
+                        for (Job job : assigned) {
+                            placed++;
+                            cpu += job.resources().getCpu();
+                            mem += job.resources().getMemMB();
+                            gpu += job.resources().getGpu();
+                        }
+                    }
+                    System.out.println(String.format("%s\t%s\t%d\t%d\t%d\t%.1f\t%.1f\t%.1f\t%.3f",
+                            name, workload, agents, jobs.size(), placed,
+                            100.0 * cpu / (agents * Workloads.AGENT_CPU),
+                            100.0 * mem / ((long) agents * Workloads.AGENT_MEM),
+                            100.0 * gpu / (agents * Workloads.AGENT_GPU),
+                            elapsed[RUNS / 2] / 1e6));
+                }
+            }
+        }
+    }
+
+    // Jobs from the head until one does not fit in total CPU and memory of offers,
+    // with the job and 'lookahead' jobs behind it, as QueueIndex.findFit does
+    static List<Job> candidates(Map<String, Offer> offers, List<Job> jobs, int lookahead) {
+        double cpu = 0;
+        long mem = 0;
+        for (Offer offer : offers.values()) {
+            cpu += offer.resource().cpu();
+            mem += offer.resource().memMB();
+        }
+        List<Job> ret = new ArrayList<>();
+        double totalCpu = 0;
+        long totalMem = 0;
+        for (int i = 0; i < jobs.size(); ++i) {
+            Job job = jobs.get(i);
+            if (totalCpu + job.resources().getCpu() <= cpu && totalMem + job.resources().getMemMB() <= mem) {
+                ret.add(job);
+                totalCpu += job.resources().getCpu();
+                totalMem += job.resources().getMemMB();
+            } else {
+                if (lookahead > 0) {
+                    ret.addAll(jobs.subList(i, Math.min(jobs.size(), i + 1 + lookahead)));
+                }
+                break;
+            }
+        }
+        return ret;
+    }
+}
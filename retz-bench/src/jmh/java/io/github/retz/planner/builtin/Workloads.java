@@ -0,0 +1,108 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner.builtin;
+
+import io.github.retz.planner.spi.Offer;
+import io.github.retz.planner.spi.Planner;
+import io.github.retz.planner.spi.Resource;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Range;
+
+import java.util.*;
+
+// Synthetic offers and jobs shared by PackingBench and PackingSimulation
+final class Workloads {
+    static final String[] NAMES = {"uniform", "mixed", "large-head"};
+    static final String[] PLANNERS = {"fifo", "bestfit"};
+
+    // Every agent has the same size
+    static final int AGENT_CPU = 16;
+    static final int AGENT_MEM = 65536;
+    static final int AGENT_GPU = 2;
+    static final int AGENT_PORTS = 100;
+
+    private Workloads() {
+    }
+
+    static Planner planner(String name) {
+        Planner planner;
+        switch (name) {
+            case "fifo":
+                planner = new FIFOPlanner();
+                break;
+            case "bestfit":
+                planner = new BestFitPlanner();
+                ((BestFitPlanner) planner).initialize(new Properties());
+                break;
+            default:
+                throw new IllegalArgumentException(name);
+        }
+        planner.setUseGpu(true);
+        planner.setMaxStock(0);
+        return planner;
+    }
+
+    static Map<String, Offer> offers(int agents) {
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        for (int i = 0; i < agents; ++i) {
+            String id = "offer-" + i;
+            List<Range> ports = new LinkedList<>(Arrays.asList(new Range(31000, 31000 + AGENT_PORTS - 1)));
+            offers.put(id, new Offer(id, new Resource(AGENT_CPU, AGENT_MEM, 0, AGENT_GPU, ports)));
+        }
+        return offers;
+    }
+
+    // Jobs demanding about 1.5 times as much CPU as all agents have, as findFit
+    // gives planners jobs as many as total resource of all offers, or more
+    static List<Job> jobs(String workload, int agents) {
+        Random random = new Random(42);
+        List<Job> jobs = new ArrayList<>();
+        int cpu = 0;
+        for (int id = 0; cpu < agents * AGENT_CPU * 3 / 2; ++id) {
+            Job job;
+            switch (workload) {
+                case "uniform":
+                    job = new Job("app", "cmd", new Properties(), 2, 4096, 0);
+                    break;
+                case "mixed":
+                    job = mixed(random);
+                    break;
+                case "large-head":
+                    if (id % 20 == 0) {
+                        job = new Job("app", "cmd", new Properties(), 12, 49152, 0);
+                    } else {
+                        job = mixed(random);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(workload);
+            }
+            job.schedule(id, "2017-01-01T00:00:00.000+09:00");
+            jobs.add(job);
+            cpu += job.resources().getCpu();
+        }
+        return jobs;
+    }
+
+    private static Job mixed(Random random) {
+        int cpu = 1 << random.nextInt(4); // 1, 2, 4, 8
+        int mem = 512 * (1 + random.nextInt(32)); // up to 16GB
+        int gpu = random.nextInt(10) == 0 ? 1 : 0;
+        int ports = random.nextInt(5) == 0 ? 1 + random.nextInt(10) : 0;
+        return new Job("app", "cmd", new Properties(), cpu, mem, 0, gpu, ports);
+    }
+}
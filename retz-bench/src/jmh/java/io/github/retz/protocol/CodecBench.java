@@ -0,0 +1,113 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.ResourceQuantity;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Jackson encoding and decoding of what server and client exchange most
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CodecBench {
+
+    // Number of jobs in ListJobResponse
+    @Param({"10", "1000"})
+    int listSize;
+
+    private ObjectMapper mapper;
+    private Job job;
+    private String jobJson;
+    private ListJobResponse listJobResponse;
+    private String listJobResponseJson;
+    private StatusResponse statusResponse;
+    private String statusResponseJson;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+
+        job = newJob(1);
+        jobJson = mapper.writeValueAsString(job);
+
+        List<Job> list = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; ++i) {
+            list.add(newJob(i));
+        }
+        listJobResponse = new ListJobResponse(list, false);
+        listJobResponse.ok();
+        listJobResponseJson = mapper.writeValueAsString(listJobResponse);
+
+        statusResponse = new StatusResponse("retz-bench");
+        statusResponse.setUsedResources(1024, 128, new ResourceQuantity(256, 65536, 0, 0, 0, 128));
+        statusResponse.setOffers(16, new ResourceQuantity(128, 131072, 0, 1000, 100000, 16));
+        statusResponse.ok();
+        statusResponseJson = mapper.writeValueAsString(statusResponse);
+    }
+
+    static Job newJob(int id) {
+        Properties env = new Properties();
+        env.setProperty("PATH", "/usr/local/bin:/usr/bin:/bin");
+        env.setProperty("LANG", "C");
+        Job job = new Job("bench-app", "/opt/bench/bin/run --input /data/" + id, env, 2, 1024, 256, 0, 1);
+        job.addTags("bench", "codec");
+        job.schedule(id, TimestampHelper.now());
+        job.starting("retz-bench-app-id-" + id, Optional.of("http://agent:5051/files/browse?path=/tmp"), TimestampHelper.now());
+        return job;
+    }
+
+    @Benchmark
+    public String encodeJob() throws Exception {
+        return mapper.writeValueAsString(job);
+    }
+
+    @Benchmark
+    public Job decodeJob() throws Exception {
+        return mapper.readValue(jobJson, Job.class);
+    }
+
+    @Benchmark
+    public String encodeListJobResponse() throws Exception {
+        return mapper.writeValueAsString(listJobResponse);
+    }
+
+    @Benchmark
+    public Response decodeListJobResponse() throws Exception {
+        return mapper.readValue(listJobResponseJson, Response.class);
+    }
+
+    @Benchmark
+    public String encodeStatusResponse() throws Exception {
+        return mapper.writeValueAsString(statusResponse);
+    }
+
+    @Benchmark
+    public Response decodeStatusResponse() throws Exception {
+        return mapper.readValue(statusResponseJson, Response.class);
+    }
+}
@@ -17,10 +17,8 @@
 package io.github.retz.cli;
 
 import com.beust.jcommander.Parameter;
-import io.github.retz.protocol.ErrorResponse;
-import io.github.retz.protocol.GetFileResponse;
-import io.github.retz.protocol.Response;
 import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.exception.JobNotFoundException;
 import io.github.retz.web.Client;
 import io.github.retz.web.ClientHelper;
 import org.apache.commons.io.FilenameUtils;
@@ -32,11 +30,10 @@ import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeoutException;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 public class CommandGetFile implements SubCommand {
     static final Logger LOG = LoggerFactory.getLogger(CommandGetFile.class);
 
@@ -119,46 +116,23 @@ public class CommandGetFile implements SubCommand {
             }
 
             OutputStream out = this.tentativeOutputStream(webClient, resultDir, filename);
-            if (length < 0) {
-                try {
-                    ClientHelper.getWholeFileWithTerminator(webClient, id, filename, poll, out, timedout);
-                } catch (TimeoutException e) {
-                    webClient.kill(id);
-                    LOG.error("Job(id={}) has been killed due to timeout after {} minute(s)", id, timeout);
-                    return -1;
+            try {
+                Optional<Job> job = ClientHelper.streamWholeFile(webClient, id, filename, poll, out, offset, length, timedout);
+                if (verbose) {
+                    LOG.info("Job: {}", job);
                 }
                 return 0;
-            }
-
-            Response res = webClient.getFile(id, filename, offset, length);
-
-            if (res instanceof GetFileResponse) {
-                GetFileResponse getFileResponse = (GetFileResponse) res;
-
-                if (getFileResponse.job().isPresent()) {
-                    Job job = getFileResponse.job().get();
-
-                    if (getFileResponse.file().isPresent()) {
-                        if (verbose) {
-                            LOG.info("offset={}", getFileResponse.file().get().offset());
-                        }
-                        out.write(getFileResponse.file().get().data().getBytes(UTF_8));
-
-                    } else if (verbose) {
-                        LOG.info("Job: {}", job);
-                    }
-
-                    if (out != null && "-".equals(resultDir)) {
-                        out.close();
-                    }
-                    return 0;
-
+            } catch (TimeoutException e) {
+                webClient.kill(id);
+                LOG.error("Job(id={}) has been killed due to timeout after {} minute(s)", id, timeout);
+            } catch (JobNotFoundException e) {
+                LOG.error("No such job: id={}", id);
+            } finally {
+                if ("-".equals(resultDir)) {
+                    out.flush();
                 } else {
-                    LOG.error("No such job: id={}", id);
+                    out.close();
                 }
-            } else {
-                ErrorResponse errorResponse = (ErrorResponse) res;
-                LOG.error("Error: {}", errorResponse.status());
             }
         }
         return -1;
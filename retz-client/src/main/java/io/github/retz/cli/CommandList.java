@@ -17,14 +17,13 @@
 package io.github.retz.cli;
 
 import com.beust.jcommander.Parameter;
-import io.github.retz.protocol.ErrorResponse;
-import io.github.retz.protocol.ListJobResponse;
-import io.github.retz.protocol.Response;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.web.Client;
+import io.github.retz.web.ClientHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -77,15 +76,12 @@ public class CommandList implements SubCommand {
                 if (verbose) {
                     LOG.info("Fetching jobs@{}", s);
                 }
-                Response res = webClient.list(s, maybeTag); // TODO: make this CLI argument
-                if (res instanceof ErrorResponse) {
-                    LOG.error(res.status());
+                try {
+                    ClientHelper.jobs(webClient, s, maybeTag).forEach(job -> jobMap.put(job.id(), job));
+                } catch (UncheckedIOException e) {
+                    LOG.error(e.getCause().getMessage());
                     return -1;
                 }
-                ListJobResponse r = (ListJobResponse) res;
-                for (Job job : r.jobs()) {
-                    jobMap.put(job.id(), job);
-                }
             }
 
             TableFormatter formatter = new TableFormatter(
@@ -120,6 +120,11 @@ public class Client implements AutoCloseable {
         return Retz.tryOrErrorResponse(() -> retz.list(state, tag));
     }
 
+    // A page of jobs older than 'after'; see ClientHelper.jobs to iterate all pages
+    public Response list(Job.JobState state, Optional<String> tag, Optional<Integer> after, int limit) throws IOException {
+        return Retz.tryOrErrorResponse(() -> retz.list(state, tag, after, limit));
+    }
+
     public Response schedule(Job job) throws IOException {
         if (job.priority() < -20 || 19 < job.priority()) {
             throw new IllegalArgumentException("Priority must be [-19, 20]");
@@ -131,14 +136,56 @@ public class Client implements AutoCloseable {
         return Retz.tryOrErrorResponse(() -> retz.getJob(id));
     }
 
+    // Returns GetJobResponse as soon as the job leaves 'state', or after timeout milliseconds
+    public Response waitJob(int id, Job.JobState state, int timeout) throws IOException {
+        return Retz.tryOrErrorResponse(() -> retz.waitJob(id, state, timeout));
+    }
+
     public Response getFile(int id, String file, long offset, long length) throws IOException {
         return Retz.tryOrErrorResponse(
                 () -> retz.getFile(id, Objects.requireNonNull(file), offset, length));
     }
 
     public int getBinaryFile(int id, String file, OutputStream out) throws IOException {
-        String date = TimestampHelper.now();
         String resource = "/job/" + id + "/download?path=" + file;
+        HttpURLConnection conn = openRaw(resource);
+
+        int size = conn.getContentLength();
+        if (size < 0) {
+            throw new IOException("Illegal content length:" + size);
+        } else if (size == 0) {
+            // not bytes to save;
+            return 0;
+        }
+        try {
+            return IOUtils.copy(conn.getInputStream(), out);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Writes raw bytes of a file to 'out' as they arrive, and returns the number of bytes written;
+    // see StreamFileRequest. Throws FileNotFoundException if the job hasn't started or no such file.
+    public long streamFile(int id, String file, long offset, long length, boolean follow, OutputStream out) throws IOException {
+        HttpURLConnection conn = openRaw(new StreamFileRequest(id, file, offset, length, follow).resource());
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try (InputStream in = conn.getInputStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                out.flush();
+                total += read;
+            }
+            return total;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    // Signed GET request whose response isn't JSON
+    private HttpURLConnection openRaw(String resource) throws IOException {
+        String date = TimestampHelper.now();
         AuthHeader header = authenticator.header("GET", "", date, resource);
         URL url = new URL(uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort() + resource); // TODO url-encode!
         LOG.info("Fetching {}", url);
@@ -164,10 +211,12 @@ public class Client implements AutoCloseable {
         conn.setRequestProperty("Date", date);
         conn.setRequestProperty("Content-md5", "");
         conn.setDoInput(true);
-        String s2s = authenticator.string2sign("GET", "", date, resource);
-        LOG.debug("Authorization: {} / S2S={}", header.buildHeader(), s2s);
+        if (LOG.isDebugEnabled()) {
+            String s2s = authenticator.string2sign("GET", "", date, resource);
+            LOG.debug("Authorization: {} / S2S={}", header.buildHeader(), s2s);
+        }
 
-        if (conn.getResponseCode() != 200) {
+        if (conn.getResponseCode() != 200 && conn.getResponseCode() != 206) {
             if (verboseLog) {
                 LOG.warn("HTTP Response:", conn.getResponseMessage());
             }
@@ -188,19 +237,7 @@ public class Client implements AutoCloseable {
                 throw new UnknownError(message);
             }
         }
-
-        int size = conn.getContentLength();
-        if (size < 0) {
-            throw new IOException("Illegal content length:" + size);
-        } else if (size == 0) {
-            // not bytes to save;
-            return 0;
-        }
-        try {
-            return IOUtils.copy(conn.getInputStream(), out);
-        } finally {
-            conn.disconnect();
-        }
+        return conn;
     }
 
     public Response listFiles(int id, String path) throws IOException {
@@ -221,27 +258,22 @@ public class Client implements AutoCloseable {
     }
 
     private Job waitPoll(Job job) throws IOException {
+        Job.JobState state = job.state();
         do {
-            Response res = getJob(job.id());
-            if (res instanceof GetJobResponse) {
-                GetJobResponse getJobResponse = (GetJobResponse) res;
-                if (getJobResponse.job().isPresent()) {
-                    if (getJobResponse.job().get().state() == Job.JobState.FINISHED
-                            || getJobResponse.job().get().state() == Job.JobState.KILLED) {
-
-                        return getJobResponse.job().get();
-                    } else {
-                        try {
-                            Thread.sleep(1024);
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                } else {
-                    LOG.error("Job id={} does not exist.", job.id());
-                    return null;
+            Optional<Job> current;
+            try {
+                current = ClientHelper.waitJob(this, job.id(), state, ClientHelper.WAIT_TIMEOUT_MSEC);
+            } catch (IOException e) {
+                LOG.error(e.getMessage());
+                return null;
+            }
+            if (current.isPresent()) {
+                state = current.get().state();
+                if (state == Job.JobState.FINISHED || state == Job.JobState.KILLED) {
+                    return current.get();
                 }
             } else {
-                LOG.error(res.status());
+                LOG.error("Job id={} does not exist.", job.id());
                 return null;
             }
         } while (true);
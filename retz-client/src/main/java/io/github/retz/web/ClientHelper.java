@@ -25,11 +25,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -37,28 +38,80 @@ public class ClientHelper {
     static final Logger LOG = LoggerFactory.getLogger(ClientHelper.class);
     static final int MAX_INTERVAL_MSEC = 32768;
     static final int INITAL_INTERVAL_MSEC = 512;
+    // Server returns earlier as soon as job state changes
+    static final int WAIT_TIMEOUT_MSEC = 16384;
+
+    static final int LIST_PAGE_SIZE = 1024;
 
     public static List<Job> queue(Client c) throws IOException {
-        Response res = c.list(Job.JobState.QUEUED, Optional.empty());
-        return ((ListJobResponse) res).jobs();
+        return collect(jobs(c, Job.JobState.QUEUED, Optional.empty()));
     }
 
     public static List<Job> running(Client c) throws IOException {
-        List<Job> jobs = new LinkedList<>();
-        Response res = c.list(Job.JobState.STARTING, Optional.empty());
-        jobs.addAll(((ListJobResponse) res).jobs());
-        res = c.list(Job.JobState.STARTED, Optional.empty());
-        jobs.addAll(((ListJobResponse) res).jobs());
-        return jobs;
+        return collect(Stream.concat(jobs(c, Job.JobState.STARTING, Optional.empty()),
+                jobs(c, Job.JobState.STARTED, Optional.empty())));
     }
 
     public static List<Job> finished(Client c) throws IOException {
-        List<Job> jobs = new LinkedList<>();
-        Response res = c.list(Job.JobState.FINISHED, Optional.empty());
-        jobs.addAll(((ListJobResponse) res).jobs());
-        res = c.list(Job.JobState.KILLED, Optional.empty());
-        jobs.addAll(((ListJobResponse) res).jobs());
-        return jobs;
+        return collect(Stream.concat(jobs(c, Job.JobState.FINISHED, Optional.empty()),
+                jobs(c, Job.JobState.KILLED, Optional.empty())));
+    }
+
+    // All jobs in descending order of id, fetched page by page as the stream is consumed.
+    // Errors while fetching a page are thrown as UncheckedIOException.
+    public static Stream<Job> jobs(Client c, Job.JobState state, Optional<String> tag) {
+        return jobs(c, state, tag, LIST_PAGE_SIZE);
+    }
+
+    static Stream<Job> jobs(Client c, Job.JobState state, Optional<String> tag, int pageSize) {
+        Iterator<Job> iterator = new Iterator<Job>() {
+            private Iterator<Job> page = Collections.emptyIterator();
+            private Optional<Integer> after = Optional.empty();
+            private boolean more = true;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && more) {
+                    ListJobResponse res = fetch();
+                    List<Job> jobs = res.jobs();
+                    more = res.more() && !jobs.isEmpty();
+                    if (!jobs.isEmpty()) {
+                        after = Optional.of(jobs.get(jobs.size() - 1).id());
+                    }
+                    page = jobs.iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Job next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+
+            private ListJobResponse fetch() {
+                try {
+                    Response res = c.list(state, tag, after, pageSize);
+                    if (res instanceof ListJobResponse) {
+                        return (ListJobResponse) res;
+                    }
+                    throw new IOException(res.status());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+    }
+
+    private static List<Job> collect(Stream<Job> jobs) throws IOException {
+        try {
+            return jobs.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
 
@@ -134,22 +187,27 @@ public class ClientHelper {
             if (!getJobResponse.job().isPresent()) {
                 throw new JobNotFoundException(id);
             }
+            current = getJobResponse.job();
         }
 
         int interval = INITAL_INTERVAL_MSEC;
-        Job.JobState currentState = Job.JobState.QUEUED;
+        Job.JobState currentState = current.get().state();
 
         long bytesRead = readFileUntilEmpty(c, id, filename, offset, out);
         offset = offset + bytesRead;
 
         do {
-            Response res = c.getJob(id);
-            if (!(res instanceof GetJobResponse)) {
-                LOG.error(res.status());
-                throw new IOException(res.status());
+            if (!poll || currentState == Job.JobState.FINISHED || currentState == Job.JobState.KILLED) {
+                Response res = c.getJob(id);
+                if (!(res instanceof GetJobResponse)) {
+                    LOG.error(res.status());
+                    throw new IOException(res.status());
+                }
+                current = ((GetJobResponse) res).job();
+            } else {
+                // Instead of sleeping, wake up at once when the job finishes
+                current = waitJob(c, id, currentState, interval);
             }
-            GetJobResponse getJobResponse = (GetJobResponse) res;
-            current = getJobResponse.job();
 
             bytesRead = readFileUntilEmpty(c, id, filename, offset, out);
             offset = offset + bytesRead;
@@ -163,8 +221,6 @@ public class ClientHelper {
             }
 
             if (poll) {
-                maybeSleep(interval);
-
                 if (bytesRead == 0) {
                     interval = Math.min(interval * 2, MAX_INTERVAL_MSEC);
                 } else {
@@ -195,6 +251,73 @@ public class ClientHelper {
         return current;
     }
 
+    // Streams a file from offset up to length bytes (-1 for all) to 'out' as raw bytes. With 'follow',
+    // waits for the job to start and keeps streaming until the job finishes, requesting again
+    // from where the last response ended. Throws FileNotFoundException when no file found.
+    public static Optional<Job> streamWholeFile(Client c, int id, String filename, boolean follow, OutputStream out,
+                                                long offset, long length, Callable<Boolean> terminator)
+            throws IOException, JobNotFoundException, TimeoutException {
+        Optional<Job> current = getJob(c, id);
+        if (!current.isPresent()) {
+            throw new JobNotFoundException(id);
+        }
+        if (follow) {
+            Job started = waitForStart(current.get(), c, terminator);
+            if (started == null) {
+                return current;
+            }
+            current = Optional.of(started);
+        }
+
+        while (true) {
+            Job.JobState state = current.get().state();
+            boolean finished = state == Job.JobState.FINISHED || state == Job.JobState.KILLED;
+            long read;
+            try {
+                read = c.streamFile(id, filename, offset, length, follow && !finished, out);
+            } catch (FileNotFoundException e) {
+                if (!follow || finished) {
+                    throw e;
+                }
+                read = 0; // Not yet created
+            }
+            offset += read;
+            if (length > 0) {
+                length -= read;
+            }
+            if (!follow || finished || length == 0) {
+                return current;
+            }
+
+            try {
+                if (terminator != null && terminator.call()) {
+                    throw new TimeoutException("Timeout at streamWholeFile");
+                }
+            } catch (TimeoutException e) {
+                throw e;
+            } catch (Exception e) {
+                LOG.error(e.toString(), e);
+                return current; // I don't know how to handle it
+            }
+
+            // Server ends a response in a while even if the job is running
+            Optional<Job> next = read == 0 ? waitJob(c, id, state, INITAL_INTERVAL_MSEC) : getJob(c, id);
+            if (!next.isPresent()) {
+                throw new JobNotFoundException(id);
+            }
+            current = next;
+        }
+    }
+
+    private static Optional<Job> getJob(Client c, int id) throws IOException {
+        Response res = c.getJob(id);
+        if (!(res instanceof GetJobResponse)) {
+            LOG.error(res.status());
+            throw new IOException(res.status());
+        }
+        return ((GetJobResponse) res).job();
+    }
+
     // This interface is still in experiment, which may be changed even in patch release.
     public static void getWholeBinaryFile(Client c, int id, String path, String output) throws IOException {
         String fullpath = FilenameUtils.concat(output, FilenameUtils.getName(path));
@@ -242,11 +365,7 @@ public class ClientHelper {
 
     public static Job waitForStart(Job job, Client c, Callable<Boolean> terminate) throws IOException, TimeoutException {
         Job current = job;
-        int interval = INITAL_INTERVAL_MSEC;
         while (current.state() == Job.JobState.QUEUED) {
-            maybeSleep(interval);
-            interval = Math.min(interval * 2, MAX_INTERVAL_MSEC);
-
             try {
                 if (terminate != null && terminate.call()) {
                     throw new TimeoutException("Timeout at waitForStart");
@@ -258,21 +377,31 @@ public class ClientHelper {
                 return null; // I don't know how to handle it
             }
 
-            Response res = c.getJob(job.id());
-            if (res instanceof GetJobResponse) {
-                GetJobResponse getJobResponse = (GetJobResponse) res;
-                if (getJobResponse.job().isPresent()) {
-                    current = getJobResponse.job().get();
-                    continue;
-                }
-            } else {
-                LOG.error(res.status());
-                throw new IOException(res.status());
+            Optional<Job> maybeJob = waitJob(c, job.id(), Job.JobState.QUEUED, WAIT_TIMEOUT_MSEC);
+            if (maybeJob.isPresent()) {
+                current = maybeJob.get();
             }
         }
         return current;
     }
 
+    // Waits for the job leaving 'state' up to timeout milliseconds, and returns the job at that time.
+    // Sleeps a while when server returned at once without change, e.g. when server is busy.
+    static Optional<Job> waitJob(Client c, int id, Job.JobState state, int timeout) throws IOException {
+        long start = System.currentTimeMillis();
+        Response res = c.waitJob(id, state, timeout);
+        if (!(res instanceof GetJobResponse)) {
+            LOG.error(res.status());
+            throw new IOException(res.status());
+        }
+        Optional<Job> job = ((GetJobResponse) res).job();
+        long rest = Math.min(timeout, INITAL_INTERVAL_MSEC) - (System.currentTimeMillis() - start);
+        if (job.isPresent() && job.get().state() == state && rest > 0) {
+            maybeSleep((int) rest);
+        }
+        return job;
+    }
+
     public static void maybeSleep(int millis) {
         try {
             Thread.sleep(millis);
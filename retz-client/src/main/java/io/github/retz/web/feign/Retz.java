@@ -52,6 +52,10 @@ public interface Retz {
         return list(new ListJobRequest(state, tag));
     }
 
+    default Response list(Job.JobState state, Optional<String> tag, Optional<Integer> after, int limit) {
+        return list(new ListJobRequest(state, tag, after, Optional.of(limit)));
+    }
+
     @RequestLine("POST /jobs")
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response list(ListJobRequest request);
@@ -68,6 +72,10 @@ public interface Retz {
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response getJob(@Param("id") int id);
 
+    @RequestLine("GET /job/{id}/wait?state={state}&timeout={timeout}")
+    @Headers({"Content-Type: application/json", "Accept: application/json"})
+    Response waitJob(@Param("id") int id, @Param("state") Job.JobState state, @Param("timeout") int timeout);
+
     @RequestLine("GET /job/{id}/file?path={path}&offset={offset}&length={length}")
     @Headers({"Content-Type: application/json", "Accept: application/json"})
     Response getFile(
@@ -36,6 +36,7 @@ public interface Authenticator {
 
     String signature(String verb, String md5, String date, String resource);
 
+    // Only for debug logs, error messages and tests; signing never builds this string
     String string2sign(String verb, String md5, String date, String resource);
 
     AuthHeader header(String verb, String md5, String date, String resource);
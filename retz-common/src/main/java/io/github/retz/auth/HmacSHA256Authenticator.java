@@ -21,7 +21,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.Calendar;
@@ -34,8 +39,13 @@ public class HmacSHA256Authenticator implements Authenticator {
 
     private static final String REALM = "Retz-auth-v1";
     private static final String ALGORITHM = "HmacSHA256";
+    private static final byte[] NEWLINE = {'\n'};
 
-    static Mac mac = null;
+    // Buffer to encode each part of string to sign, without building the whole string
+    private static final ThreadLocal<Encoder> ENCODER = ThreadLocal.withInitial(Encoder::new);
+    // Mac is not thread safe; each thread has its own, shared by all users and initialized
+    // with the secret of the user to sign for, which is cheap for HMAC
+    private static final ThreadLocal<Signer> SIGNER = ThreadLocal.withInitial(Signer::new);
 
     private final String KEY;
     private final SecretKeySpec SECRET_KEY_SPEC;
@@ -43,7 +53,7 @@ public class HmacSHA256Authenticator implements Authenticator {
     static {
         try {
             Date start = Calendar.getInstance().getTime();
-            mac = Mac.getInstance(ALGORITHM);
+            Mac.getInstance(ALGORITHM);
             Date end = Calendar.getInstance().getTime();
             LOG.debug("javax.crypto.Mac instance with {} initialized in {} ms.",
                     ALGORITHM, end.getTime() - start.getTime());
@@ -71,33 +81,71 @@ public class HmacSHA256Authenticator implements Authenticator {
     public boolean authenticate(String verb, String md5, String date, String resource,
                                 String key, String sign) {
 
-        if (!KEY.equals(key)) {
+        if (!KEY.equals(key) || sign == null) {
+            return false;
+        }
+        byte[] given;
+        try {
+            given = Base64.getDecoder().decode(sign);
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Invalid signature {}: {}", sign, e.toString());
             return false;
         }
-        String generatedSignature = signature(verb, md5, date, resource);
         // TODO: check whether timestamp is within 10 minutes from now or not
-        LOG.debug("Generated: {} ?= Given {}", generatedSignature, sign);
-        return generatedSignature.equals(sign);
+        // Compare in constant time not to leak how many bytes matched
+        return MessageDigest.isEqual(sign(verb, md5, date, resource), given);
     }
 
     public String signature(String verb, String md5, String date, String resource) {
-        String string2sign = string2sign(verb, md5, date, resource);
-        LOG.debug("String2sign: {}", string2sign);
-        try {
-            if (HmacSHA256Authenticator.mac == null) {
-                throw new RuntimeException("Authenticator is null");
+        return Base64.getEncoder().withoutPadding().encodeToString(sign(verb, md5, date, resource));
+    }
+
+    private byte[] sign(String verb, String md5, String date, String resource) {
+        Mac mac = SIGNER.get().mac(SECRET_KEY_SPEC);
+        Encoder encoder = ENCODER.get();
+        encoder.update(mac, verb);
+        mac.update(NEWLINE);
+        encoder.update(mac, md5);
+        mac.update(NEWLINE);
+        encoder.update(mac, date);
+        mac.update(NEWLINE);
+        encoder.update(mac, resource);
+        mac.update(NEWLINE);
+        // doFinal resets the Mac for the next use with the same secret
+        return mac.doFinal();
+    }
+
+    // Mac of a thread with the secret it has been initialized with last
+    private static final class Signer {
+        private final Mac mac;
+        private SecretKeySpec secret = null;
+
+        private Signer() {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(ALGORITHM + " is not available");
             }
-            // TODO: when this becomes bottleneck at server side, make this TLS
-            synchronized (HmacSHA256Authenticator.mac) {
-                HmacSHA256Authenticator.mac.init(SECRET_KEY_SPEC);
-                byte[] mac_bytes = mac.doFinal(string2sign.getBytes(UTF_8));
-                return Base64.getEncoder().withoutPadding().encodeToString(mac_bytes);
+        }
+
+        // Initialized again only for another secret; otherwise just reset in case the
+        // last signing has been interrupted
+        private Mac mac(SecretKeySpec secret) {
+            if (this.secret != secret) {
+                try {
+                    mac.init(secret);
+                } catch (InvalidKeyException e) {
+                    throw new AssertionError(secret.getFormat() + " is wrong");
+                }
+                this.secret = secret;
+            } else {
+                mac.reset();
             }
-        } catch (InvalidKeyException e) {
-            throw new AssertionError(SECRET_KEY_SPEC.getFormat() + " is wrong");
+            return mac;
         }
     }
 
+    // Not used to sign; the same bytes are fed to Mac part by part in sign()
     public String string2sign(String verb, String md5, String date, String resource) {
         return new StringBuilder()
                 .append(verb).append("\n")
@@ -121,4 +169,34 @@ public class HmacSHA256Authenticator implements Authenticator {
         String signature = signature(verb, md5, date, resource);
         return new AuthHeader(KEY, signature);
     }
+
+    // UTF-8 encoder with a reusable buffer, used by one thread
+    private static final class Encoder {
+        // Replaces malformed input as String.getBytes does
+        private final CharsetEncoder encoder = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // Heap buffer on purpose: MacSpi.engineUpdate(ByteBuffer) passes the backing array
+        // as is, while it copies a direct buffer into a temporary array first
+        private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+        void update(Mac mac, String s) {
+            if (s == null) {
+                // Same as StringBuilder.append(null)
+                s = "null";
+            }
+            CharBuffer in = CharBuffer.wrap(s);
+            encoder.reset();
+            boolean done = false;
+            while (!done) {
+                done = !encoder.encode(in, buffer, true).isOverflow();
+                if (done) {
+                    encoder.flush(buffer);
+                }
+                buffer.flip();
+                mac.update(buffer);
+                buffer.clear();
+            }
+        }
+    }
 }
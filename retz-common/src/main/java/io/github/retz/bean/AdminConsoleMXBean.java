@@ -17,6 +17,7 @@
 package io.github.retz.bean;
 
 import java.util.List;
+import java.util.Map;
 
 public interface AdminConsoleMXBean {
     List<String> listUser();
@@ -25,6 +26,14 @@ public interface AdminConsoleMXBean {
     boolean enableUser(String id, boolean enabled);
 
     List<String> getUsage(String start, String end);
+    String exportUsage(String start, String end, String dir);
     boolean gc();
     boolean gc(int leeway);
+    boolean migrate();
+
+    // Counters of a component, e.g. "planning" or "job-states", by names in listStats()
+    List<String> listStats();
+    Map<String, Long> getStats(String name);
+
+    String getSchemaMigrations();
 }
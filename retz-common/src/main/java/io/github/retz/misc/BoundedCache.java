@@ -0,0 +1,158 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.misc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Least-recently-used cache of bounded size. Entries expire after TTL unless it is 0.
+ * Capacity 0 disables the cache.
+ */
+public class BoundedCache<K, V> {
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    private int capacity;
+    private long ttlNanos;
+    // Bumped at each removal, not to put values loaded before it
+    private long generation = 0;
+
+    // In access order, for LRU
+    private final LinkedHashMap<K, CachedValue<V>> map = new LinkedHashMap<K, CachedValue<V>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public BoundedCache(int capacity, int ttlSeconds) {
+        configure(capacity, ttlSeconds);
+    }
+
+    public synchronized void configure(int capacity, int ttlSeconds) {
+        this.capacity = capacity;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        clear();
+    }
+
+    public synchronized Optional<V> get(K key) {
+        CachedValue<V> entry = map.get(key);
+        if (entry != null) {
+            if (ttlNanos == 0 || System.nanoTime() - entry.loaded < ttlNanos) {
+                hits.incrementAndGet();
+                return Optional.of(entry.value);
+            }
+            map.remove(key);
+            evictions.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    // Same as get, without counting as a hit or miss
+    public synchronized Optional<V> peek(K key) {
+        CachedValue<V> entry = map.get(key);
+        if (entry != null && (ttlNanos == 0 || System.nanoTime() - entry.loaded < ttlNanos)) {
+            return Optional.of(entry.value);
+        }
+        return Optional.empty();
+    }
+
+    public synchronized void put(K key, V value) {
+        if (capacity > 0) {
+            map.put(key, new CachedValue<>(value, System.nanoTime()));
+        }
+    }
+
+    // Same as put, unless any entry has been removed since generation() returned 'generation',
+    // e.g. when the value has been changed and invalidated while it was loaded
+    public synchronized void put(K key, V value, long generation) {
+        if (this.generation == generation) {
+            put(key, value);
+        }
+    }
+
+    public synchronized void putAll(Map<K, V> values) {
+        for (Map.Entry<K, V> e : values.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    public synchronized void remove(K key) {
+        generation++;
+        map.remove(key);
+    }
+
+    public synchronized void removeIf(Predicate<K> pred) {
+        generation++;
+        map.keySet().removeIf(pred);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        map.clear();
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", (long) size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private static final class CachedValue<V> {
+        private final V value;
+        private final long loaded;
+
+        private CachedValue(V value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+}
@@ -24,15 +24,28 @@ import io.github.retz.protocol.data.Job;
 import java.util.Objects;
 import java.util.Optional;
 
+// Jobs are listed in descending order of id. To list next page, set 'after'
+// as id of the last job in the previous page; 'limit' is capped by server.
 public class ListJobRequest extends Request {
     private Job.JobState state;
     private Optional<String> tag;
+    private Optional<Integer> after;
+    private Optional<Integer> limit;
+
+    public ListJobRequest(Job.JobState state, Optional<String> tag) {
+        this(state, tag, Optional.empty(), Optional.empty());
+    }
 
     @JsonCreator
     public ListJobRequest(@JsonProperty(value = "state", required = true) Job.JobState state,
-                          @JsonProperty("tag") Optional<String> tag) {
+                          @JsonProperty("tag") Optional<String> tag,
+                          @JsonProperty("after") Optional<Integer> after,
+                          @JsonProperty("limit") Optional<Integer> limit) {
         this.state = Objects.requireNonNull(state);
         this.tag = tag;
+        // Absent in requests from older clients
+        this.after = after == null ? Optional.empty() : after;
+        this.limit = limit == null ? Optional.empty() : limit;
     }
 
     @JsonGetter("state")
@@ -45,6 +58,16 @@ public class ListJobRequest extends Request {
         return tag;
     }
 
+    @JsonGetter("after")
+    public Optional<Integer> after() {
+        return after;
+    }
+
+    @JsonGetter("limit")
+    public Optional<Integer> limit() {
+        return limit;
+    }
+
     @Override
     public String resource() {
         return "/jobs";
@@ -27,8 +27,10 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo.Id;
         @Type(name = "list", value = ListJobRequest.class),
         @Type(name = "schedule", value = ScheduleRequest.class),
         @Type(name = "get-job", value = GetJobRequest.class),
+        @Type(name = "wait-job", value = WaitJobRequest.class),
         @Type(name = "get-file", value = GetFileRequest.class),
         @Type(name = "download-file", value = DownloadFileRequest.class),
+        @Type(name = "stream-file", value = StreamFileRequest.class),
         @Type(name = "list-files", value = ListFilesRequest.class),
         @Type(name = "kill", value = KillRequest.class),
         @Type(name = "get-app", value = GetAppRequest.class),
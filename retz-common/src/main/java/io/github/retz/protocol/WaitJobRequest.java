@@ -0,0 +1,81 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.protocol;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonGetter;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.github.retz.protocol.data.Job;
+
+import java.util.Objects;
+
+// Long polling request to wait for the job leaving 'state', which is the last state
+// known to client. Server returns GetJobResponse with the current job as soon as the
+// state changes, or after 'timeout' milliseconds (capped by server) without changes.
+public class WaitJobRequest extends Request {
+    private int id;
+    private Job.JobState state;
+    private int timeout;
+
+    @JsonCreator
+    public WaitJobRequest(@JsonProperty(value = "id", required = true) int id,
+                          @JsonProperty(value = "state", required = true) Job.JobState state,
+                          @JsonProperty(value = "timeout") int timeout) {
+        this.id = id;
+        this.state = Objects.requireNonNull(state);
+        this.timeout = timeout;
+    }
+
+    @JsonGetter("id")
+    public int id() {
+        return id;
+    }
+
+    @JsonGetter("state")
+    public Job.JobState state() {
+        return state;
+    }
+
+    @JsonGetter("timeout")
+    public int timeout() {
+        return timeout;
+    }
+
+    @Override
+    public String resource() {
+        return new StringBuilder("/job/")
+                .append(id)
+                .append("/wait")
+                .append("?state=").append(state)
+                .append("&timeout=").append(timeout)
+                .toString();
+    }
+
+    @Override
+    public String method() {
+        return GET;
+    }
+
+    @Override
+    public boolean hasPayload() {
+        return false;
+    }
+
+    public static String resourcePattern() {
+        return "/job/:id/wait";
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.auth;
+
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HmacSHA256AuthenticatorTest {
+    private static final String DATE = "Tue, 07 Mar 2017 10:12:24 GMT";
+
+    // Signature over the whole string to sign, as clients of older versions do
+    private static String expected(String secret, String string2sign) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(UTF_8), "HmacSHA256"));
+        return Base64.getEncoder().withoutPadding().encodeToString(mac.doFinal(string2sign.getBytes(UTF_8)));
+    }
+
+    @Test
+    public void compatible() throws Exception {
+        StringBuilder longPath = new StringBuilder("/job/1/file?path=");
+        for (int i = 0; i < 1000; ++i) {
+            longPath.append("\u30c7\u30fc\u30bf");
+        }
+        String[] resources = {"/jobs", "/app/\u30a2\u30d7\u30ea", longPath.toString(), "/bad\ud800surrogate"};
+
+        HmacSHA256Authenticator authenticator = new HmacSHA256Authenticator("deadbeef", "cafebabe");
+        for (String resource : resources) {
+            String string2sign = authenticator.string2sign("GET", "", DATE, resource);
+            String signature = authenticator.signature("GET", "", DATE, resource);
+            assertEquals(expected("cafebabe", string2sign), signature);
+            assertTrue(authenticator.authenticate("GET", "", DATE, resource, "deadbeef", signature));
+        }
+    }
+
+    @Test
+    public void reject() {
+        HmacSHA256Authenticator authenticator = new HmacSHA256Authenticator("deadbeef", "cafebabe");
+        String signature = authenticator.signature("GET", "", DATE, "/jobs");
+
+        assertFalse(authenticator.authenticate("GET", "", DATE, "/jobs", "deadbee", signature));
+        assertFalse(authenticator.authenticate("PUT", "", DATE, "/jobs", "deadbeef", signature));
+        assertFalse(authenticator.authenticate("GET", "", DATE, "/jobs", "deadbeef", "A" + signature.substring(1)));
+        assertFalse(authenticator.authenticate("GET", "", DATE, "/jobs", "deadbeef", signature.substring(2)));
+        assertFalse(authenticator.authenticate("GET", "", DATE, "/jobs", "deadbeef", "not base64 !"));
+        assertFalse(authenticator.authenticate("GET", "", DATE, "/jobs", "deadbeef", null));
+
+        // Different secret
+        HmacSHA256Authenticator other = new HmacSHA256Authenticator("deadbeef", "cafebabf");
+        assertFalse(other.authenticate("GET", "", DATE, "/jobs", "deadbeef", signature));
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        List<HmacSHA256Authenticator> authenticators = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            authenticators.add(new HmacSHA256Authenticator("key" + i, "secret" + i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; ++i) {
+                        HmacSHA256Authenticator a = authenticators.get(i % authenticators.size());
+                        String resource = "/job/" + i;
+                        String expected = expected("secret" + (i % authenticators.size()),
+                                a.string2sign("GET", "", DATE, resource));
+                        if (!expected.equals(a.signature("GET", "", DATE, resource))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner.builtin;
+
+import io.github.retz.planner.spi.Offer;
+import io.github.retz.planner.spi.Plan;
+import io.github.retz.planner.spi.Planner;
+import io.github.retz.planner.spi.Resource;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.ResourceQuantity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Multi-dimensional best-fit-decreasing packing of jobs over all offers.
+ * Jobs are admitted from the head of the queue as long as their total fits
+ * the total of all offers in CPU, memory, GPU, ports and disk. Admitted jobs
+ * are sorted by their largest share of CPU, memory, GPU or ports, and each
+ * job is put to the offer that has least room left after the job is put.
+ * A job that fits no offer does not block jobs behind it as FIFOPlanner does;
+ * instead, up to 'retz.planner.backfill' jobs behind admitted ones may use
+ * room left. The server takes as many jobs from the queue past the first one
+ * that doesn't fit in total (see lookahead()). Once the first job left in the
+ * queue has been left for 'retz.planner.reserve-after' cycles, the offer with
+ * most room is reserved for it: jobs behind it are not put there, and the
+ * offer is stocked if unused, so that a steady stream of small jobs doesn't
+ * starve it. A job that fits no agent at all keeps holding an offer.
+ */
+public class BestFitPlanner implements Planner {
+    private static final Logger LOG = LoggerFactory.getLogger(BestFitPlanner.class);
+    private final List<String> ORDER_BY = Arrays.asList("id");
+
+    public static final String BACKFILL = "retz.planner.backfill";
+    static final int DEFAULT_BACKFILL = 100;
+    public static final String RESERVE_AFTER = "retz.planner.reserve-after";
+    static final int DEFAULT_RESERVE_AFTER = 10;
+
+    // cpu, mem, gpu, ports and disk; disk is checked but not considered in ordering
+    private static final int DIMENSIONS = 5;
+    private static final int SORT_DIMENSIONS = 4;
+
+    private boolean useGpu;
+    private int maxStock;
+    private int backfill = DEFAULT_BACKFILL;
+    private int reserveAfter = DEFAULT_RESERVE_AFTER;
+
+    // The first job left in the queue at the last cycle, and for how many cycles in a row
+    private int headId = -1;
+    private int waited = 0;
+
+    public BestFitPlanner() {
+    }
+
+    @Override
+    public void initialize(Properties p) {
+        backfill = Integer.parseInt(p.getProperty(BACKFILL, Integer.toString(DEFAULT_BACKFILL)));
+        if (backfill < 0) {
+            throw new IllegalArgumentException(BACKFILL + " must not be negative: " + backfill);
+        }
+        reserveAfter = Integer.parseInt(p.getProperty(RESERVE_AFTER, Integer.toString(DEFAULT_RESERVE_AFTER)));
+        if (reserveAfter < 0) {
+            throw new IllegalArgumentException(RESERVE_AFTER + " must not be negative: " + reserveAfter);
+        }
+        LOG.info("BestFitPlanner initialized: {}={}, {}={}", BACKFILL, backfill, RESERVE_AFTER, reserveAfter);
+    }
+
+    @Override
+    public void setUseGpu(boolean useGpu) {
+        this.useGpu = useGpu;
+    }
+
+    @Override
+    public void setMaxStock(int maxStock) {
+        this.maxStock = maxStock;
+    }
+
+    @Override
+    public List<String> orderBy() {
+        return ORDER_BY;
+    }
+
+    // Jobs to backfill are behind a large job which may not fit in total of offers
+    @Override
+    public int lookahead() {
+        return backfill;
+    }
+
+    @Override
+    public boolean filter(Job job) {
+        if (job.resources().getGpu() > 0 && !useGpu) {
+            // The job requires GPU while this planner configuration does not allow any GPU jobs
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Plan plan(Map<String, Offer> offers, List<Job> jobs) {
+        List<String> offerIds = new ArrayList<>(offers.keySet());
+        double[][] free = new double[offerIds.size()][];
+        double[] total = new double[DIMENSIONS];
+        for (int i = 0; i < offerIds.size(); ++i) {
+            free[i] = vector(offers.get(offerIds.get(i)).resource());
+            for (int d = 0; d < DIMENSIONS; ++d) {
+                total[d] += free[i][d];
+            }
+        }
+
+        double[][] demands = new double[jobs.size()][];
+        int head = -1;
+        for (int j = 0; j < jobs.size(); ++j) {
+            demands[j] = vector(jobs.get(j).resources());
+            if (jobs.get(j).id() == headId) {
+                head = j;
+            }
+        }
+        // Jobs behind the head don't get the reserved offer; 0 disables reservation
+        int reserved = reserveAfter > 0 && head >= 0 && waited >= reserveAfter ? roomiest(free, total) : -1;
+
+        // Admit jobs from the head, as findFit does
+        int admitted = 0;
+        double[] sum = new double[DIMENSIONS];
+        for (; admitted < jobs.size(); ++admitted) {
+            boolean fits = true;
+            for (int d = 0; d < DIMENSIONS; ++d) {
+                if (sum[d] + demands[admitted][d] > total[d]) {
+                    fits = false;
+                }
+            }
+            if (!fits) {
+                break;
+            }
+            for (int d = 0; d < DIMENSIONS; ++d) {
+                sum[d] += demands[admitted][d];
+            }
+        }
+
+        double[] shares = new double[admitted];
+        List<Integer> order = new ArrayList<>(admitted);
+        for (int j = 0; j < admitted; ++j) {
+            shares[j] = dominantShare(demands[j], total);
+            order.add(j);
+        }
+        // Decreasing; stable sort keeps queue order among jobs of the same size
+        order.sort((l, r) -> Double.compare(shares[r], shares[l]));
+
+        // Index of offer for each job, or -1
+        int[] assigned = new int[jobs.size()];
+        Arrays.fill(assigned, -1);
+        boolean blocked = false;
+        for (int j : order) {
+            assigned[j] = put(free, demands[j], total, j > head ? reserved : -1);
+            blocked |= assigned[j] < 0;
+        }
+
+        // Bounded backfill with jobs behind, in queue order
+        int backfilled = 0;
+        for (int j = admitted; j < jobs.size() && backfilled < backfill; ++j) {
+            assigned[j] = put(free, demands[j], total, j > head ? reserved : -1);
+            if (assigned[j] < 0) {
+                blocked = true;
+            } else if (blocked) {
+                backfilled++;
+            }
+        }
+
+        Plan plan = new Plan();
+        List<Job> keep = new LinkedList<>();
+        for (int j = 0; j < jobs.size(); ++j) {
+            if (assigned[j] < 0) {
+                keep.add(jobs.get(j));
+            } else {
+                plan.setJob(offerIds.get(assigned[j]), jobs.get(j));
+            }
+        }
+        countWaiting(keep.isEmpty() ? -1 : keep.get(0).id());
+
+        if (reserved >= 0 && !plan.getJobSpecs().containsKey(offerIds.get(reserved)) && maxStock > 0) {
+            LOG.debug("Offer {} is reserved for job id={}", offerIds.get(reserved), jobs.get(head).id());
+            plan.addStock(offerIds.get(reserved));
+        }
+        for (String offerId : offerIds) {
+            if (!plan.getJobSpecs().containsKey(offerId)
+                    && !plan.getOfferIdsToStock().contains(offerId)
+                    && plan.getOfferIdsToStock().size() < maxStock) {
+                // No jobs found for this offer
+                plan.addStock(offerId);
+            }
+        }
+        if (!keep.isEmpty()) {
+            plan.addKeep(keep);
+        }
+        LOG.debug("Plan => {}", plan);
+        return plan;
+    }
+
+    // Counts cycles for which the job has been the first one left in the queue
+    private void countWaiting(int id) {
+        if (id >= 0 && id == headId) {
+            waited++;
+        } else {
+            headId = id;
+            waited = id >= 0 ? 1 : 0;
+        }
+    }
+
+    // Puts the job to the best fit offer but 'excluded', and returns its index, or -1 if no offer fits
+    private static int put(double[][] free, double[] demand, double[] total, int excluded) {
+        int best = bestFit(free, demand, total, excluded);
+        if (best >= 0) {
+            for (int d = 0; d < DIMENSIONS; ++d) {
+                free[best][d] -= demand[d];
+            }
+        }
+        return best;
+    }
+
+    // The offer where least room is left after the job is put, or -1 if no offer fits
+    private static int bestFit(double[][] free, double[] demand, double[] total, int excluded) {
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < free.length; ++i) {
+            if (i == excluded) {
+                continue;
+            }
+            double score = 0;
+            boolean fits = true;
+            for (int d = 0; d < DIMENSIONS; ++d) {
+                double left = free[i][d] - demand[d];
+                if (left < 0) {
+                    fits = false;
+                    break;
+                }
+                if (d < SORT_DIMENSIONS && total[d] > 0) {
+                    score += left / total[d];
+                }
+            }
+            if (fits && score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // The offer with most room, or -1 if there are no offers
+    private static int roomiest(double[][] free, double[] total) {
+        int best = -1;
+        double bestScore = -1;
+        for (int i = 0; i < free.length; ++i) {
+            double score = 0;
+            for (int d = 0; d < SORT_DIMENSIONS; ++d) {
+                if (total[d] > 0) {
+                    score += free[i][d] / total[d];
+                }
+            }
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static double dominantShare(double[] demand, double[] total) {
+        double share = 0;
+        for (int d = 0; d < SORT_DIMENSIONS; ++d) {
+            if (total[d] > 0) {
+                share = Math.max(share, demand[d] / total[d]);
+            }
+        }
+        return share;
+    }
+
+    private static double[] vector(Resource resource) {
+        return new double[]{resource.cpu(), resource.memMB(), resource.gpu(), resource.portAmount(), resource.diskMB()};
+    }
+
+    private static double[] vector(ResourceQuantity q) {
+        return new double[]{q.getCpu(), q.getMemMB(), q.getGpu(), q.getPorts(), q.getDiskMB()};
+    }
+}
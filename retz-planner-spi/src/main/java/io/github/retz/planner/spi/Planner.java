@@ -54,6 +54,15 @@ public interface Planner {
     // NOT members of Job class.
     // TODO: think of more smarter way of finding these orders
     List<String> orderBy();
+
+    // Number of queued jobs behind the first one that doesn't fit in
+    // total of offers, to be given to 'plan' with it, for planners that
+    // place jobs out of order. Jobs are taken only until one doesn't
+    // fit by default.
+    default int lookahead() {
+        return 0;
+    }
+
     // Selected jobs => true
     // Filtered-out jobs => false
     boolean filter(Job job);
@@ -0,0 +1,157 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner.builtin;
+
+import io.github.retz.planner.spi.Offer;
+import io.github.retz.planner.spi.Plan;
+import io.github.retz.planner.spi.Resource;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Range;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BestFitPlannerTest {
+    private BestFitPlanner planner;
+
+    @Before
+    public void before() {
+        planner = new BestFitPlanner();
+        planner.initialize(new Properties());
+    }
+
+    private static Job job(int id, int cpu, int memMB) {
+        Job job = new Job("app", "cmd", new Properties(), cpu, memMB, 0);
+        job.schedule(id, "2017-01-01T00:00:00.000+09:00");
+        return job;
+    }
+
+    @Test
+    public void bestFitDecreasing() {
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        offers.put("big", new Offer("big", new Resource(8, 8192, 0)));
+        offers.put("small", new Offer("small", new Resource(4, 4096, 0)));
+        // FIFOPlanner puts the first job to 'big', and then the second job fits nowhere
+        List<Job> jobs = Arrays.asList(job(0, 4, 1024), job(1, 8, 1024));
+
+        Plan plan = planner.plan(offers, jobs);
+        assertEquals(1, plan.getJobSpecs().get("big").size());
+        assertEquals(1, plan.getJobSpecs().get("big").get(0).id());
+        assertEquals(1, plan.getJobSpecs().get("small").size());
+        assertEquals(0, plan.getJobSpecs().get("small").get(0).id());
+        assertTrue(plan.getToKeep().isEmpty());
+
+        // Compare
+        Plan fifo = new FIFOPlanner().plan(offers, jobs);
+        assertEquals(1, fifo.getToKeep().size());
+    }
+
+    @Test
+    public void multiDimensional() {
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        offers.put("gpu", new Offer("gpu", new Resource(8, 8192, 0, 2, new LinkedList<>())));
+        offers.put("ports", new Offer("ports", new Resource(8, 8192, 0, 0,
+                new LinkedList<>(Arrays.asList(new Range(31000, 31009))))));
+
+        Job gpuJob = new Job("app", "cmd", new Properties(), 1, 1024, 0, 2, 0);
+        gpuJob.schedule(0, "2017-01-01T00:00:00.000+09:00");
+        Job portJob = new Job("app", "cmd", new Properties(), 1, 1024, 0, 0, 10);
+        portJob.schedule(1, "2017-01-01T00:00:00.000+09:00");
+        Job tooManyPorts = new Job("app", "cmd", new Properties(), 1, 1024, 0, 0, 11);
+        tooManyPorts.schedule(2, "2017-01-01T00:00:00.000+09:00");
+
+        Plan plan = planner.plan(offers, Arrays.asList(gpuJob, portJob, tooManyPorts));
+        assertEquals(0, plan.getJobSpecs().get("gpu").get(0).id());
+        assertEquals(1, plan.getJobSpecs().get("ports").get(0).id());
+        assertEquals(1, plan.getToKeep().size());
+        assertEquals(2, plan.getToKeep().get(0).id());
+    }
+
+    @Test
+    public void boundedBackfill() {
+        Properties p = new Properties();
+        p.setProperty(BestFitPlanner.BACKFILL, "2");
+        planner.initialize(p);
+
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        offers.put("offer", new Offer("offer", new Resource(8, 8192, 0)));
+        List<Job> jobs = new LinkedList<>();
+        jobs.add(job(0, 16, 1024)); // blocked
+        for (int i = 1; i <= 4; ++i) {
+            jobs.add(job(i, 1, 1024));
+        }
+
+        Plan plan = planner.plan(offers, jobs);
+        // Only 2 jobs may overtake the blocked one
+        assertEquals(2, plan.getJobSpecs().get("offer").size());
+        assertEquals(1, plan.getJobSpecs().get("offer").get(0).id());
+        assertEquals(2, plan.getJobSpecs().get("offer").get(1).id());
+        assertEquals(3, plan.getToKeep().size());
+    }
+
+    @Test
+    public void reservation() {
+        Properties p = new Properties();
+        p.setProperty(BestFitPlanner.RESERVE_AFTER, "2");
+        planner.initialize(p);
+        planner.setMaxStock(1);
+
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        offers.put("large", new Offer("large", new Resource(8, 8192, 0)));
+        offers.put("small", new Offer("small", new Resource(4, 4096, 0)));
+        List<Job> jobs = new LinkedList<>();
+        jobs.add(job(0, 16, 1024)); // blocked
+        for (int i = 1; i <= 16; ++i) {
+            jobs.add(job(i, 1, 1024));
+        }
+
+        // Small jobs take room of both offers while the large job hasn't waited long
+        for (int cycle = 0; cycle < 2; ++cycle) {
+            Plan plan = planner.plan(offers, jobs);
+            assertEquals(8, plan.getJobSpecs().get("large").size());
+            assertEquals(4, plan.getJobSpecs().get("small").size());
+        }
+
+        Plan plan = planner.plan(offers, jobs);
+        assertFalse(plan.getJobSpecs().containsKey("large"));
+        assertEquals(4, plan.getJobSpecs().get("small").size());
+        assertEquals(Arrays.asList("large"), plan.getOfferIdsToStock());
+        assertEquals(0, plan.getToKeep().get(0).id());
+
+        // Reservation ends when the job leaves the queue
+        plan = planner.plan(offers, jobs.subList(1, jobs.size()));
+        assertEquals(8, plan.getJobSpecs().get("large").size());
+    }
+
+    @Test
+    public void stock() {
+        planner.setMaxStock(1);
+        Map<String, Offer> offers = new LinkedHashMap<>();
+        for (int i = 0; i < 3; ++i) {
+            offers.put("offer" + i, new Offer("offer" + i, new Resource(8, 8192, 0)));
+        }
+        Plan plan = planner.plan(offers, Arrays.asList(job(0, 8, 1024)));
+        assertEquals(1, plan.getJobSpecs().size());
+        assertEquals(1, plan.getOfferIdsToStock().size());
+        assertTrue(!plan.getJobSpecs().containsKey(plan.getOfferIdsToStock().get(0)));
+    }
+}
@@ -35,7 +35,9 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.*;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -44,10 +46,20 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class Database {
     private static final Logger LOG = LoggerFactory.getLogger(Database.class);
     private static Database database = new Database();
+    // Rows fetched at a time by streaming queries
+    private static final int USAGE_FETCH_SIZE = 1000;
 
     private final ObjectMapper MAPPER = new ObjectMapper();
     private final DataSource dataSource = new DataSource();
+    private final JobStateCounts counts = new JobStateCounts();
     String databaseURL = null;
+    private boolean migrateOnline = true;
+    private boolean partition = false;
+    // Present only when finished jobs are moved to partitions
+    private Optional<JobPartitions> partitions = Optional.empty();
+    // Called with key id of a user added or changed, e.g. to invalidate caches of upper layers
+    private volatile Consumer<String> onUserChanged = keyId -> {
+    };
 
     Database() {
         MAPPER.registerModule(new Jdk8Module());
@@ -57,6 +69,10 @@ public class Database {
         return database;
     }
 
+    public void onUserChanged(Consumer<String> callback) {
+        onUserChanged = Objects.requireNonNull(callback);
+    }
+
     static Database newMemInstance(String name) throws IOException, SQLException {
         Database db = new Database();
         db.initOnMem(name);
@@ -74,6 +90,8 @@ public class Database {
 
     public void init(ServerConfiguration config) throws IOException, SQLException {
         databaseURL = Objects.requireNonNull(config.getDatabaseURL());
+        migrateOnline = config.getMigrateOnline();
+        partition = config.getPartition();
         LOG.info("Initializing database {}", databaseURL);
 
         PoolProperties props = new PoolProperties();
@@ -123,6 +141,19 @@ public class Database {
             }
             maybeCreateTables(conn);
             conn.commit();
+            if (partition) {
+                if (JobSchemaMigration.isPostgreSQL(meta)) {
+                    JobPartitions jobPartitions = new JobPartitions();
+                    jobPartitions.prepare(conn, YearMonth.now());
+                    conn.commit();
+                    partitions = Optional.of(jobPartitions);
+                    LOG.info("Finished jobs are moved to partitions: {}", jobPartitions.partitions());
+                } else {
+                    LOG.warn("Partitions of jobs are only supported on PostgreSQL: ignored on {}", databaseURL);
+                }
+            }
+            counts.load(conn);
+            LOG.info("Jobs in each state: {}", counts.toMap());
         }
     }
 
@@ -144,10 +175,11 @@ public class Database {
     public void clear() {
         try (Connection conn = dataSource.getConnection();
              Statement statement = conn.createStatement()) {
-            statement.execute("DROP TABLE users, jobs, applications, properties");
+            statement.execute("DROP TABLE job_tags, users, jobs, applications, properties, schema_version");
             //statement.execute("DELETE FROM jobs");
             //statement.execute("DELETE FROM applications");
             conn.commit();
+            counts.reset();
             LOG.info("All tables dropped successfully");
         } catch (SQLException e) {
             LOG.error(e.toString());
@@ -223,6 +255,26 @@ public class Database {
                 statement.execute(createString);
             }
         }
+        // Also for new databases, to record versions and to add what can't be
+        // written in retz-ddl.sql, like partial indexes on PostgreSQL
+        int applied = new SchemaMigrations(MAPPER).migrate(conn, migrateOnline);
+        LOG.info("{} schema migrations applied", applied);
+    }
+
+    // Applies all pending schema migrations including online ones deferred at startup
+    public synchronized int migrate() throws SQLException, IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            return new SchemaMigrations(MAPPER).migrate(conn, true);
+        }
+    }
+
+    // Schema migrations with statements to run for pending ones, for dry run
+    public List<Map<String, Object>> schemaMigrations() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            return new SchemaMigrations(MAPPER).status(conn);
+        }
     }
 
     public List<User> allUsers() throws IOException {
@@ -268,6 +320,8 @@ public class Database {
             p.setString(4, MAPPER.writeValueAsString(u));
             p.execute();
             return true;
+        } finally {
+            onUserChanged.accept(u.keyId());
         }
     }
 
@@ -322,6 +376,8 @@ public class Database {
                 updateUser(conn, user.get());
             }
             conn.commit();
+        } finally {
+            onUserChanged.accept(keyId);
         }
     }
 
@@ -455,30 +511,48 @@ public class Database {
     }
 
     public List<Job> listJobs(String id, Job.JobState state, Optional<String> tag, int limit) throws SQLException {
-        List<Job> ret = new LinkedList<>();
-        String prefix = "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
-        String sql = prefix + " AND j.state=? ORDER BY j.id DESC LIMIT ?";
+        return listJobs(id, state, tag, Optional.empty(), limit);
+    }
+
+    // Jobs in descending order of id, which are older than 'after' if present, as a page
+    // starting after the last job of the previous page
+    public List<Job> listJobs(String id, Job.JobState state, Optional<String> tag, Optional<Integer> after, int limit) throws SQLException {
+        List<Job> ret = new ArrayList<>();
+        String sql;
+        if (tag.isPresent()) {
+            sql = "SELECT j.* FROM job_tags t, " + jobsOf(state) + " j, applications a WHERE t.tag = ? AND t.id = j.id"
+                    + " AND j.appid = a.appid AND a.owner = ? AND j.state=?";
+        } else {
+            sql = "SELECT j.* FROM " + jobsOf(state) + " j, applications a WHERE j.appid = a.appid AND a.owner = ? AND j.state=?";
+        }
+        if (after.isPresent()) {
+            sql += " AND j.id < ?";
+        }
+        sql += " ORDER BY j.id DESC LIMIT ?";
 
         try (Connection conn = dataSource.getConnection(); // pool.getConnection();
              PreparedStatement p = conn.prepareStatement(sql)) {
-            p.setString(1, id);
-            p.setString(2, state.toString());
-            p.setInt(3, limit);
+            int i = 1;
+            if (tag.isPresent()) {
+                p.setString(i++, tag.get());
+            }
+            p.setString(i++, id);
+            p.setString(i++, state.toString());
+            if (after.isPresent()) {
+                p.setInt(i++, after.get());
+            }
+            p.setInt(i, limit);
 
             conn.setAutoCommit(true);
 
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString(1);
                     try {
-                        Job job = MAPPER.readValue(json, Job.class);
+                        Job job = Jobs.fromResultSet(res, MAPPER);
                         assert job.state() == state;
-                        if (tag.isPresent() && !job.tags().contains(tag.get())) {
-                            continue;
-                        }
                         ret.add(job);
                     } catch (IOException e) {
-                        LOG.warn("Failed to decode json", e);
+                        LOG.warn("Failed to decode job", e);
                     }
                 }
             }
@@ -486,12 +560,20 @@ public class Database {
         return ret;
     }
 
+    // Partitions can't be skipped by a state given as a parameter
+    private String jobsOf(Job.JobState state) {
+        if (partitions.isPresent() && !JobPartitions.isFinal(state)) {
+            return "ONLY jobs";
+        }
+        return "jobs";
+    }
+
     // This is for debug purpose
     List<Job> getAllJobs(String id) throws IOException {
         List<Job> ret = new LinkedList<>();
-        String sql = "SELECT j.json FROM jobs j";
+        String sql = "SELECT j.* FROM jobs j";
         if (id != null) {
-            sql = "SELECT j.json FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
+            sql = "SELECT j.* FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = ?";
         }
         try (Connection conn = dataSource.getConnection(); // pool.getConnection();
              PreparedStatement p = conn.prepareStatement(sql)) {
@@ -502,10 +584,7 @@ public class Database {
 
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    //String json = res.getString("j.json");
-                    String json = res.getString(1);
-                    Job job = MAPPER.readValue(json, Job.class);
-                    ret.add(job);
+                    ret.add(Jobs.fromResultSet(res, MAPPER));
                 }
             }
         } catch (SQLException e) {
@@ -516,40 +595,67 @@ public class Database {
     }
 
     // Selects all "finished" jobs
-    public List<Job> finishedJobs(String start, String end) {
-        List<Job> ret = new LinkedList<>();
-        try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE ? <= finished AND finished < ?")) {
-            conn.setAutoCommit(true);
-
+    // Aggregates usage of jobs finished in [start, end), streaming rows with a forward-only
+    // cursor not to load all of them on memory
+    public Usage usage(String start, String end) throws SQLException {
+        Usage usage = new Usage();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("SELECT a.owner, j.appid, j.started, j.finished, j.cpu, j.mem, j.gpu"
+                             + " FROM jobs j LEFT JOIN applications a ON j.appid = a.appid WHERE ? <= j.finished AND j.finished < ?",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // PostgreSQL fetches rows in batches with a cursor only in a transaction
+            conn.setAutoCommit(false);
+            p.setFetchSize(USAGE_FETCH_SIZE);
             p.setString(1, start);
             p.setString(2, end);
             try (ResultSet res = p.executeQuery()) {
-
                 while (res.next()) {
-                    String json = res.getString("json");
-                    try {
-                        Job job = MAPPER.readValue(json, Job.class);
-                        if (job == null) {
-                            throw new AssertionError("Cannot be null!!");
+                    usage.add(res.getString("owner"), res.getString("appid"), res.getString("started"),
+                            res.getString("finished"), res.getInt("cpu"), res.getInt("mem"), res.getInt("gpu"));
+                }
+            }
+            conn.commit();
+        }
+        return usage;
+    }
+
+    // Writes jobs finished in [start, end) to the archive in pages of 'limit' jobs by id,
+    // each fetched by a short query, and returns the number of them
+    public int exportJobs(String start, String end, int limit, JobArchive archive) throws SQLException, IOException {
+        int afterId = Integer.MIN_VALUE;
+        while (true) {
+            int count = 0;
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE ? <= finished AND finished < ?"
+                         + " AND id > ? ORDER BY id LIMIT ?")) {
+                conn.setAutoCommit(true);
+                p.setString(1, start);
+                p.setString(2, end);
+                p.setInt(3, afterId);
+                p.setInt(4, limit);
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        afterId = res.getInt("id");
+                        count++;
+                        try {
+                            archive.write(Jobs.fromResultSet(res, MAPPER));
+                        } catch (JsonProcessingException e) {
+                            LOG.error("Failed to decode job id={}: {}", afterId, e.toString());
                         }
-                        ret.add(job);
-                    } catch (IOException e) {
-                        LOG.error(e.toString()); // JSON text is broken for sure
                     }
                 }
             }
-        } catch (SQLException e) {
-            LOG.error(e.toString());
-            e.printStackTrace();
+            archive.flush();
+            if (count < limit) {
+                return archive.count();
+            }
         }
-        return ret;
     }
 
     // orderBy must not have any duplication
     public List<Job> findFit(List<String> orderBy, int cpu, int memMB) throws IOException {
         List<Job> ret = new LinkedList<>();
-        String orders = String.join(", ", orderBy.stream().map(s -> s + " ASC").collect(Collectors.toList()));
+        String orders = String.join(", ", orderBy.stream().map(s -> s + " ASC NULLS LAST").collect(Collectors.toList()));
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state='QUEUED' ORDER BY " + orders)) {
             conn.setAutoCommit(true);
@@ -559,12 +665,9 @@ public class Database {
                 int totalMem = 0;
 
                 while (res.next() && totalCpu <= cpu && totalMem <= memMB) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
+                    Job job = Jobs.fromResultSet(res, MAPPER);
 
-                    if (job == null) {
-                        throw new AssertionError("Cannot be null!!");
-                    } else if (totalCpu + job.resources().getCpu() <= cpu && totalMem + job.resources().getMemMB() <= memMB) {
+                    if (totalCpu + job.resources().getCpu() <= cpu && totalMem + job.resources().getMemMB() <= memMB) {
                         ret.add(job);
                         totalCpu += job.resources().getCpu();
                         totalMem += job.resources().getMemMB();
@@ -589,10 +692,9 @@ public class Database {
 
             try (ResultSet res = p.executeQuery()) {
                 while (res.next()) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
+                    Job job = Jobs.fromResultSet(res, MAPPER);
 
-                    if (job == null || job.state() != Job.JobState.QUEUED) {
+                    if (job.state() != Job.JobState.QUEUED) {
                         throw new AssertionError("Cannot be null!!");
                     } else {
                         ret.add(job);
@@ -604,20 +706,11 @@ public class Database {
     }
 
     public void addJob(Connection conn, Job j) throws SQLException, JsonProcessingException {
-        try (PreparedStatement p = conn.prepareStatement("INSERT INTO jobs(name, id, appid, cmd, priority, taskid, state, json) values(?, ?, ?, ?, ?, ?, ?, ?)")) {
-            p.setString(1, j.name());
-            p.setInt(2, j.id());
-            p.setString(3, j.appid());
-            p.setString(4, j.cmd());
-            p.setInt(5, j.priority());
-            p.setString(6, j.taskId());
-            p.setString(7, j.state().toString());
-            p.setString(8, MAPPER.writeValueAsString(j));
-            p.execute();
-        }
+        new Jobs(conn, MAPPER).addJob(j);
     }
 
-    public void safeAddJob(Job j) {
+    // Returns true only when the job has been committed
+    public boolean safeAddJob(Job j) {
         try (Connection conn = dataSource.getConnection()) { //pool.getConnection()) {
             conn.setAutoCommit(false);
 
@@ -626,30 +719,29 @@ public class Database {
                 throw new RuntimeException("No such application: " + j.appid());
             }
 
-            addJob(conn, j);
+            Jobs jobs = new Jobs(conn, MAPPER);
+            jobs.addJob(j);
             conn.commit();
+            counts.apply(jobs);
+            return true;
 
         } catch (IOException e) {
             throw new RuntimeException(e.toString());
         } catch (SQLException e) {
             LOG.error(e.toString());
+            return false;
         }
     }
 
     public Optional<AppJobPair> getAppJob(int id) throws IOException {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT j.json, a.json FROM jobs j, applications a WHERE id = ? AND j.appid = a.appid")) {
+             PreparedStatement p = conn.prepareStatement("SELECT j.*, a.json AS ajson FROM jobs j, applications a WHERE id = ? AND j.appid = a.appid")) {
             conn.setAutoCommit(true);
             p.setInt(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String jjson = res.getString(1);
-                    Job job = MAPPER.readValue(jjson, Job.class);
-                    if (id != job.id()) {
-                        LOG.error("{} != {} in Database", id, job.id());
-                        throw new AssertionError("id in JSON must be equal to the column");
-                    }
-                    String ajson = res.getString(2);
+                    Job job = Jobs.fromResultSet(res, MAPPER);
+                    String ajson = res.getString("ajson");
                     Application app = MAPPER.readValue(ajson, Application.class);
 
                     return Optional.of(new AppJobPair(Optional.of(app), job));
@@ -669,13 +761,7 @@ public class Database {
             p.setInt(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
-                    if (id != job.id()) {
-                        LOG.error("{} != {} in Database", id, job.id());
-                        throw new AssertionError("id in JSON must be equal to the column");
-                    }
-                    return Optional.of(job);
+                    return Optional.of(Jobs.fromResultSet(res, MAPPER));
                 }
                 // No such application
             }
@@ -687,20 +773,14 @@ public class Database {
 
     public Optional<Job> getJobFromTaskId(String taskId) throws JsonProcessingException, IOException {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE taskid=?")) {
+             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE taskid=?")) {
             conn.setAutoCommit(true);
 
             p.setString(1, taskId);
 
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
-                    if (!taskId.equals(job.taskId())) {
-                        LOG.error("{} != {} in Database", taskId, job.taskId());
-                        throw new AssertionError("id in JSON must be equal to the column");
-                    }
-                    return Optional.of(job);
+                    return Optional.of(Jobs.fromResultSet(res, MAPPER));
                 }
                 LOG.info("no such application/job");
                 // No such application
@@ -711,51 +791,157 @@ public class Database {
         return Optional.empty();
     }
 
+    public Map<String, Job> getJobsFromTaskIds(Collection<String> taskIds) throws IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Map<String, Job> jobs = new Jobs(conn, MAPPER).getJobsFromTaskIds(taskIds);
+            conn.commit();
+            return jobs;
+        } catch (SQLException e) {
+            LOG.error(e.toString());
+        }
+        return new HashMap<>();
+    }
+
     // Delete all jobs that has ID smaller than id
     public void deleteAllJob(int maxId) {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
+             PreparedStatement t = conn.prepareStatement("DELETE FROM job_tags WHERE id < ?");
              PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE id < ?")) {
             conn.setAutoCommit(true);
+            t.setInt(1, maxId);
+            t.execute();
             p.setInt(1, maxId);
             p.execute();
+            counts.load(conn);
         } catch (SQLException e) {
             LOG.error(e.toString());
         }
     }
 
-    public void deleteOldJobs(int leeway) {
+    // Deletes a chunk of old jobs in a transaction and returns their ids; see Jobs.collect.
+    // Jobs are archived before the deletion is committed, so they may be archived twice
+    // when the commit fails
+    public List<Integer> deleteOldJobs(String before, int afterId, int limit, Optional<JobArchive> archive) throws SQLException, IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            Jobs jobs = new Jobs(conn, MAPPER);
+            List<Integer> ids = jobs.collect(before, afterId, limit, archive);
+            if (archive.isPresent()) {
+                archive.get().flush();
+            }
+            conn.commit();
+            counts.apply(jobs);
+            return ids;
+        }
+    }
+
+    public boolean partitioned() {
+        return partitions.isPresent();
+    }
+
+    // Creates partitions of this month and the next, if not yet
+    public void preparePartitions() throws SQLException {
+        if (!partitions.isPresent()) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            partitions.get().prepare(conn, YearMonth.now());
+            conn.commit();
+        }
+    }
+
+    // Moves a chunk of finished jobs left in 'jobs' to partitions in a transaction,
+    // and returns the number of them
+    public int sweepPartitions(int limit) throws SQLException {
+        if (!partitions.isPresent()) {
+            return 0;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            int moved = partitions.get().sweep(conn, limit);
+            conn.commit();
+            return moved;
+        }
+    }
+
+    // Drops partitions of jobs all finished before 'before', and returns the number of jobs dropped
+    public int dropPartitions(String before) throws SQLException {
+        if (!partitions.isPresent()) {
+            return 0;
+        }
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
-            new Jobs(conn, MAPPER).collect(leeway);
+            Map<Job.JobState, Integer> dropped = partitions.get().drop(conn, before);
+            conn.commit();
+            counts.remove(dropped);
+            return dropped.values().stream().mapToInt(Integer::intValue).sum();
         } catch (SQLException e) {
-            LOG.error(e.toString(), e);
+            // Partitions known on memory may have been removed before rollback
+            preparePartitions();
+            throw e;
         }
     }
 
-    public void setJobStarting(int id, Optional<String> maybeUrl, String taskId) throws IOException, SQLException, JobNotFoundException {
-        updateJob(id, job -> {
+    public Optional<Job> setJobStarting(int id, Optional<String> maybeUrl, String taskId) throws IOException, SQLException, JobNotFoundException {
+        return setJobStarting(id, maybeUrl, taskId, Optional.empty());
+    }
+
+    // The agent is recorded only in database, to find jobs running there when it is lost
+    public Optional<Job> setJobStarting(int id, Optional<String> maybeUrl, String taskId, Optional<String> slaveId) throws IOException, SQLException, JobNotFoundException {
+        return updateJob(id, job -> {
             job.starting(taskId, maybeUrl, TimestampHelper.now());
             LOG.info("TaskId of id={}: {} / {}", id, taskId, job.taskId());
             return Optional.of(job);
-        });
+        }, slaveId);
+    }
+
+    // Sets the URL only if the job is still running as the task
+    public boolean setJobUrl(int id, String taskId, String url) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement p = conn.prepareStatement("UPDATE jobs SET url=? WHERE id=? AND taskid=? AND state IN ('STARTING', 'STARTED')")) {
+            conn.setAutoCommit(true);
+            p.setString(1, url);
+            p.setInt(2, id);
+            p.setString(3, taskId);
+            return p.executeUpdate() > 0;
+        } catch (SQLException e) {
+            LOG.error(e.toString());
+            return false;
+        }
+    }
+
+    // Returns the updated job only if it has been committed
+    public Optional<Job> updateJob(int id, Function<Job, Optional<Job>> fun) throws IOException, SQLException, JobNotFoundException {
+        return updateJob(id, fun, Optional.empty());
     }
 
-    public void updateJob(int id, Function<Job, Optional<Job>> fun) throws IOException, SQLException, JobNotFoundException {
+    private Optional<Job> updateJob(int id, Function<Job, Optional<Job>> fun, Optional<String> slaveId) throws IOException, SQLException, JobNotFoundException {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
+             PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE id=?")) {
             conn.setAutoCommit(false);
             p.setInt(1, id);
             try (ResultSet set = p.executeQuery()) {
                 if (set.next()) {
-                    String json = set.getString("json");
-                    Job job = MAPPER.readValue(json, Job.class);
+                    Job job = Jobs.fromResultSet(set, MAPPER);
                     Optional<Job> result = fun.apply(job);
                     if (result.isPresent()) {
                         // addJob..
-                        new Jobs(conn, MAPPER).updateJob(job);
+                        Jobs jobs = new Jobs(conn, MAPPER);
+                        jobs.updateJob(job);
+                        if (slaveId.isPresent()) {
+                            jobs.setSlaveId(id, slaveId.get());
+                        }
+                        if (partitions.isPresent()) {
+                            partitions.get().move(conn, Arrays.asList(job));
+                        }
                         conn.commit();
+                        counts.apply(jobs);
                         LOG.info("Job (id={}) status updated to {}", job.id(), job.state());
+                        return Optional.of(job);
                     }
+                    return Optional.empty();
                 } else {
                     throw new JobNotFoundException(id);
                 }
@@ -778,15 +964,25 @@ public class Database {
         return -1;
     }
 
+    // Counted on memory with committed changes; see JobStateCounts
     public int countRunning() {
-        return countByState(Job.JobState.STARTED) + countByState(Job.JobState.STARTING);
+        return counts.get(Job.JobState.STARTED) + counts.get(Job.JobState.STARTING);
     }
 
     public int countQueued() {
-        return countByState(Job.JobState.QUEUED);
+        return counts.get(Job.JobState.QUEUED);
+    }
+
+    public int countByState(Job.JobState state) {
+        return counts.get(state);
+    }
+
+    public Map<String, Long> stateCounts() {
+        return counts.toMap();
     }
 
-    private int countByState(Job.JobState state) {
+    // Counted in database, to check the counts on memory
+    int countByStateInDB(Job.JobState state) {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
              PreparedStatement p = conn.prepareStatement("SELECT count(id) FROM jobs WHERE state = ?")) {
             conn.setAutoCommit(true);
@@ -805,12 +1001,12 @@ public class Database {
 
     public int getLatestJobId() {
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT id FROM jobs ORDER BY id DESC LIMIT 1")) {
+             PreparedStatement p = conn.prepareStatement("SELECT MAX(id) FROM jobs")) {
             conn.setAutoCommit(true);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    int id = res.getInt("id");
-                    return id;
+                    // NULL, i.e. 0, when no job exists
+                    return res.getInt(1);
                 }
                 // No such application
             }
@@ -827,21 +1023,34 @@ public class Database {
         return jobs;
     }
 
+    // Running jobs whose latest run has been launched at the agent, with index on slaveid
+    public List<Job> getRunningOnSlave(String slaveId) {
+        return getJobs("SELECT * FROM jobs WHERE slaveid = ? AND state IN ('STARTING', 'STARTED')", slaveId);
+    }
+
+    // Running jobs launched before slaveid column was added, or launched without the agent known
+    public List<Job> getRunningOnUnknownSlave() {
+        return getJobs("SELECT * FROM jobs WHERE slaveid IS NULL AND state IN ('STARTING', 'STARTED')");
+    }
+
     private List<Job> getByState(Job.JobState state) {
+        return getJobs("SELECT * FROM jobs WHERE state = ?", state.toString());
+    }
+
+    private List<Job> getJobs(String sql, String... params) {
         List<Job> jobs = new LinkedList<>();
         try (Connection conn = dataSource.getConnection(); //pool.getConnection();
-             PreparedStatement p = conn.prepareStatement("SELECT id, json FROM jobs WHERE state = ?")) {
+             PreparedStatement p = conn.prepareStatement(sql)) {
             conn.setAutoCommit(true);
-            p.setString(1, state.toString());
+            for (int i = 0; i < params.length; ++i) {
+                p.setString(i + 1, params[i]);
+            }
             try (ResultSet set = p.executeQuery()) {
                 while (set.next()) {
-                    String json = "";
                     try {
-                        json = set.getString("json");
-                        Job job = MAPPER.readValue(json, Job.class);
-                        jobs.add(job);
+                        jobs.add(Jobs.fromResultSet(set, MAPPER));
                     } catch (IOException e) {
-                        LOG.warn("Skipping job({}) due to exception", json, e);
+                        LOG.warn("Skipping job({}) due to exception", set.getInt("id"), e);
                     }
                 }
             }
@@ -881,26 +1090,31 @@ public class Database {
         }
     }
 
-    public void updateJobs(List<Job> list) {
+    // Returns true only when all jobs have been committed
+    public boolean updateJobs(List<Job> list) {
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
             Jobs jobs = new Jobs(conn, MAPPER);
-            for (Job job : list) {
-                jobs.updateJob(job);
+            jobs.updateJobs(list);
+            if (partitions.isPresent()) {
+                partitions.get().move(conn, list);
             }
             conn.commit();
-        } catch (JsonProcessingException e) {
-            LOG.error(e.toString());
+            counts.apply(jobs);
+            return true;
         } catch (SQLException e) {
             LOG.error(e.toString());
         }
+        return false;
     }
 
     public void retryJobs(List<Integer> ids) {
         try (Connection conn = dataSource.getConnection()) {
             conn.setAutoCommit(false);
-            new Jobs(conn, MAPPER).doRetry(ids);
+            Jobs jobs = new Jobs(conn, MAPPER);
+            jobs.doRetry(ids);
             conn.commit();
+            counts.apply(jobs);
         } catch (SQLException e) {
             LOG.error(e.toString());
         }
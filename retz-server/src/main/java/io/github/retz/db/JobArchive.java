@@ -0,0 +1,84 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+// Jobs written as newline-delimited JSON to a gzip file, for usage accounting: jobs deleted
+// by each run of garbage collection, or exported by AdminConsole.exportUsage.
+// The file is created at the first job, not to leave empty files for runs writing nothing.
+public class JobArchive implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(JobArchive.class);
+
+    private final ObjectMapper MAPPER = new ObjectMapper();
+    private final Path file;
+    private OutputStream out = null;
+    private int count = 0;
+
+    public JobArchive(Path dir) throws IOException {
+        MAPPER.registerModule(new Jdk8Module());
+        Files.createDirectories(dir);
+        String name = new SimpleDateFormat("yyyyMMdd'T'HHmmss.SSS").format(new Date());
+        this.file = dir.resolve("jobs-" + name + ".ndjson.gz");
+    }
+
+    void write(Job job) throws IOException {
+        if (out == null) {
+            LOG.info("Archiving deleted jobs to {}", file);
+            // Sync flush, to have all jobs written out before their deletion is committed
+            out = new GZIPOutputStream(Files.newOutputStream(file), true);
+        }
+        out.write(MAPPER.writeValueAsBytes(job));
+        out.write('\n');
+        count++;
+    }
+
+    void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            LOG.info("{} jobs archived to {}", count, file);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Monthly partitions of FINISHED and KILLED jobs, like 'jobs_201710', which inherit 'jobs'
+// table on PostgreSQL. 'jobs' itself keeps active jobs and is the only table to write new
+// jobs to, while queries to 'jobs' still see jobs in all partitions. Queries of active
+// states skip partitions by their CHECK constraints, and FROM ONLY 'jobs' where the state
+// is a parameter. Jobs are moved to the partition of the month they finished in, when they
+// finish if the partition exists, or later by sweep(). Old partitions are dropped instead
+// of deleting jobs in them.
+// Months are compared as strings of 'finished' column like Database.finishedJobs, i.e.
+// in the time zone of the server.
+class JobPartitions {
+    private static final Logger LOG = LoggerFactory.getLogger(JobPartitions.class);
+    private static final Pattern MONTH = Pattern.compile("^(\\d{4})-(\\d{2})");
+    private static final Pattern TABLE = Pattern.compile("^jobs_(\\d{4})(\\d{2})$");
+
+    private final Set<YearMonth> partitions = ConcurrentHashMap.newKeySet();
+
+    static Optional<YearMonth> month(String finished) {
+        if (finished == null) {
+            return Optional.empty();
+        }
+        Matcher m = MONTH.matcher(finished);
+        if (m.find()) {
+            return Optional.of(YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))));
+        }
+        return Optional.empty();
+    }
+
+    static String table(YearMonth month) {
+        return String.format("jobs_%04d%02d", month.getYear(), month.getMonthValue());
+    }
+
+    static boolean isFinal(Job.JobState state) {
+        return state == Job.JobState.FINISHED || state == Job.JobState.KILLED;
+    }
+
+    // Loads existing partitions, and creates ones of this month and the next; caller commits
+    void prepare(Connection conn, YearMonth now) throws SQLException {
+        partitions.clear();
+        try (PreparedStatement p = conn.prepareStatement("SELECT c.relname FROM pg_inherits i"
+                + " JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class t ON t.oid = i.inhparent WHERE t.relname = 'jobs'");
+             ResultSet res = p.executeQuery()) {
+            while (res.next()) {
+                Matcher m = TABLE.matcher(res.getString(1));
+                if (m.matches()) {
+                    partitions.add(YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))));
+                }
+            }
+        }
+        create(conn, now);
+        create(conn, now.plusMonths(1));
+    }
+
+    Set<YearMonth> partitions() {
+        return new TreeSet<>(partitions);
+    }
+
+    // Caller commits
+    void create(Connection conn, YearMonth month) throws SQLException {
+        if (partitions.contains(month)) {
+            return;
+        }
+        String table = table(month);
+        LOG.info("Creating partition {} of jobs", table);
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(String.format("CREATE TABLE %s (CHECK (state IN ('FINISHED', 'KILLED')"
+                    + " AND finished >= '%s' AND finished < '%s')) INHERITS (jobs)", table, month, month.plusMonths(1)));
+            // Indexes of 'jobs' used for finished jobs; see retz-ddl.sql
+            statement.execute(String.format("CREATE UNIQUE INDEX %s_id ON %s(id)", table, table));
+            statement.execute(String.format("CREATE INDEX %s_taskid ON %s(taskid)", table, table));
+            statement.execute(String.format("CREATE INDEX %s_appid_state_id ON %s(appid, state, id)", table, table));
+            statement.execute(String.format("CREATE INDEX %s_finished ON %s(finished)", table, table));
+        }
+        partitions.add(month);
+    }
+
+    // Moves FINISHED and KILLED jobs to partitions if exist, and returns the number of them
+    // moved; caller commits
+    int move(Connection conn, Collection<Job> jobs) throws SQLException {
+        int count = 0;
+        for (Job job : jobs) {
+            Optional<YearMonth> month = month(job.finished());
+            if (isFinal(job.state()) && month.isPresent() && partitions.contains(month.get())) {
+                count += move(conn, job.id(), month.get());
+            }
+        }
+        return count;
+    }
+
+    private int move(Connection conn, int id, YearMonth month) throws SQLException {
+        // Partitions have the same columns in the same order as 'jobs'
+        try (PreparedStatement p = conn.prepareStatement("WITH moved AS (DELETE FROM ONLY jobs WHERE id = ? RETURNING *)"
+                + " INSERT INTO " + table(month) + " SELECT * FROM moved")) {
+            p.setInt(1, id);
+            return p.executeUpdate();
+        }
+    }
+
+    // Moves up to 'limit' FINISHED and KILLED jobs left in 'jobs', e.g. finished before
+    // partitions are prepared, creating partitions as needed; caller commits
+    int sweep(Connection conn, int limit) throws SQLException {
+        int count = 0;
+        try (PreparedStatement p = conn.prepareStatement("SELECT id, finished FROM ONLY jobs"
+                + " WHERE state IN ('FINISHED', 'KILLED') ORDER BY id LIMIT ?")) {
+            p.setInt(1, limit);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    Optional<YearMonth> month = month(res.getString("finished"));
+                    if (!month.isPresent()) {
+                        LOG.warn("Job id={} can't be moved to partitions: finished={}", res.getInt("id"), res.getString("finished"));
+                        continue;
+                    }
+                    create(conn, month.get());
+                    count += move(conn, res.getInt("id"), month.get());
+                }
+            }
+        }
+        return count;
+    }
+
+    // Drops partitions where all jobs finished before 'before', with tags of the jobs,
+    // and returns the number of jobs dropped in each state; caller commits
+    Map<Job.JobState, Integer> drop(Connection conn, String before) throws SQLException {
+        Map<Job.JobState, Integer> dropped = new EnumMap<>(Job.JobState.class);
+        for (YearMonth month : partitions()) {
+            if (month.plusMonths(1).toString().compareTo(before) > 0) {
+                break;
+            }
+            String table = table(month);
+            try (Statement statement = conn.createStatement()) {
+                try (ResultSet res = statement.executeQuery("SELECT state, count(id) FROM " + table + " GROUP BY state")) {
+                    while (res.next()) {
+                        dropped.merge(Job.JobState.valueOf(res.getString(1)), res.getInt(2), Integer::sum);
+                    }
+                }
+                statement.execute("DELETE FROM job_tags WHERE id IN (SELECT id FROM " + table + ")");
+                statement.execute("DROP TABLE " + table);
+            }
+            partitions.remove(month);
+            LOG.info("Partition {} of jobs dropped", table);
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Migrates 'jobs' table from the old schema, where whole Job was stored in 'json'
+// column, to the columnar schema in retz-ddl.sql, creates 'job_tags' table
+// from tags of existing jobs, adds 'slaveid' column and indexes matched to job queries.
+// Works with both H2 and PostgreSQL. Steps are applied in order by SchemaMigrations,
+// with statements to run listed for dry run.
+class JobSchemaMigration {
+    private static final Logger LOG = LoggerFactory.getLogger(JobSchemaMigration.class);
+    private static final int BATCH_SIZE = 1024;
+
+    // Columns added to the old schema; name, id, appid, cmd, priority, started,
+    // finished, taskid and state are already there
+    private static final String[] NEW_COLUMNS = {
+            "retry INTEGER DEFAULT 0 NOT NULL",
+            "result INTEGER DEFAULT 0 NOT NULL",
+            "cpu INTEGER DEFAULT 0 NOT NULL",
+            "mem INTEGER DEFAULT 0 NOT NULL",
+            "gpu INTEGER DEFAULT 0 NOT NULL",
+            "ports INTEGER DEFAULT 0 NOT NULL",
+            "disk INTEGER DEFAULT 0 NOT NULL",
+            "nodes INTEGER DEFAULT 0 NOT NULL",
+            "scheduled VARCHAR(32)",
+            "url TEXT",
+            "reason TEXT",
+            "attributes TEXT",
+            "tags TEXT",
+            "props TEXT"
+    };
+
+    // Same as retz-ddl.sql
+    private static final String[] JOB_TAGS_DDL = {
+            "CREATE TABLE job_tags(id INTEGER NOT NULL, tag VARCHAR(1024) NOT NULL, PRIMARY KEY (tag, id))",
+            "CREATE INDEX job_tags_id ON job_tags(id)"
+    };
+
+    // Same as retz-ddl.sql; NULL for jobs started before, which are reconciled instead
+    private static final String[] SLAVE_ID_DDL = {
+            "ALTER TABLE jobs ADD COLUMN slaveid VARCHAR(128)",
+            "CREATE INDEX slaveid ON jobs(slaveid)"
+    };
+
+    // Same as retz-ddl.sql; name and DDL of each index
+    private static final String[][] INDEX_DDL = {
+            {"jobs_state_id", "CREATE INDEX jobs_state_id ON jobs(state, id)"},
+            {"jobs_state_priority_id", "CREATE INDEX jobs_state_priority_id ON jobs(state, priority, id)"},
+            {"jobs_appid_state_id", "CREATE INDEX jobs_appid_state_id ON jobs(appid, state, id)"},
+            {"jobs_state_finished", "CREATE INDEX jobs_state_finished ON jobs(state, finished)"},
+            {"applications_owner", "CREATE INDEX applications_owner ON applications(owner)"}
+    };
+
+    // Partial indexes only for QUEUED jobs, which are few among all jobs, for
+    // Database.queued and Database.findFit; H2 does not support partial indexes
+    private static final String[][] PG_INDEX_DDL = {
+            {"jobs_queued_id", "CREATE INDEX jobs_queued_id ON jobs(id) WHERE state = 'QUEUED'"},
+            {"jobs_queued_priority_id", "CREATE INDEX jobs_queued_priority_id ON jobs(priority, id) WHERE state = 'QUEUED'"}
+    };
+
+    private JobSchemaMigration() {
+    }
+
+    static boolean required(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        // Same as Database.allTableExists, H2 holds names in upper case
+        return columnExists(meta, "jobs", "json") || columnExists(meta, "JOBS", "JSON");
+    }
+
+    static boolean tagTableRequired(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        return !tableExists(meta, "job_tags") && !tableExists(meta, "JOB_TAGS");
+    }
+
+    static boolean slaveIdRequired(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        return !columnExists(meta, "jobs", "slaveid") && !columnExists(meta, "JOBS", "SLAVEID");
+    }
+
+    static boolean indexesRequired(Connection conn) throws SQLException {
+        return !missingIndexes(conn).isEmpty();
+    }
+
+    // DDL of indexes not yet in the database; PostgreSQL 9.4 has no CREATE INDEX IF NOT EXISTS
+    private static List<String> missingIndexes(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        Set<String> existing = new HashSet<>();
+        for (String table : new String[]{"jobs", "JOBS", "applications", "APPLICATIONS"}) {
+            try (ResultSet res = meta.getIndexInfo(null, null, table, false, false)) {
+                while (res.next()) {
+                    String name = res.getString("INDEX_NAME");
+                    if (name != null) {
+                        existing.add(name.toLowerCase());
+                    }
+                }
+            }
+        }
+        List<String> ddls = new ArrayList<>();
+        for (String[] index : INDEX_DDL) {
+            if (!existing.contains(index[0])) {
+                ddls.add(index[1]);
+            }
+        }
+        if (isPostgreSQL(meta)) {
+            for (String[] index : PG_INDEX_DDL) {
+                if (!existing.contains(index[0])) {
+                    ddls.add(index[1]);
+                }
+            }
+        }
+        return ddls;
+    }
+
+    static boolean isPostgreSQL(DatabaseMetaData meta) throws SQLException {
+        return "PostgreSQL".equalsIgnoreCase(meta.getDatabaseProductName());
+    }
+
+    private static boolean tableExists(DatabaseMetaData meta, String table) throws SQLException {
+        try (ResultSet res = meta.getTables(null, null, table, null)) {
+            return res.next();
+        }
+    }
+
+    private static boolean columnExists(DatabaseMetaData meta, String table, String column) throws SQLException {
+        try (ResultSet res = meta.getColumns(null, null, table, column)) {
+            return res.next();
+        }
+    }
+
+    static List<String> plan(Connection conn) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        for (String column : NEW_COLUMNS) {
+            plan.add("ALTER TABLE jobs ADD COLUMN " + column);
+        }
+        plan.add(String.format("UPDATE jobs SET ... WHERE id=? -- decoded from json, %d jobs in batches of %d",
+                countJobs(conn, "SELECT count(id) FROM jobs"), BATCH_SIZE));
+        plan.add("ALTER TABLE jobs DROP COLUMN json");
+        return plan;
+    }
+
+    // Caller commits
+    static int migrate(Connection conn, ObjectMapper mapper) throws SQLException, IOException {
+        LOG.info("Migrating jobs table to columnar schema...");
+        int total = countJobs(conn, "SELECT count(id) FROM jobs");
+        try (Statement statement = conn.createStatement()) {
+            for (String column : NEW_COLUMNS) {
+                statement.execute("ALTER TABLE jobs ADD COLUMN " + column);
+            }
+        }
+
+        int count = 0;
+        try (PreparedStatement select = conn.prepareStatement("SELECT json FROM jobs");
+             PreparedStatement update = conn.prepareStatement("UPDATE jobs SET name=?, priority=?, retry=?, result=?, "
+                     + "cpu=?, mem=?, gpu=?, ports=?, disk=?, nodes=?, scheduled=?, started=?, finished=?, taskid=?, "
+                     + "state=?, url=?, reason=?, attributes=?, tags=?, props=? WHERE id=?")) {
+            select.setFetchSize(BATCH_SIZE);
+            try (ResultSet res = select.executeQuery()) {
+                while (res.next()) {
+                    Job j = mapper.readValue(res.getString("json"), Job.class);
+                    update.setString(1, j.name());
+                    update.setInt(2, j.priority());
+                    update.setInt(3, j.retry());
+                    update.setInt(4, j.result());
+                    update.setInt(5, j.resources().getCpu());
+                    update.setInt(6, j.resources().getMemMB());
+                    update.setInt(7, j.resources().getGpu());
+                    update.setInt(8, j.resources().getPorts());
+                    update.setInt(9, j.resources().getDiskMB());
+                    update.setInt(10, j.resources().getNodes());
+                    update.setString(11, j.scheduled());
+                    update.setString(12, j.started());
+                    update.setString(13, j.finished());
+                    update.setString(14, j.taskId());
+                    update.setString(15, j.state().toString());
+                    update.setString(16, j.url());
+                    update.setString(17, j.reason());
+                    update.setString(18, j.attributes() == null ? null : j.attributes().orElse(null));
+                    update.setString(19, Jobs.encodeTags(j.tags()));
+                    update.setString(20, j.props() == null ? null : mapper.writeValueAsString(j.props()));
+                    update.setInt(21, j.id());
+                    update.addBatch();
+
+                    if (++count % BATCH_SIZE == 0) {
+                        update.executeBatch();
+                        LOG.info("{}/{} jobs migrated", count, total);
+                    }
+                }
+            }
+            update.executeBatch();
+        }
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("ALTER TABLE jobs DROP COLUMN json");
+        }
+        LOG.info("Migration finished: {} jobs migrated", count);
+        return count;
+    }
+
+    static List<String> tagsPlan(Connection conn) throws SQLException {
+        List<String> plan = new ArrayList<>(Arrays.asList(JOB_TAGS_DDL));
+        // Tags are still in 'json' column before migrate()
+        String count = required(conn) ? "SELECT count(id) FROM jobs" : "SELECT count(id) FROM jobs WHERE tags IS NOT NULL";
+        plan.add(String.format("INSERT INTO job_tags(id, tag) VALUES (?, ?) -- tags of up to %d jobs in batches of %d",
+                countJobs(conn, count), BATCH_SIZE));
+        return plan;
+    }
+
+    // Caller commits; must be after migrate() if required
+    static int migrateTags(Connection conn) throws SQLException {
+        LOG.info("Creating job_tags table...");
+        int total = countJobs(conn, "SELECT count(id) FROM jobs WHERE tags IS NOT NULL");
+        int jobs = 0;
+        try (Statement statement = conn.createStatement()) {
+            for (String ddl : JOB_TAGS_DDL) {
+                statement.execute(ddl);
+            }
+        }
+
+        int count = 0;
+        try (PreparedStatement select = conn.prepareStatement("SELECT id, tags FROM jobs WHERE tags IS NOT NULL");
+             PreparedStatement insert = conn.prepareStatement("INSERT INTO job_tags(id, tag) VALUES (?, ?)")) {
+            select.setFetchSize(BATCH_SIZE);
+            try (ResultSet res = select.executeQuery()) {
+                while (res.next()) {
+                    if (++jobs % BATCH_SIZE == 0) {
+                        LOG.info("Tags of {}/{} jobs added", jobs, total);
+                    }
+                    for (String tag : Jobs.decodeTags(res.getString("tags"))) {
+                        insert.setInt(1, res.getInt("id"));
+                        insert.setString(2, tag);
+                        insert.addBatch();
+                        if (++count % BATCH_SIZE == 0) {
+                            insert.executeBatch();
+                        }
+                    }
+                }
+            }
+            insert.executeBatch();
+        }
+        LOG.info("job_tags table created: {} tags of existing jobs added", count);
+        return count;
+    }
+
+    static List<String> slaveIdPlan() {
+        return Arrays.asList(SLAVE_ID_DDL);
+    }
+
+    // Caller commits; must be after migrate() if required
+    static void migrateSlaveId(Connection conn) throws SQLException {
+        LOG.info("Adding slaveid column to jobs table...");
+        try (Statement statement = conn.createStatement()) {
+            for (String ddl : SLAVE_ID_DDL) {
+                statement.execute(ddl);
+            }
+        }
+    }
+
+    // Indexes are built without blocking writes to the table on PostgreSQL if concurrently,
+    // which can't be in a transaction block
+    static List<String> indexesPlan(Connection conn, boolean concurrently) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        boolean postgres = isPostgreSQL(conn.getMetaData());
+        for (String ddl : missingIndexes(conn)) {
+            plan.add(concurrently && postgres ? ddl.replace("CREATE INDEX ", "CREATE INDEX CONCURRENTLY ") : ddl);
+        }
+        return plan;
+    }
+
+    // Caller commits, or sets auto commit if concurrently; must be after all other
+    // migrations, as indexes may refer to new columns
+    static void migrateIndexes(Connection conn, boolean concurrently) throws SQLException {
+        List<String> ddls = indexesPlan(conn, concurrently);
+        try (Statement statement = conn.createStatement()) {
+            int count = 0;
+            for (String ddl : ddls) {
+                LOG.info("Creating index {}/{}: {}", ++count, ddls.size(), ddl);
+                statement.execute(ddl);
+            }
+        }
+    }
+
+    private static int countJobs(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement(sql);
+             ResultSet res = p.executeQuery()) {
+            return res.next() ? res.getInt(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.protocol.data.Job;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Number of jobs in each state. Loaded from 'jobs' table at startup, and changed
+// with deltas counted by Jobs in a transaction, only after it has been committed.
+class JobStateCounts {
+    private static final Job.JobState[] STATES = Job.JobState.values();
+
+    private final AtomicLongArray counts = new AtomicLongArray(STATES.length);
+
+    void load(Connection conn) throws SQLException {
+        long[] loaded = new long[STATES.length];
+        try (PreparedStatement p = conn.prepareStatement("SELECT state, count(id) FROM jobs GROUP BY state");
+             ResultSet res = p.executeQuery()) {
+            while (res.next()) {
+                loaded[Job.JobState.valueOf(res.getString(1)).ordinal()] = res.getLong(2);
+            }
+        }
+        for (int i = 0; i < STATES.length; ++i) {
+            counts.set(i, loaded[i]);
+        }
+    }
+
+    void apply(Jobs jobs) {
+        int[] deltas = jobs.stateDeltas();
+        for (int i = 0; i < STATES.length; ++i) {
+            if (deltas[i] != 0) {
+                counts.addAndGet(i, deltas[i]);
+            }
+        }
+    }
+
+    // Jobs deleted without Jobs, like partitions dropped
+    void remove(Map<Job.JobState, Integer> removed) {
+        for (Map.Entry<Job.JobState, Integer> entry : removed.entrySet()) {
+            counts.addAndGet(entry.getKey().ordinal(), -entry.getValue());
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < STATES.length; ++i) {
+            counts.set(i, 0);
+        }
+    }
+
+    int get(Job.JobState state) {
+        return (int) counts.get(state.ordinal());
+    }
+
+    Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Job.JobState state : STATES) {
+            map.put(state.toString(), counts.get(state.ordinal()));
+        }
+        return map;
+    }
+}
@@ -18,8 +18,8 @@ package io.github.retz.db;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.github.retz.cli.TimestampHelper;
 import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.ResourceQuantity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,16 +28,33 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+// DAO of 'jobs' table in retz-ddl.sql. All fields of Job are stored as plain columns
+// except 'props', which is rarely read and never updated, stored as JSON.
 public class Jobs {
     private static final Logger LOG = LoggerFactory.getLogger(Jobs.class);
 
+    // Max number of parameters in an IN clause
+    private static final int IN_CHUNK = 512;
+
     private Connection conn;
     private ObjectMapper mapper;
+    // Changes of the number of jobs in each state by this transaction; see JobStateCounts
+    private final int[] stateDeltas = new int[Job.JobState.values().length];
 
     public Jobs(Connection c, ObjectMapper m) throws SQLException {
         this.conn = Objects.requireNonNull(c);
@@ -47,13 +64,73 @@ public class Jobs {
         }
     }
 
+    // Decodes current row of the result set, which must include all columns of jobs table
+    static Job fromResultSet(ResultSet res, ObjectMapper mapper) throws SQLException, IOException {
+        String props = res.getString("props");
+        ResourceQuantity resources = new ResourceQuantity(res.getInt("cpu"), res.getInt("mem"),
+                res.getInt("gpu"), res.getInt("ports"), res.getInt("disk"), res.getInt("nodes"));
+        return new Job(res.getString("cmd"),
+                res.getString("scheduled"),
+                res.getString("started"),
+                res.getString("finished"),
+                props == null ? null : mapper.readValue(props, Properties.class),
+                res.getInt("result"),
+                res.getInt("id"),
+                res.getString("url"),
+                res.getString("reason"),
+                res.getInt("retry"),
+                res.getInt("priority"),
+                res.getString("appid"),
+                res.getString("name"),
+                decodeTags(res.getString("tags")),
+                resources,
+                Optional.ofNullable(res.getString("attributes")),
+                res.getString("taskid"),
+                Job.JobState.valueOf(res.getString("state")));
+    }
+
+    // Tags are stored like ",a,b,c,"; job_tags has the same tags for lookup
+    static String encodeTags(Set<String> tags) {
+        if (tags.isEmpty()) {
+            return null;
+        }
+        return "," + String.join(",", tags.stream().sorted().collect(Collectors.toList())) + ",";
+    }
+
+    static Set<String> decodeTags(String tags) {
+        Set<String> ret = new HashSet<>();
+        if (tags != null) {
+            for (String tag : tags.split(",")) {
+                if (!tag.isEmpty()) {
+                    ret.add(tag);
+                }
+            }
+        }
+        return ret;
+    }
+
+    // job_tags has no foreign key to jobs, which may be partitioned; rows are deleted along
+    // with the job in collect, Database.deleteAllJob and JobPartitions.drop
+    static void addTags(Connection conn, int id, Set<String> tags) throws SQLException {
+        if (tags.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement p = conn.prepareStatement("INSERT INTO job_tags(id, tag) VALUES (?, ?)")) {
+            for (String tag : tags) {
+                p.setInt(1, id);
+                p.setString(2, tag);
+                p.addBatch();
+            }
+            p.executeBatch();
+        }
+    }
+
     public List<Job> getAllRunning() throws SQLException {
         List<Job> ret = new LinkedList<>();
-        try (PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE state='STARTING' OR state='STARTED'");
+        try (PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE state IN ('STARTING', 'STARTED')");
              ResultSet res = p.executeQuery()) {
             while (res.next()) {
-                String json = res.getString("json");
-                ret.add(mapper.readValue(json, Job.class));
+                ret.add(fromResultSet(res, mapper));
             }
             for (Job job : ret) {
                 job.doRetry();
@@ -84,42 +161,176 @@ public class Jobs {
     }
 
     public Optional<Job> getJob(int id) throws SQLException, IOException {
-        try (PreparedStatement p = conn.prepareStatement("SELECT json FROM jobs WHERE id=?")) {
+        try (PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE id=?")) {
             p.setInt(1, id);
             try (ResultSet res = p.executeQuery()) {
                 if (res.next()) {
-                    String json = res.getString("json");
-                    return Optional.ofNullable(mapper.readValue(json, Job.class));
+                    return Optional.of(fromResultSet(res, mapper));
                 }
             }
         }
         return Optional.empty();
     }
 
-    public void updateJob(Job j) throws SQLException, JsonProcessingException {
-        LOG.debug("Updating job as name={}, id={}, appid={}", j.name(), j.id(), j.appid());
-        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET name=?, appid=?, cmd=?, priority=?, taskid=?, state=?, started=?, finished=?, json=? WHERE id=?")) {
-            p.setString(1, j.name());
-            p.setString(2, j.appid());
-            p.setString(3, j.cmd());
-            p.setInt(4, j.priority());
-            p.setString(5, j.taskId());
-            p.setString(6, j.state().toString());
-            p.setString(7, j.started());
-            p.setString(8, j.finished());
-            p.setString(9, mapper.writeValueAsString(j));
-            p.setInt(10, j.id());
+    public Map<String, Job> getJobsFromTaskIds(Collection<String> taskIds) throws SQLException, IOException {
+        Map<String, Job> ret = new HashMap<>();
+        List<String> list = new ArrayList<>(taskIds);
+        for (int from = 0; from < list.size(); from += IN_CHUNK) {
+            List<String> chunk = list.subList(from, Math.min(from + IN_CHUNK, list.size()));
+            String params = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement p = conn.prepareStatement("SELECT * FROM jobs WHERE taskid IN (" + params + ")")) {
+                int i = 1;
+                for (String taskId : chunk) {
+                    p.setString(i++, taskId);
+                }
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        Job job = fromResultSet(res, mapper);
+                        ret.put(job.taskId(), job);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    public void addJob(Job j) throws SQLException, JsonProcessingException {
+        try (PreparedStatement p = conn.prepareStatement("INSERT INTO jobs(id, name, appid, cmd, priority, retry, result, "
+                + "cpu, mem, gpu, ports, disk, nodes, scheduled, started, finished, taskid, state, url, reason, attributes, tags, props) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            p.setInt(1, j.id());
+            p.setString(2, j.name());
+            p.setString(3, j.appid());
+            p.setString(4, j.cmd());
+            p.setInt(5, j.priority());
+            p.setInt(6, j.retry());
+            p.setInt(7, j.result());
+            p.setInt(8, j.resources().getCpu());
+            p.setInt(9, j.resources().getMemMB());
+            p.setInt(10, j.resources().getGpu());
+            p.setInt(11, j.resources().getPorts());
+            p.setInt(12, j.resources().getDiskMB());
+            p.setInt(13, j.resources().getNodes());
+            p.setString(14, j.scheduled());
+            p.setString(15, j.started());
+            p.setString(16, j.finished());
+            p.setString(17, j.taskId());
+            p.setString(18, j.state().toString());
+            p.setString(19, j.url());
+            p.setString(20, j.reason());
+            p.setString(21, j.attributes() == null ? null : j.attributes().orElse(null));
+            p.setString(22, encodeTags(j.tags()));
+            p.setString(23, j.props() == null ? null : mapper.writeValueAsString(j.props()));
             p.execute();
         }
+        addTags(conn, j.id(), j.tags());
+        stateDeltas[j.state().ordinal()]++;
+    }
+
+    public void updateJob(Job j) throws SQLException {
+        updateJobs(Arrays.asList(j));
     }
 
-    public void collect(int leeway) throws SQLException {
-        String last = TimestampHelper.past(leeway);
-        try (PreparedStatement p = conn.prepareStatement("DELETE FROM jobs WHERE finished < ? AND (state='FINISHED' OR state='KILLED')"))
-        {
-            LOG.info("Deleting old jobs finished before {}...", last);
-            p.setString(1, last);
-            p.execute(); // returns true as the result of DELETE query is null.
+    // All updates are sent in a single JDBC batch. Only mutable fields of Job are
+    // written; command, application, resources, attributes and props never change.
+    // Tags are never changed after the job is scheduled, so job_tags is left as is.
+    public void updateJobs(List<Job> list) throws SQLException {
+        Map<Integer, String> oldStates = lockStates(list);
+        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET name=?, priority=?, retry=?, result=?, "
+                + "scheduled=?, started=?, finished=?, taskid=?, state=?, url=?, reason=?, tags=? WHERE id=?")) {
+            for (Job j : list) {
+                LOG.debug("Updating job as name={}, id={}, appid={}", j.name(), j.id(), j.appid());
+                p.setString(1, j.name());
+                p.setInt(2, j.priority());
+                p.setInt(3, j.retry());
+                p.setInt(4, j.result());
+                p.setString(5, j.scheduled());
+                p.setString(6, j.started());
+                p.setString(7, j.finished());
+                p.setString(8, j.taskId());
+                p.setString(9, j.state().toString());
+                p.setString(10, j.url());
+                p.setString(11, j.reason());
+                p.setString(12, encodeTags(j.tags()));
+                p.setInt(13, j.id());
+                p.addBatch();
+
+                String old = oldStates.put(j.id(), j.state().toString());
+                if (old != null) {
+                    stateDeltas[Job.JobState.valueOf(old).ordinal()]--;
+                    stateDeltas[j.state().ordinal()]++;
+                }
+            }
+            p.executeBatch();
+        }
+    }
+
+    // Current states of the jobs, locked until the end of the transaction
+    private Map<Integer, String> lockStates(List<Job> list) throws SQLException {
+        Map<Integer, String> states = new HashMap<>();
+        for (int from = 0; from < list.size(); from += IN_CHUNK) {
+            List<Job> chunk = list.subList(from, Math.min(from + IN_CHUNK, list.size()));
+            String params = String.join(",", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement p = conn.prepareStatement("SELECT id, state FROM jobs WHERE id IN (" + params + ") FOR UPDATE")) {
+                int i = 1;
+                for (Job j : chunk) {
+                    p.setInt(i++, j.id());
+                }
+                try (ResultSet res = p.executeQuery()) {
+                    while (res.next()) {
+                        states.put(res.getInt("id"), res.getString("state"));
+                    }
+                }
+            }
+        }
+        return states;
+    }
+
+    int[] stateDeltas() {
+        return stateDeltas;
+    }
+
+    public void setSlaveId(int id, String slaveId) throws SQLException {
+        try (PreparedStatement p = conn.prepareStatement("UPDATE jobs SET slaveid=? WHERE id=?")) {
+            p.setString(1, slaveId);
+            p.setInt(2, id);
+            p.execute();
+        }
+    }
+
+    // Deletes up to 'limit' FINISHED or KILLED jobs finished before 'before', with id larger
+    // than 'afterId' in order of id, and returns their ids; jobs are written to 'archive'
+    // if present before they are deleted, with their tags
+    List<Integer> collect(String before, int afterId, int limit, Optional<JobArchive> archive) throws SQLException, IOException {
+        String columns = archive.isPresent() ? "*" : "id, state";
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement p = conn.prepareStatement("SELECT " + columns + " FROM jobs WHERE state IN ('FINISHED', 'KILLED')"
+                + " AND finished < ? AND id > ? ORDER BY id LIMIT ?")) {
+            p.setString(1, before);
+            p.setInt(2, afterId);
+            p.setInt(3, limit);
+            try (ResultSet res = p.executeQuery()) {
+                while (res.next()) {
+                    if (archive.isPresent()) {
+                        archive.get().write(fromResultSet(res, mapper));
+                    }
+                    ids.add(res.getInt("id"));
+                    stateDeltas[Job.JobState.valueOf(res.getString("state")).ordinal()]--;
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            return ids;
+        }
+        for (String sql : new String[]{"DELETE FROM job_tags WHERE id=?", "DELETE FROM jobs WHERE id=?"}) {
+            try (PreparedStatement p = conn.prepareStatement(sql)) {
+                for (int id : ids) {
+                    p.setInt(1, id);
+                    p.addBatch();
+                }
+                p.executeBatch();
+            }
         }
+        return ids;
     }
 }
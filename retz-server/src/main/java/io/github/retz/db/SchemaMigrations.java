@@ -0,0 +1,187 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.retz.cli.TimestampHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+
+// Ordered steps of schema changes since Retz 0.2.7. Applied versions are recorded
+// in 'schema_version' table; databases created from retz-ddl.sql or older ones
+// without the table are checked step by step, and steps already there are just recorded.
+// Online steps, like index builds, can be deferred at startup and applied by
+// retz-admin while the server runs.
+class SchemaMigrations {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    // Same as retz-ddl.sql
+    private static final String VERSION_DDL = "CREATE TABLE schema_version(version INTEGER NOT NULL, "
+            + "description VARCHAR(256) NOT NULL, applied VARCHAR(32) NOT NULL, PRIMARY KEY (version))";
+
+    private final List<Step> steps;
+
+    SchemaMigrations(ObjectMapper mapper) {
+        steps = Arrays.asList(
+                new Step(1, "Store jobs in columns instead of JSON", false,
+                        JobSchemaMigration::required,
+                        (conn, online) -> JobSchemaMigration.plan(conn),
+                        (conn, online) -> JobSchemaMigration.migrate(conn, mapper)),
+                new Step(2, "Add job_tags table", false,
+                        JobSchemaMigration::tagTableRequired,
+                        (conn, online) -> JobSchemaMigration.tagsPlan(conn),
+                        (conn, online) -> JobSchemaMigration.migrateTags(conn)),
+                new Step(3, "Add slaveid column to jobs table", false,
+                        JobSchemaMigration::slaveIdRequired,
+                        (conn, online) -> JobSchemaMigration.slaveIdPlan(),
+                        (conn, online) -> JobSchemaMigration.migrateSlaveId(conn)),
+                new Step(4, "Add indexes matched to job queries", true,
+                        JobSchemaMigration::indexesRequired,
+                        JobSchemaMigration::indexesPlan,
+                        JobSchemaMigration::migrateIndexes));
+    }
+
+    // Applies pending steps in order and returns the number of steps applied;
+    // online steps are left pending unless withOnline
+    int migrate(Connection conn, boolean withOnline) throws SQLException, IOException {
+        maybeCreateVersionTable(conn);
+        Map<Integer, String> applied = applied(conn);
+        int count = 0;
+        for (Step step : steps) {
+            if (applied.containsKey(step.version)) {
+                continue;
+            } else if (step.online && !withOnline) {
+                LOG.warn("Schema migration {} ({}) is deferred; apply it with 'retz-admin migrate'",
+                        step.version, step.description);
+                continue;
+            }
+            apply(conn, step);
+            count++;
+        }
+        return count;
+    }
+
+    // Steps with their state, and statements to run for pending ones, for dry run
+    List<Map<String, Object>> status(Connection conn) throws SQLException {
+        maybeCreateVersionTable(conn);
+        Map<Integer, String> applied = applied(conn);
+        List<Map<String, Object>> ret = new ArrayList<>();
+        for (Step step : steps) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("version", step.version);
+            map.put("description", step.description);
+            map.put("online", step.online);
+            map.put("applied", applied.get(step.version));
+            if (!applied.containsKey(step.version)) {
+                map.put("statements", step.required.test(conn) ? step.plan.apply(conn, step.online) : Collections.emptyList());
+            }
+            ret.add(map);
+        }
+        return ret;
+    }
+
+    private void apply(Connection conn, Step step) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        if (!step.required.test(conn)) {
+            LOG.info("Schema migration {} ({}) is already in the database", step.version, step.description);
+        } else if (step.online) {
+            LOG.info("Applying schema migration {} ({}) online...", step.version, step.description);
+            conn.commit();
+            conn.setAutoCommit(true);
+            try {
+                step.apply.apply(conn, true);
+            } finally {
+                conn.setAutoCommit(false);
+            }
+        } else {
+            LOG.info("Applying schema migration {} ({})...", step.version, step.description);
+            step.apply.apply(conn, false);
+        }
+        try (PreparedStatement p = conn.prepareStatement("INSERT INTO schema_version(version, description, applied) VALUES (?, ?, ?)")) {
+            p.setInt(1, step.version);
+            p.setString(2, step.description);
+            p.setString(3, TimestampHelper.now());
+            p.execute();
+        }
+        conn.commit();
+        LOG.info("Schema migration {} finished in {}ms", step.version, System.currentTimeMillis() - start);
+    }
+
+    private static void maybeCreateVersionTable(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        // H2 holds names in upper case
+        try (ResultSet lower = meta.getTables(null, null, "schema_version", null);
+             ResultSet upper = meta.getTables(null, null, "SCHEMA_VERSION", null)) {
+            if (lower.next() || upper.next()) {
+                return;
+            }
+        }
+        LOG.info("Creating schema_version table...");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(VERSION_DDL);
+        }
+        conn.commit();
+    }
+
+    private static Map<Integer, String> applied(Connection conn) throws SQLException {
+        Map<Integer, String> ret = new HashMap<>();
+        try (PreparedStatement p = conn.prepareStatement("SELECT version, applied FROM schema_version");
+             ResultSet res = p.executeQuery()) {
+            while (res.next()) {
+                ret.put(res.getInt("version"), res.getString("applied"));
+            }
+        }
+        return ret;
+    }
+
+    @FunctionalInterface
+    interface Check {
+        boolean test(Connection conn) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface Plan {
+        List<String> apply(Connection conn, boolean online) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface Apply {
+        void apply(Connection conn, boolean online) throws SQLException, IOException;
+    }
+
+    static final class Step {
+        final int version;
+        final String description;
+        final boolean online;
+        final Check required;
+        final Plan plan;
+        final Apply apply;
+
+        Step(int version, String description, boolean online, Check required, Plan plan, Apply apply) {
+            this.version = version;
+            this.description = description;
+            this.online = online;
+            this.required = required;
+            this.plan = plan;
+            this.apply = apply;
+        }
+    }
+}
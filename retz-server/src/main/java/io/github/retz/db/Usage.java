@@ -0,0 +1,83 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import io.github.retz.cli.TimestampHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.*;
+
+// Resource usage of finished jobs aggregated per owner, application and day they finished,
+// in cpu-seconds, mem-MB-seconds and gpu-seconds of their running time. Jobs are added one
+// by one while rows are streamed from database, so that only the aggregates are on memory.
+// Days are compared as strings of 'finished' column, in the time zone of the server.
+public class Usage {
+    private static final Logger LOG = LoggerFactory.getLogger(Usage.class);
+
+    // owner, appid, day => jobs, running milliseconds, cpu-ms, mem-MB-ms, gpu-ms
+    private final Map<List<String>, long[]> rows = new HashMap<>();
+    private int jobs = 0;
+
+    // owner is null if the application has been deleted; started is null if the job has been
+    // killed before it started
+    void add(String owner, String appid, String started, String finished, int cpu, int memMB, int gpu) {
+        long millis = 0;
+        if (started != null && finished != null) {
+            try {
+                millis = Math.max(0, TimestampHelper.diffMillisec(finished, started));
+            } catch (ParseException e) {
+                LOG.warn("Broken timestamp of a job of {}: started={}, finished={}", appid, started, finished);
+            }
+        }
+        String day = finished == null || finished.length() < 10 ? "" : finished.substring(0, 10);
+        long[] row = rows.computeIfAbsent(Arrays.asList(owner == null ? "" : owner, appid, day), key -> new long[5]);
+        row[0]++;
+        row[1] += millis;
+        row[2] += millis * cpu;
+        row[3] += millis * memMB;
+        row[4] += millis * gpu;
+        jobs++;
+    }
+
+    public int jobs() {
+        return jobs;
+    }
+
+    // Sorted by owner, application and day
+    public List<Map<String, Object>> summaries() {
+        List<List<String>> keys = new ArrayList<>(rows.keySet());
+        keys.sort(Comparator.comparing((List<String> key) -> key.get(0))
+                .thenComparing(key -> key.get(1)).thenComparing(key -> key.get(2)));
+        List<Map<String, Object>> ret = new ArrayList<>(keys.size());
+        for (List<String> key : keys) {
+            long[] row = rows.get(key);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("owner", key.get(0));
+            summary.put("appid", key.get(1));
+            summary.put("day", key.get(2));
+            summary.put("jobs", row[0]);
+            summary.put("seconds", row[1] / 1000.0);
+            summary.put("cpu-seconds", row[2] / 1000.0);
+            summary.put("mem-MB-seconds", row[3] / 1000.0);
+            summary.put("gpu-seconds", row[4] / 1000.0);
+            ret.add(summary);
+        }
+        return ret;
+    }
+}
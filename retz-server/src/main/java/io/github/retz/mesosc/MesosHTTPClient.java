@@ -0,0 +1,193 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.mesosc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP client layer for Mesos master and agent endpoints. Connections are kept alive and
+ * pooled per host by HttpURLConnection, as long as each response body is closed instead
+ * of disconnect(); JDK drains a small rest of the body on close, or drops the connection
+ * if the rest is large. All requests have connect and read timeouts.
+ * Requests that should not block the caller run in a bounded executor via submit().
+ */
+public final class MesosHTTPClient {
+    private static final Logger LOG = LoggerFactory.getLogger(MesosHTTPClient.class);
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 30000;
+    public static final int DEFAULT_PARALLELISM = 8;
+    public static final int MAX_QUEUED = 1024;
+
+    private static volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT_MS;
+    private static volatile int readTimeout = DEFAULT_READ_TIMEOUT_MS;
+    private static volatile ThreadPoolExecutor executor = newExecutor(DEFAULT_PARALLELISM);
+
+    private static final AtomicLong REQUESTS = new AtomicLong(0);
+    private static final AtomicLong FAILURES = new AtomicLong(0);
+    private static final AtomicLong REJECTED = new AtomicLong(0);
+
+    @FunctionalInterface
+    public interface ResponseHandler<T> {
+        // body is the response body for 2xx, or the error body otherwise; never null
+        T handle(int status, String message, InputStream body) throws IOException;
+    }
+
+    private MesosHTTPClient() {
+    }
+
+    public static synchronized void configure(int connectTimeoutMs, int readTimeoutMs, int parallelism) {
+        connectTimeout = connectTimeoutMs;
+        readTimeout = readTimeoutMs;
+        if (parallelism != executor.getMaximumPoolSize()) {
+            ThreadPoolExecutor old = executor;
+            executor = newExecutor(parallelism);
+            old.shutdown();
+        }
+        // Idle connections kept per host by HttpURLConnection (default 5); it is read only
+        // once at first use, so this only works before any connection is made.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(Math.max(5, parallelism)));
+        }
+        LOG.info("HTTP requests to Mesos: connect-timeout={}ms, read-timeout={}ms, parallelism={}",
+                connectTimeoutMs, readTimeoutMs, parallelism);
+    }
+
+    private static ThreadPoolExecutor newExecutor(int parallelism) {
+        AtomicInteger count = new AtomicInteger(0);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), runnable -> {
+            Thread t = new Thread(runnable, "mesos-http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Runs a blocking call in the executor; the future fails with
+    // RejectedExecutionException when too many calls are queued
+    public static <T> CompletableFuture<T> submit(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.incrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public static <T> T get(String addr, ResponseHandler<T> handler) throws IOException {
+        HttpURLConnection conn = open("GET", addr);
+        try {
+            int status = conn.getResponseCode();
+            T result;
+            try (InputStream body = body(conn, status)) {
+                result = handler.handle(status, conn.getResponseMessage(), body);
+            }
+            return result;
+        } catch (IOException e) {
+            FAILURES.incrementAndGet();
+            // The connection may be in the middle of a response; don't give it back to the pool
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    // Like get, but only for 200; 404 is thrown as FileNotFoundException, others as IOException
+    public static <T> T getOK(String addr, ResponseHandler<T> handler) throws IOException {
+        return get(addr, (status, message, body) -> {
+            if (status == 404) {
+                throw new FileNotFoundException(addr);
+            } else if (status != 200) {
+                throw new IOException(status + " " + message + " for " + addr);
+            }
+            return handler.handle(status, message, body);
+        });
+    }
+
+    // Returns the status code of HEAD request
+    public static int head(String addr) throws IOException {
+        HttpURLConnection conn = open("HEAD", addr);
+        try {
+            return conn.getResponseCode();
+        } catch (IOException e) {
+            FAILURES.incrementAndGet();
+            throw e;
+        } finally {
+            // Some Mesos versions send whole body even for HEAD; never reuse the connection
+            conn.disconnect();
+        }
+    }
+
+    static HttpURLConnection open(String method, String addr) throws IOException {
+        REQUESTS.incrementAndGet();
+        HttpURLConnection conn = (HttpURLConnection) new URL(addr).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    private static InputStream body(HttpURLConnection conn, int status) throws IOException {
+        InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        return in == null ? new ByteArrayInputStream(new byte[0]) : in;
+    }
+
+    public static long requests() {
+        return REQUESTS.get();
+    }
+
+    public static long failures() {
+        return FAILURES.get();
+    }
+
+    public static long rejected() {
+        return REJECTED.get();
+    }
+
+    public static int parallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public static int queued() {
+        return executor.getQueue().size();
+    }
+}
@@ -16,10 +16,14 @@
  */
 package io.github.retz.mesosc;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.github.retz.misc.BoundedCache;
 import io.github.retz.misc.Pair;
 import io.github.retz.misc.Receivable;
 import io.github.retz.misc.Triad;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,10 +32,14 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -40,6 +48,50 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  */
 public class MesosHTTPFetcher {
     private static final Logger LOG = LoggerFactory.getLogger(MesosHTTPFetcher.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String[] SLAVE_FIELDS = {"id", "pid"};
+
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+    public static final int DEFAULT_CACHE_TTL_SEC = 3600;
+
+    // slaveId -> "host:port" of agents, learnt from offers and from /slaves of master
+    private static final BoundedCache<String, String> AGENTS = new BoundedCache<>(DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL_SEC);
+    // "slaveId/frameworkId/executorId" -> sandbox directory of running executors
+    private static final BoundedCache<String, String> SANDBOXES = new BoundedCache<>(DEFAULT_CACHE_SIZE, 0);
+    // Misses of agents fetch /slaves one at a time, as many tasks in a new agent finish at once
+    private static final Object AGENTS_LOCK = new Object();
+
+    // Capacity 0 disables the caches; agents expire after TTL unless it is 0
+    public static void configureCaches(int capacity, int ttlSeconds) {
+        AGENTS.configure(capacity, ttlSeconds);
+        SANDBOXES.configure(capacity, 0);
+        LOG.info("Mesos agent and sandbox caches: size={}, ttl={}s", capacity, ttlSeconds);
+    }
+
+    // Called with addresses of agents in offers, which keeps them fresh
+    public static void learnAgent(String slaveId, String addr) {
+        AGENTS.put(slaveId, addr);
+    }
+
+    // Called when an agent is lost; it may come back with another address
+    public static void invalidateAgent(String slaveId) {
+        AGENTS.remove(slaveId);
+        SANDBOXES.removeIf(key -> key.startsWith(slaveId + "/"));
+    }
+
+    // Called when the executor has gone; a retried task may run in the same agent
+    // with the same executor id, but in another directory
+    public static void forgetSandbox(String slaveId, String frameworkId, String executorId) {
+        SANDBOXES.remove(sandboxKey(slaveId, frameworkId, executorId));
+    }
+
+    // Like "agents.hits" and "sandboxes.evictions"
+    public static Map<String, Long> cacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        AGENTS.stats().forEach((key, value) -> stats.put("agents." + key, value));
+        SANDBOXES.stats().forEach((key, value) -> stats.put("sandboxes." + key, value));
+        return stats;
+    }
 
     public static Optional<String> sandboxBaseUri(String master, String slaveId, String frameworkId, String executorId) {
         return sandboxUri("browse", master, slaveId, frameworkId, executorId);
@@ -61,14 +113,14 @@ public class MesosHTTPFetcher {
     // slave-hostname:5051/files/download?path=/tmp/mesos/slaves/<slaveid>/frameworks/<frameworkid>/exexutors/<executorid>/runs/<containerid>
     public static Optional<String> sandboxUri(String t, String master, String slaveId, String frameworkId, String executorId) {
 
-        Optional<String> slaveAddr = fetchSlaveAddr(master, slaveId); // get master:5050/slaves with slaves/pid, cut with '@'
+        Optional<String> slaveAddr = agentAddr(master, slaveId);
         LOG.debug("Agent address of executor {}: {}", executorId, slaveAddr);
 
         if (!slaveAddr.isPresent()) {
             return Optional.empty();
         }
 
-        Optional<String> dir = fetchDirectory(slaveAddr.get(), frameworkId, executorId);
+        Optional<String> dir = sandboxDirectory(slaveAddr.get(), slaveId, frameworkId, executorId);
         if (!dir.isPresent()) {
             return Optional.empty();
         }
@@ -83,155 +135,266 @@ public class MesosHTTPFetcher {
         }
     }
 
-    private static Optional<String> fetchSlaveAddr(String master, String slaveId) {
-        URL url;
-        try {
-            url = new URL("http://" + master + "/slaves");
-        } catch (MalformedURLException e) {
-            return Optional.empty();
+    private static Optional<String> agentAddr(String master, String slaveId) {
+        Optional<String> addr = AGENTS.get(slaveId);
+        if (addr.isPresent()) {
+            return addr;
         }
-        HttpURLConnection conn;
+        synchronized (AGENTS_LOCK) {
+            addr = AGENTS.peek(slaveId);
+            if (addr.isPresent()) {
+                return addr;
+            }
+            // Keep all agents, not only the one asked
+            Map<String, String> addrs = fetchSlaveAddrs(master);
+            AGENTS.putAll(addrs);
+            return Optional.ofNullable(addrs.get(slaveId));
+        }
+    }
+
+    // get master:5050/slaves with slaves/pid, cut with '@'
+    private static Map<String, String> fetchSlaveAddrs(String master) {
         try {
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setDoOutput(true);
-            return extractSlaveAddr(conn.getInputStream(), slaveId);
+            return MesosHTTPClient.getOK("http://" + master + "/slaves",
+                    (status, message, body) -> extractSlaveAddrs(body));
         } catch (IOException e) {
-            return Optional.empty();
+            LOG.debug("Cannot fetch agents from {}: {}", master, e.toString());
+            return new HashMap<>();
         }
     }
 
     public static Optional<String> extractSlaveAddr(InputStream stream, String slaveId) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, List<Map<String, Object>>> map = mapper.readValue(stream, java.util.Map.class);
-        String pid;
-        for (Map<String, Object> slave : map.get("slaves")) {
-            if (slave.get("id").equals(slaveId)) {
-                pid = (String) slave.get("pid");
-                String[] tokens = pid.split("@");
-                assert tokens.length == 2;
-                return Optional.of(tokens[1]);
+        String[] values = new String[2];
+        try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+            if (seekArray(parser, "slaves")) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (readFields(parser, SLAVE_FIELDS, values, slaveId)) {
+                        return addrOf(values[1]);
+                    }
+                }
             }
         }
         return Optional.empty();
     }
 
-    public static Optional<String> extractSlaveBasePath(InputStream stream) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Map<String, Object>> map = mapper.readValue(stream, java.util.Map.class);
-        String dir = (String) map.get("flags").get("work_dir");
+    // slaveId -> address of all agents
+    public static Map<String, String> extractSlaveAddrs(InputStream stream) throws IOException {
+        Map<String, String> addrs = new HashMap<>();
+        String[] values = new String[2];
+        try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+            if (seekArray(parser, "slaves")) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readFields(parser, SLAVE_FIELDS, values, null);
+                    Optional<String> addr = addrOf(values[1]);
+                    if (values[0] != null && addr.isPresent()) {
+                        addrs.put(values[0], addr.get());
+                    }
+                }
+            }
+        }
+        return addrs;
+    }
 
-        return Optional.of(dir);
+    // pid of agents are like slave(1)@127.0.0.1:5051
+    private static Optional<String> addrOf(String pid) {
+        if (pid == null) {
+            return Optional.empty();
+        }
+        String[] tokens = pid.split("@");
+        return tokens.length == 2 ? Optional.of(tokens[1]) : Optional.empty();
+    }
+
+    public static Optional<String> extractSlaveBasePath(InputStream stream) throws IOException {
+        String[] values = new String[1];
+        try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+            if (seekField(parser, "flags") && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                readFields(parser, new String[]{"work_dir"}, values, null);
+            }
+        }
+        return Optional.ofNullable(values[0]);
     }
 
 
-    private static Optional<String> fetchDirectory(String slave, String frameworkId, String executorId) {
+    private static Optional<String> sandboxDirectory(String slave, String slaveId, String frameworkId, String executorId) {
+        Optional<String> dir = SANDBOXES.get(sandboxKey(slaveId, frameworkId, executorId));
+        if (dir.isPresent()) {
+            return dir;
+        }
+        // Keep all running executors of the framework in the agent, as their tasks come soon
+        Map<String, String> dirs = fetchDirectories(slave, frameworkId);
+        for (Map.Entry<String, String> e : dirs.entrySet()) {
+            SANDBOXES.put(sandboxKey(slaveId, frameworkId, e.getKey()), e.getValue());
+        }
+        return Optional.ofNullable(dirs.get(executorId));
+    }
+
+    private static Map<String, String> fetchDirectories(String slave, String frameworkId) {
         try {
-            URL url = new URL("http://" + slave + "/state");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setDoOutput(true);
-            return extractDirectory(conn.getInputStream(), frameworkId, executorId);
-
-        } catch (MalformedURLException e) {
-            // REVIEW: catch(MalformedURLException) clause can be removed because it <: IOException
-            return Optional.empty();
+            return MesosHTTPClient.getOK("http://" + slave + "/state",
+                    (status, message, body) -> extractDirectories(body, frameworkId));
         } catch (IOException e) {
-            return Optional.empty();
+            LOG.debug("Cannot fetch state of agent {}: {}", slave, e.toString());
+            return new HashMap<>();
         }
     }
 
+    private static String sandboxKey(String slaveId, String frameworkId, String executorId) {
+        return slaveId + "/" + frameworkId + "/" + executorId;
+    }
+
+    // executorId -> directory of all running executors of the framework
+    public static Map<String, String> extractDirectories(InputStream stream, String frameworkId) throws IOException {
+        Map<String, String> dirs = new HashMap<>();
+        scanExecutors(stream, frameworkId, new String[]{"id", "directory"}, null, values -> {
+            if (values[0] != null && values[1] != null) {
+                dirs.put(values[0], values[1]);
+            }
+            return false;
+        });
+        return dirs;
+    }
+
+    //  { ... "frameworks" : [ { ... "executors":[ { "id":"sum", "directory":"...", "container":"...", "tasks":[], ...} ] ...
     public static Optional<String> extractDirectory(InputStream stream, String frameworkId, String executorId) throws IOException {
-        // REVIEW: this may prepare corresponded object type instead of using java.util.Map
-        //  { ... "frameworks" : [ { ... "executors":[ { "id":"sum", "completed_tasks":[], "tasks":[], "queued_tasks":[]} ] ...
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Map<String, Object>> map = mapper.readValue(stream, java.util.Map.class);
-        List<Map<String, Object>> list = (List) map.get("frameworks");
-
-        // TODO: use json-path for cleaner and flexible code
-        for (Map<String, Object> executors : list) {
-            if (executors.get("executors") != null) {
-                for (Map<String, Object> executor : (List<Map<String, Object>>) executors.get("executors")) {
-                    if (executor.get("id").equals(executorId)) {
-                        return Optional.ofNullable((String) executor.get("directory"));
+        return extractExecutorField(stream, frameworkId, executorId, "directory");
+    }
+
+    public static Optional<String> extractContainerId(InputStream stream, String frameworkId, String executorId) throws IOException {
+        return extractExecutorField(stream, frameworkId, executorId, "container");
+    }
+
+    private static Optional<String> extractExecutorField(InputStream stream, String frameworkId, String executorId, String field) throws IOException {
+        String[] found = new String[1];
+        scanExecutors(stream, frameworkId, new String[]{"id", field}, executorId, values -> {
+            found[0] = values[1];
+            return true;
+        });
+        return Optional.ofNullable(found[0]);
+    }
+
+    // Calls 'visitor' with values of 'names' of running executors of the framework in agent state,
+    // until it returns true. Executors are skipped unless names[0] of them is 'expected' (if given).
+    private static void scanExecutors(InputStream stream, String frameworkId, String[] names, String expected,
+                                      Predicate<String[]> visitor) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+            if (seekArray(parser, "frameworks")) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (scanFramework(parser, frameworkId, names, expected, visitor)) {
+                        return;
                     }
                 }
             }
         }
-        return Optional.empty();
     }
 
-    public static Optional<String> extractContainerId(InputStream stream, String frameworkId, String executorId) throws IOException {
-        //  { ... "frameworks" : [ { ... "executors":[ { "id":"sum", "completed_tasks":[], "tasks":[], "queued_tasks":[]} ] ...
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Map<String, Object>> map = mapper.readValue(stream, java.util.Map.class);
-        List<Map<String, Object>> list = (List) map.get("frameworks");
-
-        // TODO: use json-path for cleaner and flexible code
-        for (Map<String, Object> executors : list) {
-            if (executors.get("executors") != null) {
-                for (Map<String, Object> executor : (List<Map<String, Object>>) executors.get("executors")) {
-                    if (executor.get("id").equals(executorId)) {
-                        return Optional.ofNullable((String) executor.get("container"));
+    private static boolean scanFramework(JsonParser parser, String frameworkId, String[] names, String expected,
+                                         Predicate<String[]> visitor) throws IOException {
+        // Mesos writes "id" first, but executors are kept until it comes just in case
+        Boolean matched = null;
+        List<String[]> pending = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("id".equals(field) && matched == null) {
+                matched = frameworkId.equals(parser.getValueAsString());
+                if (matched && pending != null) {
+                    for (String[] values : pending) {
+                        if (visitor.test(values)) {
+                            return true;
+                        }
                     }
                 }
+                pending = null;
+            } else if ("executors".equals(field) && token == JsonToken.START_ARRAY && !Boolean.FALSE.equals(matched)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String[] values = new String[names.length];
+                    if (!readFields(parser, names, values, expected)) {
+                        continue;
+                    }
+                    if (matched == null) {
+                        if (pending == null) {
+                            pending = new LinkedList<>();
+                        }
+                        pending.add(values);
+                    } else if (visitor.test(values)) {
+                        return true;
+                    }
+                }
+            } else {
+                parser.skipChildren();
             }
         }
-        return Optional.empty();
+        return false;
     }
 
-    public static List<Map<String, Object>> fetchTasks(String master, String frameworkId, int offset, int limit) throws MalformedURLException {
+    // Number of all tasks in the page, and tasks of the framework in it
+    public static Pair<Integer, List<Map<String, Object>>> fetchTasks(String master, String frameworkId, int offset, int limit) throws IOException {
         URL url = new URL("http://" + master + "/tasks?offset=" + offset + "&limit=" + limit);
-        HttpURLConnection conn;
-        try {
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setDoOutput(true);
-            return parseTasks(conn.getInputStream(), frameworkId);
-        } catch (IOException e) {
-            return new LinkedList<>();
-        }
+        return MesosHTTPClient.getOK(url.toString(), (status, message, body) -> {
+            List<Map<String, Object>> tasks = new LinkedList<>();
+            int count = parseTasks(body, frameworkId, tasks);
+            return new Pair<>(count, tasks);
+        });
     }
 
+    // Tasks of the framework with their scalar fields like "id" and "state"; nested ones
+    // like "resources" and "statuses" are skipped, as well as tasks of other frameworks
     public static List<Map<String, Object>> parseTasks(InputStream in, String frameworkId) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
         List<Map<String, Object>> ret = new LinkedList<>();
+        parseTasks(in, frameworkId, ret);
+        return ret;
+    }
 
-        Map<String, List<Map<String, Object>>> map = mapper.readValue(in, Map.class);
-        List<Map<String, Object>> tasks = map.get("tasks");
-        for (Map<String, Object> task : tasks) {
-            String fid = (String) task.get("framework_id");
-            if (!frameworkId.equals(fid)) {
-                continue;
+    // Same as above, adding the tasks to 'ret'; returns the number of all tasks in the response
+    public static int parseTasks(InputStream in, String frameworkId, List<Map<String, Object>> ret) throws IOException {
+        int count = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (!seekArray(parser, "tasks")) {
+                return count;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                ++count;
+                Map<String, Object> task = new LinkedHashMap<>();
+                boolean matched = true;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if (!matched || !token.isScalarValue()) {
+                        parser.skipChildren();
+                    } else if ("framework_id".equals(field) && !frameworkId.equals(parser.getValueAsString())) {
+                        matched = false;
+                    } else {
+                        task.put(field, scalarValue(parser, token));
+                    }
+                }
+                if (matched && frameworkId.equals(task.get("framework_id"))) {
+                    ret.add(task);
+                }
             }
-            ret.add(task);
         }
-        return ret;
+        return count;
     }
 
     public static void downloadHTTPFile(String url, String name, Receivable<Triad<Integer, String, Pair<Long, InputStream>>, Exception> cb) throws Exception {
         String addr = url.replace("files/browse", "files/download") + "%2F" + maybeURLEncode(name);
         LOG.debug("Downloading {}", addr);
 
-        HttpURLConnection conn = null;
+        HttpURLConnection conn = MesosHTTPClient.open("GET", addr);
         try {
-            conn = (HttpURLConnection) new URL(addr).openConnection();
-            conn.setRequestMethod("GET");
-
             Integer statusCode = conn.getResponseCode();
             String message = conn.getResponseMessage();
             Long length = conn.getHeaderFieldLong("Content-Length", -1);
             LOG.debug("res={}, md5={}, length={}", message,
                     conn.getHeaderField("Content-md5"), length);
 
-            cb.receive(new Triad<>(statusCode, message, new Pair<>(length, conn.getInputStream())));
-        }
-        finally {
-            if (conn != null) {
-                conn.disconnect();
+            try (InputStream in = statusCode < 400 ? conn.getInputStream() : new ByteArrayInputStream(new byte[0])) {
+                cb.receive(new Triad<>(statusCode, message, new Pair<>(length, in)));
             }
+        } catch (Exception e) {
+            // Don't give back the connection in the middle of a response to the pool
+            conn.disconnect();
+            throw e;
         }
-
     }
 
 
@@ -239,21 +402,13 @@ public class MesosHTTPFetcher {
     public static boolean statHTTPFile(String url, String name) {
         String addr = url.replace("files/browse", "files/download") + "%2F" + maybeURLEncode(name);
 
-        HttpURLConnection conn = null;
         try {
-            conn = (HttpURLConnection) new URL(addr).openConnection();
-            conn.setRequestMethod("HEAD");
-            conn.setDoOutput(false);
-            LOG.debug(conn.getResponseMessage());
-            return conn.getResponseCode() == 200 ||
-                    conn.getResponseCode() == 204;
+            int status = MesosHTTPClient.head(addr);
+            LOG.debug("{} for HEAD {}", status, addr);
+            return status == 200 || status == 204;
         } catch (IOException e) {
             LOG.debug("Failed to fetch {}: {}", addr, e.toString());
             return false;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
         }
     }
 
@@ -264,38 +419,25 @@ public class MesosHTTPFetcher {
     // Only for String contents
     private static Pair<Integer, String> fetchHTTP(String addr, int retry) throws IOException {
         LOG.debug("Fetching {}", addr);
-        HttpURLConnection conn = null;
-
-        conn = (HttpURLConnection) new URL(addr).openConnection();
-        conn.setRequestMethod("GET");
-        conn.setDoOutput(true);
-        LOG.debug("{} {} for {}", conn.getResponseCode(), conn.getResponseMessage(), addr);
-
-        if (conn.getResponseCode() != 200) {
-            if (conn.getResponseCode() < 200) {
-                return fetchHTTP(addr, retry - 1);
-            } else if (conn.getResponseCode() < 300) {
-                return new Pair<>(conn.getResponseCode(), ""); // Mostly 204; success
-            } else if (conn.getResponseCode() < 400) {
-                // TODO: Mesos master failover
-                return new Pair<>(conn.getResponseCode(), conn.getResponseMessage());
-            } else if (conn.getResponseCode() == 404) {
-                throw new FileNotFoundException(addr);
-            } else {
-                return new Pair<>(conn.getResponseCode(), conn.getResponseMessage());
-            }
-        }
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), UTF_8))) {
-            StringBuilder builder = new StringBuilder();
-            String line;
-            do {
-                line = reader.readLine();
-                builder.append(line);
-            } while (line != null);
-            LOG.debug("Fetched {} bytes from {}", builder.toString().length(), addr);
-            return new Pair<>(conn.getResponseCode(), builder.toString());
-
+        Pair<Integer, String> result;
+        try {
+            result = MesosHTTPClient.get(addr, (status, message, body) -> {
+                LOG.debug("{} {} for {}", status, message, addr);
+                if (status == 200) {
+                    return new Pair<>(status, IOUtils.toString(body, UTF_8));
+                } else if (status < 200) {
+                    return null; // Retry
+                } else if (status < 300) {
+                    return new Pair<>(status, ""); // Mostly 204; success
+                } else if (status < 400) {
+                    // TODO: Mesos master failover
+                    return new Pair<>(status, message);
+                } else if (status == 404) {
+                    throw new FileNotFoundException(addr);
+                } else {
+                    return new Pair<>(status, message);
+                }
+            });
         } catch (FileNotFoundException e) {
             throw e;
         } catch (IOException e) {
@@ -308,9 +450,15 @@ public class MesosHTTPFetcher {
                 throw e;
             }
             return fetchHTTP(addr, retry - 1);
-        } finally {
-            conn.disconnect();
         }
+        if (result == null) {
+            if (retry < 0) {
+                throw new IOException("Retry failed with informational responses: " + addr);
+            }
+            return fetchHTTP(addr, retry - 1);
+        }
+        LOG.debug("Fetched {} bytes from {}", result.right().length(), addr);
+        return result;
     }
 
     public static Pair<Integer, String> fetchHTTPFile(String url, String name, long offset, long length) throws MalformedURLException, IOException {
@@ -319,6 +467,96 @@ public class MesosHTTPFetcher {
         return fetchHTTP(addr);
     }
 
+    // Same as fetchHTTPFile, but writes only the data to 'out' while parsing the response,
+    // without building the response nor the data as String
+    public static void readHTTPFile(String url, String name, long offset, long length, Writer out) throws IOException {
+        String addr = url.replace("files/browse", "files/read") + "%2F" + maybeURLEncode(name)
+                + "&offset=" + offset + "&length=" + length;
+        LOG.debug("Reading {}", addr);
+
+        MesosHTTPClient.getOK(addr, (status, message, body) -> {
+            copyFileData(body, out);
+            return null;
+        });
+    }
+
+    // Moves the parser to the value of the top-level field; false if there isn't
+    private static boolean seekField(JsonParser parser, String name) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Unexpected JSON from Mesos: " + parser.getCurrentToken());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (name.equals(field)) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private static boolean seekArray(JsonParser parser, String name) throws IOException {
+        return seekField(parser, name) && parser.getCurrentToken() == JsonToken.START_ARRAY;
+    }
+
+    // Reads scalar values of 'names' in the object at the parser into 'values', skipping
+    // everything else. If names[0] turns out not to be 'expected' (unless null), the rest of
+    // the object is skipped without reading and false is returned.
+    private static boolean readFields(JsonParser parser, String[] names, String[] values, String expected) throws IOException {
+        Arrays.fill(values, null);
+        boolean matched = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (matched && token.isScalarValue()) {
+                for (int i = 0; i < names.length; ++i) {
+                    if (names[i].equals(field)) {
+                        values[i] = parser.getValueAsString();
+                        matched = i != 0 || expected == null || expected.equals(values[i]);
+                        break;
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return matched && (expected == null || expected.equals(values[0]));
+    }
+
+    private static Object scalarValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getBooleanValue();
+            case VALUE_NULL:
+                return null;
+            default:
+                return parser.getText();
+        }
+    }
+
+    // Copies "data" of a files/read response, which is like {"data":"...","offset":0}
+    public static void copyFileData(InputStream in, Writer out) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Unexpected response of files/read: " + parser.getCurrentToken());
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("data".equals(field) && value == JsonToken.VALUE_STRING) {
+                    out.write(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
     public static Pair<Integer, String> fetchHTTPDir(String url, String path) throws MalformedURLException, IOException {
         // Just do 'files/browse and get JSON
         String addr = url + "%2F" + maybeURLEncode(path);
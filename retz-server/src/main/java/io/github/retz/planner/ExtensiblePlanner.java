@@ -47,6 +47,11 @@ public class ExtensiblePlanner implements Planner {
         return extension.orderBy();
     }
 
+    @Override
+    public int lookahead() {
+        return extension.lookahead();
+    }
+
     @Override
     public List<AppJobPair> filter(List<Job> jobs, List<Job> keep, boolean useGPU) {
         extension.setUseGpu(useGPU);
@@ -84,18 +89,31 @@ public class ExtensiblePlanner implements Planner {
     public Plan plan(List<Protos.Offer> offers, List<AppJobPair> appJobPairs, int maxStock, String unixUser) {
         extension.setMaxStock(maxStock);
 
-        Map<String, Offer> mapOffers = new LinkedHashMap<>();
+        // Offers of an agent are planned as one, keyed by ID of the first offer, so that a job
+        // fitting in their sum is placed as NaivePlanner does
+        Map<String, OfferAcceptor> agents = new LinkedHashMap<>();
+        Map<String, OfferAcceptor> byOfferId = new LinkedHashMap<>();
         for (Protos.Offer offer : offers) {
+            OfferAcceptor acceptor = agents.get(offer.getSlaveId().getValue());
+            if (acceptor == null) {
+                acceptor = new OfferAcceptor(offer);
+                agents.put(offer.getSlaveId().getValue(), acceptor);
+                byOfferId.put(offer.getId().getValue(), acceptor);
+            } else {
+                acceptor.addOffer(offer);
+            }
+        }
+
+        Map<String, Offer> mapOffers = new LinkedHashMap<>();
+        for (Map.Entry<String, OfferAcceptor> e : byOfferId.entrySet()) {
             // maybe TODO: salvage more properties from Protos.Offer to include in spi.Offer
-            List<Attribute> attrs = new AttributeBuilder(offer.getAttributesList()).build();
+            List<Attribute> attrs = new AttributeBuilder(e.getValue().getOffers().get(0).getAttributesList()).build();
             if (LOG.isDebugEnabled()) {
                 for (Attribute attr : attrs) {
-                    LOG.debug("Attribute: {} @{}", attr, offer.getId().getValue());
+                    LOG.debug("Attribute: {} @{}", attr, e.getKey());
                 }
             }
-            Resource resource = ResourceConstructor.decode(offer.getResourcesList());
-            Offer newOffer = new Offer(offer.getId().getValue(), resource, attrs);
-            mapOffers.put(offer.getId().getValue(), newOffer);
+            mapOffers.put(e.getKey(), new Offer(e.getKey(), e.getValue().totalResource(), attrs));
         }
 
         List<Job> jobs = appJobPairs.stream().map(appJobPair -> appJobPair.job()).collect(Collectors.toList());
@@ -106,26 +124,28 @@ public class ExtensiblePlanner implements Planner {
         List<OfferAcceptor> acceptors = new LinkedList<>();
         List<Protos.Offer> toStock = new LinkedList<>();
 
-        for (Protos.Offer offer : offers) {
-            if (p.getOfferIdsToStock().contains(offer.getId().getValue())) {
-                toStock.add(offer);
+        for (Map.Entry<String, OfferAcceptor> e : byOfferId.entrySet()) {
+            OfferAcceptor acceptor = e.getValue();
+            if (p.getOfferIdsToStock().contains(e.getKey())) {
+                toStock.addAll(acceptor.getOffers());
                 continue;
             }
 
-            OfferAcceptor acceptor = new OfferAcceptor(offer);
-            if (p.getJobSpecs().containsKey(offer.getId().getValue())) {
-                List<Job> jobs1 = p.getJobSpecs().get(offer.getId().getValue());
+            if (p.getJobSpecs().containsKey(e.getKey())) {
+                List<Job> jobs1 = p.getJobSpecs().get(e.getKey());
 
-                Resource resource = ResourceConstructor.decode(offer.getResourcesList());
-                int last = resource.lastPort();
+                Resource resource = acceptor.totalResource();
+                // Ports are assigned from the lowest, next to those of the last job
+                int last = 0;
                 for (Job job : jobs1) {
-                    System.err.println(job.appid());
                     Application application = Applications.get(job.appid()).get();
                     TaskBuilder builder = new TaskBuilder();
                     String id = Integer.toString(job.id());
+                    Resource assign = resource.cut(job.resources(), last);
+                    last = Math.max(last, assign.lastPort());
 
                     Protos.TaskInfo taskInfo = builder.setName(job.name())
-                            .setResource(resource.cut(job.resources(), last), offer.getSlaveId())
+                            .setResource(assign, acceptor.getSlaveID())
                             .setCommand(job, application, unixUser)
                             .setName("retz-" + application.getAppid() + "-name-" + job.name())
                             .setTaskId("retz-" + application.getAppid() + "-id-" + id)
@@ -89,6 +89,10 @@ public class OfferAcceptor {
         return jobs;
     }
 
+    public List<Protos.TaskInfo> getTasks() {
+        return operations.stream().flatMap(op -> op.getLaunch().getTaskInfosList().stream()).collect(Collectors.toList());
+    }
+
     public void verify() {
         for (Protos.Offer offer : offers) {
             if (!offer.getSlaveId().getValue().equals(slaveID.getValue())) {
@@ -25,6 +25,11 @@ public interface Planner {
 
     List<String> orderBy();
 
+    // See io.github.retz.planner.spi.Planner.lookahead
+    default int lookahead() {
+        return 0;
+    }
+
     // TODO: make useGPU and maxStock configuration of each instance
     List<AppJobPair> filter(List<Job> jobs, List<Job> cancel, boolean useGPU);
 
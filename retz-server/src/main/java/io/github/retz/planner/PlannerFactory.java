@@ -43,6 +43,11 @@ public class PlannerFactory {
                 LOG.info("Using PriorityPlanner 2", name);
                 String classname = "io.github.retz.planner.builtin.PriorityPlanner";
                 return new ExtensiblePlanner(ExtensiblePlannerFactory.create(classname, serverConfig.classpath()), properties);
+
+            } else if ("bestfit".equals(name)) {
+                LOG.info("Using BestFitPlanner");
+                String classname = "io.github.retz.planner.builtin.BestFitPlanner";
+                return new ExtensiblePlanner(ExtensiblePlannerFactory.create(classname, serverConfig.classpath()), properties);
             }
             LOG.info("Using FIFOPlanner");
             return new NaivePlanner();
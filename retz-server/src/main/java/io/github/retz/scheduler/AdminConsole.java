@@ -21,8 +21,12 @@ import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.j256.simplejmx.server.JmxServer;
 import io.github.retz.bean.AdminConsoleMXBean;
 import io.github.retz.db.Database;
-import io.github.retz.protocol.data.Job;
+import io.github.retz.db.JobArchive;
+import io.github.retz.db.Usage;
+import io.github.retz.mesosc.MesosHTTPClient;
+import io.github.retz.mesosc.MesosHTTPFetcher;
 import io.github.retz.protocol.data.User;
+import io.github.retz.web.UserCache;
 import org.eclipse.jetty.server.Server;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,15 +34,37 @@ import org.slf4j.LoggerFactory;
 import javax.management.*;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class AdminConsole implements AdminConsoleMXBean {
     private static final Logger LOG = LoggerFactory.getLogger(AdminConsole.class);
 
+    // Jobs fetched by a query of usage export
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    // Counters of each component by name, flattened like "planning.wait-us.max"
+    private static final Map<String, Supplier<Map<String, Long>>> STATS = new LinkedHashMap<>();
+
+    static {
+        STATS.put("status-updates", AdminConsole::statusUpdateStats);
+        STATS.put("planning", AdminConsole::planningStats);
+        STATS.put("user-cache", AdminConsole::userCacheStats);
+        STATS.put("lanes", Stanchion::stats);
+        STATS.put("mesos-http", AdminConsole::mesosHTTPStats);
+        STATS.put("mesos-cache", MesosHTTPFetcher::cacheStats);
+        STATS.put("recovery", Recovery::stats);
+        STATS.put("job-states", () -> Database.getInstance().stateCounts());
+    }
+
     private final ObjectMapper MAPPER = new ObjectMapper();
     private final int LEEWAY;
 
@@ -88,11 +114,34 @@ public class AdminConsole implements AdminConsoleMXBean {
         }
     }
 
+    // Usage per owner, application and day, instead of all jobs; see exportUsage for them
     @Override
     public List<String> getUsage(String start, String end) {
-        LOG.info("Querying usage at [{}, {})", start, end); //TODO
-        List<Job> jobs = Database.getInstance().finishedJobs(start, end);
-        return jobs.stream().map(job -> maybeEncodeAsJSON(job)).collect(Collectors.toList());
+        LOG.info("Querying usage at [{}, {})", start, end);
+        try {
+            Usage usage = Database.getInstance().usage(start, end);
+            LOG.info("Usage of {} jobs aggregated", usage.jobs());
+            return usage.summaries().stream().map(summary -> maybeEncodeAsJSON(summary)).collect(Collectors.toList());
+        } catch (SQLException e) {
+            LOG.error(e.toString(), e);
+            return Arrays.asList(errorJSON(e.toString()));
+        }
+    }
+
+    // Writes all jobs finished in the range to a file under 'dir' of the server
+    @Override
+    public String exportUsage(String start, String end, String dir) {
+        LOG.info("Exporting jobs finished at [{}, {}) to {}", start, end, dir);
+        try (JobArchive archive = new JobArchive(Paths.get(dir))) {
+            int count = Database.getInstance().exportJobs(start, end, EXPORT_PAGE_SIZE, archive);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("jobs", count);
+            result.put("file", count > 0 ? archive.file().toString() : null);
+            return maybeEncodeAsJSON(result);
+        } catch (SQLException | IOException e) {
+            LOG.error(e.toString(), e);
+            return errorJSON(e.toString());
+        }
     }
 
     @Override
@@ -115,9 +164,8 @@ public class AdminConsole implements AdminConsoleMXBean {
     @Override
     public boolean gc(int leeway) {
         try {
-            // TODO: do we do mutex to avoid concurrent execution even though it has transaction?
             LOG.info("Job GC invocation from JMX: leeway={}s", leeway);
-            Database.getInstance().deleteOldJobs(LEEWAY);
+            GarbageJobCollector.collect(leeway);
             return true;
         } catch (Throwable t) {
             LOG.info(t.toString(), t);
@@ -125,6 +173,78 @@ public class AdminConsole implements AdminConsoleMXBean {
         }
     }
 
+    @Override
+    public boolean migrate() {
+        try {
+            LOG.info("Schema migration invocation from JMX");
+            int applied = Database.getInstance().migrate();
+            LOG.info("{} schema migrations applied", applied);
+            return true;
+        } catch (Throwable t) {
+            LOG.error(t.toString(), t);
+            return false;
+        }
+    }
+
+    @Override
+    public List<String> listStats() {
+        return new ArrayList<>(STATS.keySet());
+    }
+
+    @Override
+    public Map<String, Long> getStats(String name) {
+        Supplier<Map<String, Long>> stats = STATS.get(name);
+        if (stats == null) {
+            LOG.warn("Unknown stats: {}", name);
+            return new LinkedHashMap<>();
+        }
+        return stats.get();
+    }
+
+    private static Map<String, Long> statusUpdateStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("batches", StatusUpdateBatcher.batches());
+        stats.put("updates", StatusUpdateBatcher.updates());
+        stats.put("max-batch-size", (long) StatusUpdateBatcher.maxBatchSize());
+        stats.put("last-batch-size", (long) StatusUpdateBatcher.lastBatchSize());
+        return stats;
+    }
+
+    private static Map<String, Long> planningStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        OfferWindow.OFFERS_PER_CYCLE.toMap().forEach((key, value) -> stats.put("offers-per-cycle." + key, value));
+        OfferWindow.CYCLE_MICROS.toMap().forEach((key, value) -> stats.put("cycle-latency-us." + key, value));
+        return stats;
+    }
+
+    private static Map<String, Long> userCacheStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("size", (long) UserCache.size());
+        stats.put("hits", UserCache.hits());
+        stats.put("misses", UserCache.misses());
+        stats.put("evictions", UserCache.evictions());
+        return stats;
+    }
+
+    private static Map<String, Long> mesosHTTPStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("requests", MesosHTTPClient.requests());
+        stats.put("failures", MesosHTTPClient.failures());
+        stats.put("rejected", MesosHTTPClient.rejected());
+        stats.put("queued", (long) MesosHTTPClient.queued());
+        return stats;
+    }
+
+    @Override
+    public String getSchemaMigrations() {
+        try {
+            return maybeEncodeAsJSON(Database.getInstance().schemaMigrations());
+        } catch (SQLException e) {
+            LOG.error(e.toString(), e);
+            return errorJSON(e.toString());
+        }
+    }
+
     static Optional<JmxServer> startJmxServer(ServerConfiguration config) {
         int jmxPort = config.getJmxPort();
 
@@ -16,19 +16,41 @@
  */
 package io.github.retz.scheduler;
 
+import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
+import io.github.retz.db.JobArchive;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+// Deletes old jobs in chunks by id, each in its own transaction, not to lock 'jobs' table
+// for long. Chunks are throttled to 'rate' jobs per second, and wait while kills and status
+// updates are queued in Stanchion. When finished jobs are moved to monthly partitions
+// (see Database.partitioned), old partitions are dropped at once instead, unless jobs
+// are archived.
 public class GarbageJobCollector implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(GarbageJobCollector.class);
     private static boolean on = true;
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+    static final int DEFAULT_RATE = 10000;
+    // Max milliseconds to wait for Stanchion before each chunk
+    private static final int MAX_YIELD_MS = 1000;
+
+    private static volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    private static volatile int rate = DEFAULT_RATE;
+    private static volatile Optional<Path> archiveDir = Optional.empty();
+
     private final int LEEWAY;
     private final int INTERVAL;
     GarbageJobCollector(int leeway, int interval) {
@@ -39,7 +61,7 @@ public class GarbageJobCollector implements Runnable {
     public void run() {
         LOG.debug("beep! on={}, leeway={}", true, LEEWAY);
         try {
-            Database.getInstance().deleteOldJobs(LEEWAY);
+            collect(LEEWAY);
         } catch (Throwable t) {
             LOG.warn(t.toString(), t);
         }
@@ -47,6 +69,16 @@ public class GarbageJobCollector implements Runnable {
             scheduler.schedule(new GarbageJobCollector(LEEWAY, INTERVAL), INTERVAL, TimeUnit.SECONDS);
         }
     }
+
+    // rate is jobs per second, 0 for no limit
+    static void configure(int chunkSize, int rate, Optional<String> archiveDir) {
+        GarbageJobCollector.chunkSize = chunkSize;
+        GarbageJobCollector.rate = rate;
+        GarbageJobCollector.archiveDir = archiveDir.map(dir -> Paths.get(dir));
+        LOG.info("Garbage job collection deletes {} jobs per transaction up to {} jobs/s, archive={}",
+                chunkSize, rate, archiveDir.orElse("none"));
+    }
+
     static void start(int leeway, int interval) {
         LOG.info("Starting garbage job collector with leeway={}s, interval={}s", leeway, interval);
         scheduler.schedule(new GarbageJobCollector(leeway, interval), interval, TimeUnit.SECONDS);
@@ -55,4 +87,87 @@ public class GarbageJobCollector implements Runnable {
     static void stop() {
         on = false;
     }
+
+    // Deletes all jobs finished more than 'leeway' seconds ago and returns the number of them;
+    // synchronized as it may also be invoked via JMX
+    static synchronized int collect(int leeway) throws SQLException, IOException, InterruptedException {
+        String before = TimestampHelper.past(leeway);
+        LOG.info("Deleting old jobs finished before {}...", before);
+        long start = System.currentTimeMillis();
+        int total = 0;
+        int afterId = Integer.MIN_VALUE;
+        Optional<JobArchive> archive = Optional.empty();
+        try {
+            if (archiveDir.isPresent()) {
+                archive = Optional.of(new JobArchive(archiveDir.get()));
+            }
+            if (Database.getInstance().partitioned()) {
+                sweep();
+                if (!archive.isPresent()) {
+                    total += Database.getInstance().dropPartitions(before);
+                }
+            }
+            while (true) {
+                yieldToScheduling();
+                long chunkStart = System.currentTimeMillis();
+                List<Integer> ids = Database.getInstance().deleteOldJobs(before, afterId, chunkSize, archive);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                total += ids.size();
+                afterId = ids.get(ids.size() - 1);
+                LOG.debug("{} old jobs deleted up to id={}", total, afterId);
+                if (ids.size() < chunkSize) {
+                    break;
+                }
+                throttle(ids.size(), System.currentTimeMillis() - chunkStart);
+            }
+            if (archive.isPresent() && Database.getInstance().partitioned()) {
+                // Jobs in old partitions have been archived and deleted
+                Database.getInstance().dropPartitions(before);
+            }
+        } finally {
+            if (archive.isPresent()) {
+                archive.get().close();
+            }
+        }
+        LOG.info("{} old jobs deleted in {}ms", total, System.currentTimeMillis() - start);
+        return total;
+    }
+
+    // Moves finished jobs left in 'jobs' to partitions, in chunks like deletion
+    private static void sweep() throws SQLException, InterruptedException {
+        Database.getInstance().preparePartitions();
+        int total = 0;
+        while (true) {
+            yieldToScheduling();
+            long chunkStart = System.currentTimeMillis();
+            int moved = Database.getInstance().sweepPartitions(chunkSize);
+            total += moved;
+            if (moved < chunkSize) {
+                break;
+            }
+            throttle(moved, System.currentTimeMillis() - chunkStart);
+        }
+        if (total > 0) {
+            LOG.info("{} finished jobs moved to partitions", total);
+        }
+    }
+
+    private static void yieldToScheduling() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (Stanchion.depth(Stanchion.Lane.UPDATE) > 0 && System.currentTimeMillis() - start < MAX_YIELD_MS) {
+            Thread.sleep(10);
+        }
+    }
+
+    // Sleeps for the rest of time that 'count' jobs take at the rate
+    private static void throttle(int count, long elapsedMs) throws InterruptedException {
+        if (rate > 0) {
+            long wait = count * 1000L / rate - elapsedMs;
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+    }
 }
@@ -0,0 +1,97 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Wakes up HTTP requests waiting for state change of a job, when JobQueue has
+// applied a change to database. Waiters always read the job again from database,
+// so changes written without JobQueue are found at timeout at latest.
+public class JobEvents {
+    private static final Logger LOG = LoggerFactory.getLogger(JobEvents.class);
+
+    // Each waiter holds a thread of web server; beyond this, requests return at once
+    static final int MAX_WAITERS = 128;
+    public static final int MAX_TIMEOUT_MS = 30000;
+
+    private static final Map<Integer, List<CompletableFuture<Job.JobState>>> WAITERS = new ConcurrentHashMap<>();
+    private static final AtomicInteger WAITING = new AtomicInteger(0);
+
+    private JobEvents() {
+    }
+
+    static void publish(Job job) {
+        List<CompletableFuture<Job.JobState>> waiters = WAITERS.remove(job.id());
+        if (waiters != null) {
+            LOG.debug("Job id={} is now {}: waking up {} waiters", job.id(), job.state(), waiters.size());
+            for (CompletableFuture<Job.JobState> waiter : waiters) {
+                waiter.complete(job.state());
+            }
+        }
+    }
+
+    // Returns the job as soon as its state is not 'state', or as is after timeout
+    public static Optional<Job> await(int id, Job.JobState state, int timeoutMs, Supplier<Optional<Job>> current) {
+        if (WAITING.incrementAndGet() > MAX_WAITERS) {
+            WAITING.decrementAndGet();
+            LOG.debug("Too many waiters: returning job id={} at once", id);
+            return current.get();
+        }
+        CompletableFuture<Job.JobState> waiter = new CompletableFuture<>();
+        try {
+            WAITERS.compute(id, (key, list) -> {
+                List<CompletableFuture<Job.JobState>> ret = list == null ? new ArrayList<>() : list;
+                ret.add(waiter);
+                return ret;
+            });
+            // Check after registration not to miss the change in between
+            Optional<Job> job = current.get();
+            if (!job.isPresent() || job.get().state() != state) {
+                return job;
+            }
+            waiter.get(Math.min(timeoutMs, MAX_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.debug(e.toString(), e);
+        } finally {
+            WAITERS.computeIfPresent(id, (key, list) -> {
+                list.remove(waiter);
+                return list.isEmpty() ? null : list;
+            });
+            WAITING.decrementAndGet();
+        }
+        return current.get();
+    }
+
+    static int waiting() {
+        return WAITING.get();
+    }
+}
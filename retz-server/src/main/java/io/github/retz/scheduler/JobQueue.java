@@ -21,25 +21,33 @@ import io.github.retz.db.Database;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.ResourceQuantity;
 import io.github.retz.protocol.exception.JobNotFoundException;
+import io.github.retz.web.StatusCache;
 import org.apache.mesos.Protos;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * On memory job queue to mediate job execution requests and resources
+ * On memory job queue to mediate job execution requests and resources.
+ * QUEUED jobs are indexed in memory (QueueIndex) for the hot path of scheduling;
+ * all changes are written to Database first, which remains the durable log,
+ * and the index is rebuilt from Database at startup and at failover.
  * TODO: make all these data tolerant against node or network failure
  * TODO: FIXME: re-design all exception handling, which to supress / which to return to client
  */
 public class JobQueue {
     private static final Logger LOG = LoggerFactory.getLogger(JobQueue.class);
     private static final AtomicInteger COUNTER;
+    private static final QueueIndex QUEUE = new QueueIndex(Arrays.asList("id"));
 
     static {
         int latest = Database.getInstance().getLatestJobId();
@@ -49,8 +57,8 @@ public class JobQueue {
     private JobQueue() {
     }
 
-    public static List<Job> list(String user, Job.JobState state, Optional<String> tag, int limit) throws IOException, SQLException {
-        return Database.getInstance().listJobs(user, state, tag, limit);
+    public static List<Job> list(String user, Job.JobState state, Optional<String> tag, Optional<Integer> after, int limit) throws IOException, SQLException {
+        return Database.getInstance().listJobs(user, state, tag, after, limit);
     }
 
     // As this is issued by server without any transaction, this id may have
@@ -61,7 +69,29 @@ public class JobQueue {
 
     public static void push(Job job) throws InterruptedException {
         // TODO: set a cap of queue
-        Database.getInstance().safeAddJob(job);
+        if (Database.getInstance().safeAddJob(job)) {
+            reflect(job);
+        }
+    }
+
+    // Apply a change committed to database to the index, and notify waiters of the job
+    private static void reflect(Job job) {
+        QUEUE.reflect(job);
+        StatusCache.reflect(job);
+        JobEvents.publish(job);
+    }
+
+    // Drop everything on memory and load all QUEUED jobs from database again
+    public static void rebuild() {
+        try {
+            List<Job> queued = Database.getInstance().queued(Integer.MAX_VALUE);
+            QUEUE.reset(queued);
+            // Jobs may have been changed out of JobQueue
+            StatusCache.updateUsedResources();
+            LOG.info("Job queue rebuilt from database: {} jobs queued", queued.size());
+        } catch (IOException | SQLException e) {
+            LOG.error("Failed to rebuild job queue: {}", e.toString(), e);
+        }
     }
 
     public static void cancelAll(List<Job> jobs) {
@@ -71,7 +101,16 @@ public class JobQueue {
                 job.killed(TimestampHelper.now(), Optional.empty(), "Changed via JobQueue.cancelAll check");
             }
         }
-        Database.getInstance().updateJobs(jobs);
+        if (Database.getInstance().updateJobs(jobs)) {
+            for (Job job : jobs) {
+                QUEUE.remove(job.id());
+                StatusCache.reflect(job);
+                JobEvents.publish(job);
+            }
+        } else {
+            // Jobs on memory have already been modified
+            rebuild();
+        }
     }
 
     public static Optional<Job> cancel(int id, String reason) throws SQLException, IOException, JobNotFoundException {
@@ -84,7 +123,7 @@ public class JobQueue {
                 job.killed(TimestampHelper.now(), Optional.empty(), reason);
                 LOG.info("Job id={} has been canceled.", id);
                 return Optional.of(job);
-            }));
+            })).ifPresent(JobQueue::reflect);
             return getJob(id);
         }
         return maybeJob;
@@ -92,16 +131,20 @@ public class JobQueue {
 
     // @doc take as much jobs as in the max cpu/memMB
     public static List<Job> findFit(List<String> orderBy, ResourceQuantity total) {
-        try {
-            return Database.getInstance().findFit(orderBy, total.getCpu(), total.getMemMB());
-        } catch (IOException e) {
-            LOG.error(e.toString());
-            return new LinkedList<>();
-        }
+        return findFit(orderBy, total, 0);
+    }
+
+    // With up to 'lookahead' jobs behind the first one that does not fit; see QueueIndex.findFit
+    public static List<Job> findFit(List<String> orderBy, ResourceQuantity total, int lookahead) {
+        return QUEUE.findFit(orderBy, total.getCpu(), total.getMemMB(), lookahead);
     }
 
     public static List<Job> queued(int limit) throws SQLException, IOException {
-        return Database.getInstance().queued(limit);
+        return QUEUE.head(limit);
+    }
+
+    public static int countQueued() {
+        return QUEUE.size();
     }
 
     public synchronized static Optional<Job> getJob(int id) {
@@ -115,21 +158,23 @@ public class JobQueue {
 
     public synchronized static void clear() {
         Database.getInstance().deleteAllJob(Integer.MAX_VALUE);
+        QUEUE.reset(Arrays.asList());
     }
 
     public static int size() {
         return Database.getInstance().countJobs();
     }
 
-    public static void starting(Job job, Optional<String> url, String taskId) {
+    public static void starting(Job job, Optional<String> url, String taskId, String slaveId) {
         try {
-            Database.getInstance().setJobStarting(job.id(), url, taskId);
+            Database.getInstance().setJobStarting(job.id(), url, taskId, Optional.of(slaveId)).ifPresent(JobQueue::reflect);
         } catch (IOException e) {
-
+            // Planners have already modified the job on memory; reload from database
+            rebuild();
         } catch (SQLException e) {
-
+            rebuild();
         } catch (JobNotFoundException e) {
-
+            QUEUE.remove(job.id());
         }
     }
 
@@ -139,7 +184,7 @@ public class JobQueue {
             Database.getInstance().updateJob(maybeJob.get().id(), job -> {
                 job.started(taskId, maybeUrl, TimestampHelper.now());
                 return Optional.of(job);
-            });
+            }).ifPresent(JobQueue::reflect);
         }
     }
 
@@ -156,20 +201,10 @@ public class JobQueue {
         try {
             Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
             if (maybeJob.isPresent()) {
-                int threshold = 5;
                 Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                    if (job.retry() > threshold) {
-                        String msg = String.format("Giving up Job retry: %d / id=%d, last reason='%s'", threshold, job.id(), reason);
-                        LOG.warn(msg);
-                        job.killed(TimestampHelper.now(), Optional.empty(), msg);
-
-                    } else {
-                        job.doRetry();
-                        LOG.info("Scheduled retry {}/{} of Job(taskId={}), reason='{}'",
-                                job.retry(), threshold, job.taskId(), reason);
-                    }
+                    retry(job, reason);
                     return Optional.of(job);
-                });
+                }).ifPresent(JobQueue::reflect);
             }
         } catch (IOException e) {
             LOG.warn("Retry failed: {}", e.toString());
@@ -182,10 +217,9 @@ public class JobQueue {
             Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
             if (maybeJob.isPresent()) {
                 Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                    job.finished(finished, maybeUrl, ret);
+                    finished(job, maybeUrl, ret, finished);
                     return Optional.of(job);
-                });
-                LOG.info("Job id={} has finished at {} with return value={}", maybeJob.get().id(), finished, ret);
+                }).ifPresent(JobQueue::reflect);
             }
         } catch (IOException e) {
             LOG.error(e.toString());
@@ -197,16 +231,68 @@ public class JobQueue {
             Optional<Job> maybeJob = Database.getInstance().getJobFromTaskId(taskId);
             if (maybeJob.isPresent()) {
                 Database.getInstance().updateJob(maybeJob.get().id(), job -> {
-                    job.killed(TimestampHelper.now(), maybeUrl, msg);
+                    failed(job, maybeUrl, msg);
                     return Optional.of(job);
-                });
-                LOG.info("Job id={} has failed: {}", maybeJob.get().id(), msg);
+                }).ifPresent(JobQueue::reflect);
             }
         } catch (IOException e) {
             LOG.error(e.toString());
         }
     }
 
+    // State transitions on memory, shared by single updates above and batched updates
+    static void retry(Job job, String reason) {
+        int threshold = 5;
+        if (job.retry() > threshold) {
+            String msg = String.format("Giving up Job retry: %d / id=%d, last reason='%s'", threshold, job.id(), reason);
+            LOG.warn(msg);
+            job.killed(TimestampHelper.now(), Optional.empty(), msg);
+
+        } else {
+            job.doRetry();
+            LOG.info("Scheduled retry {}/{} of Job(taskId={}), reason='{}'",
+                    job.retry(), threshold, job.taskId(), reason);
+        }
+    }
+
+    static void finished(Job job, Optional<String> maybeUrl, int ret, String finished) {
+        job.finished(finished, maybeUrl, ret);
+        LOG.info("Job id={} has finished at {} with return value={}", job.id(), finished, ret);
+    }
+
+    static void failed(Job job, Optional<String> maybeUrl, String msg) {
+        job.killed(TimestampHelper.now(), maybeUrl, msg);
+        LOG.info("Job id={} has failed: {}", job.id(), msg);
+    }
+
+    // Fetch jobs of all task ids at once; unknown task ids are just missing in the result
+    static Map<String, Job> getFromTaskIds(Collection<String> taskIds) {
+        try {
+            return Database.getInstance().getJobsFromTaskIds(taskIds);
+        } catch (IOException e) {
+            LOG.error(e.toString());
+            return new HashMap<>();
+        }
+    }
+
+    // Write back all jobs in a single transaction
+    static boolean updateAll(List<Job> jobs) {
+        if (Database.getInstance().updateJobs(jobs)) {
+            for (Job job : jobs) {
+                reflect(job);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Sandbox URL resolved after the state change of the job has been applied
+    static void setUrl(int id, String taskId, String url) {
+        if (Database.getInstance().setJobUrl(id, taskId, url)) {
+            LOG.debug("Sandbox of job id={} (taskId={}): {}", id, taskId, url);
+        }
+    }
+
     public static int countRunning() {
         return Database.getInstance().countRunning();
     }
@@ -18,8 +18,8 @@ package io.github.retz.scheduler;
 
 import com.j256.simplejmx.server.JmxServer;
 import io.github.retz.db.Database;
+import io.github.retz.mesosc.MesosHTTPClient;
 import io.github.retz.mesosc.MesosHTTPFetcher;
-import io.github.retz.protocol.data.Job;
 import io.github.retz.web.StatusCache;
 import io.github.retz.web.WebConsole;
 import org.apache.commons.cli.*;
@@ -31,15 +31,14 @@ import org.slf4j.LoggerFactory;
 import javax.management.*;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
-import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 public final class Launcher {
     static final Option OPT_CONFIG;
     static final Option OPT_MODE;
+    static final Option OPT_MIGRATE;
     private static final Logger LOG = LoggerFactory.getLogger(Launcher.class);
     private static final Options OPTIONS;
 
@@ -50,9 +49,12 @@ public final class Launcher {
         OPT_MODE = new Option("M", "mode", true, "Scheduler mode ( local|mesos )");
         OPT_MODE.setArgName("mesos");
 
+        OPT_MIGRATE = new Option(null, "migrate", false, "Migrate database schema and exit");
+
         OPTIONS = new Options();
         OPTIONS.addOption(OPT_CONFIG);
         OPTIONS.addOption(OPT_MODE);
+        OPTIONS.addOption(OPT_MIGRATE);
     }
 
     public static void main(String... argv) {
@@ -67,7 +69,22 @@ public final class Launcher {
             if (conf.fileConfig.isTLS()) {
                 LOG.warn("Make sure a valid certificate is being used or RetzExecutor may not work.");
             }
+            MesosHTTPClient.configure(conf.getServerConfig().getMesosHTTPConnectTimeout(),
+                    conf.getServerConfig().getMesosHTTPReadTimeout(),
+                    conf.getServerConfig().getMesosHTTPParallelism());
+            MesosHTTPFetcher.configureCaches(conf.getServerConfig().getMesosCacheSize(),
+                    conf.getServerConfig().getMesosCacheTtl());
+            // Database schema is migrated here, if it is old
             Database.getInstance().init(conf.getServerConfig());
+            if (conf.migrateOnly) {
+                // Including online ones, which may have been deferred
+                Database.getInstance().migrate();
+                LOG.info("Database schema is up to date: exiting");
+                Database.getInstance().stop();
+                return 0;
+            }
+            GarbageJobCollector.configure(conf.getServerConfig().getGcChunkSize(),
+                    conf.getServerConfig().getGcRate(), conf.getServerConfig().getGcArchive());
             if (conf.getServerConfig().getGc()) {
                 GarbageJobCollector.start(conf.getServerConfig().getGcLeeway(), conf.getServerConfig().getGcInterval());
             } else {
@@ -102,7 +119,9 @@ public final class Launcher {
         // By hitting HTTP endpoints and comparing with database job states,
         // Retz can decide whether to re-run it or just finish it.
         // BTW after connecting to Mesos it looks like re-sending unacked messages.
-        maybeRequeueRunningJobs(conf.getMesosMaster(), fw.getId().getValue(), Database.getInstance().getRunning());
+        Recovery.fromMaster(conf.getMesosMaster(), fw.getId().getValue(), Database.getInstance().getRunning());
+        // Load all QUEUED jobs, including those just requeued, into on memory queue
+        JobQueue.rebuild();
 
         RetzScheduler scheduler;
         try {
@@ -145,40 +164,6 @@ public final class Launcher {
         return (status == Protos.Status.DRIVER_STOPPED ? 0 : 255);
     }
 
-    private static void maybeRequeueRunningJobs(String master, String frameworkId, List<Job> running) {
-        LOG.info("{} jobs found in DB 'STARTING' or 'STARTED' state. Requeuing...", running.size());
-        int offset = 0;
-        int limit = 128;
-        Map<String, Job> runningMap = running.stream().collect(Collectors.toMap(job -> job.taskId(), job -> job));
-        List<Job> recoveredJobs = new LinkedList<>();
-        while (true) {
-            try {
-                List<Map<String, Object>> tasks = MesosHTTPFetcher.fetchTasks(master, frameworkId, offset, limit);
-                if (tasks.isEmpty()) {
-                    break;
-                }
-
-                for (Map<String, Object> task : tasks) {
-                    String state = (String) task.get("state");
-                    // Get TaskId
-                    String taskId = (String) task.get("id");
-                    if (runningMap.containsKey(taskId)) {
-                        Job job = runningMap.remove(taskId);
-                        recoveredJobs.add(JobQueue.updateJobStatus(job, state));
-                    } else {
-                        LOG.warn("Unknown job!");
-                    }
-                }
-                offset = offset + tasks.size();
-            } catch (MalformedURLException e) {
-                LOG.error(e.toString());
-                throw new RuntimeException(e.toString());
-            }
-        }
-        Database.getInstance().updateJobs(recoveredJobs);
-        LOG.info("{} jobs rescheduled, {} jobs didn't need change.", recoveredJobs.size(), runningMap.size());
-    }
-
     private static Protos.FrameworkInfo buildFrameworkInfo(Configuration conf) {
         String userName = conf.fileConfig.getUserName();
 
@@ -225,6 +210,7 @@ public final class Launcher {
         } else if ("mesos".equals(mode)) {
             conf.launchMode = Configuration.Mode.MESOS;
         }
+        conf.migrateOnly = cmd.hasOption(OPT_MIGRATE.getLongOpt());
 
         return conf;
     }
@@ -232,6 +218,7 @@ public final class Launcher {
     public static final class Configuration {
         ServerConfiguration fileConfig;
         Mode launchMode;
+        boolean migrateOnly = false;
 
         public Configuration(ServerConfiguration fileConfig) {
             Objects.requireNonNull(fileConfig, "File configuration cannot be null");
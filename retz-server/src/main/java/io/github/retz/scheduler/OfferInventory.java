@@ -0,0 +1,193 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.planner.ResourceConstructor;
+import io.github.retz.protocol.data.ResourceQuantity;
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Offers in stock, merged by agent. Resources of each offer are decoded once when
+// it is added, and totals of each agent and of all agents are kept up to date with
+// additions and removals, so that neither planning cycles nor offer stats decode
+// protobufs again. Offers taken out for planning keep their age when put back, and
+// offers older than maxAgeMs (0 for no expiry) are given back to Mesos.
+class OfferInventory {
+    private final long maxAgeMs;
+    private final Map<String, Agent> agents = new LinkedHashMap<>();
+    // Time when each offer in stock, or being planned, arrived
+    private final Map<String, Long> arrived = new HashMap<>();
+    private final ResourceQuantity total = new ResourceQuantity();
+    private int size = 0;
+
+    OfferInventory(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    synchronized void add(Protos.Offer offer, long now) {
+        String id = offer.getId().getValue();
+        Agent agent = agents.computeIfAbsent(offer.getSlaveId().getValue(), Agent::new);
+        if (agent.offers.containsKey(id)) {
+            return;
+        }
+        Long time = arrived.putIfAbsent(id, now);
+        Stocked stocked = new Stocked(offer, time == null ? now : time);
+        agent.add(stocked);
+        total.add(stocked.quantity);
+        size++;
+    }
+
+    // Puts offers back after planning, and forgets those accepted or declined
+    synchronized void restock(Collection<Protos.Offer> offers, long now) {
+        for (Protos.Offer offer : offers) {
+            add(offer, now);
+        }
+        Set<String> ids = new HashSet<>(size);
+        for (Agent agent : agents.values()) {
+            ids.addAll(agent.offers.keySet());
+        }
+        arrived.keySet().retainAll(ids);
+    }
+
+    // Removes all offers, merged by agent
+    synchronized List<Protos.Offer> takeAll() {
+        List<Protos.Offer> ret = new ArrayList<>(size);
+        for (Agent agent : agents.values()) {
+            for (Stocked stocked : agent.offers.values()) {
+                ret.add(stocked.offer);
+            }
+        }
+        clear();
+        return ret;
+    }
+
+    synchronized List<Protos.Offer> remove(String slaveId) {
+        List<Protos.Offer> ret = new ArrayList<>();
+        Agent agent = agents.remove(slaveId);
+        if (agent != null) {
+            for (Stocked stocked : agent.offers.values()) {
+                ret.add(stocked.offer);
+                arrived.remove(stocked.offer.getId().getValue());
+            }
+            subtract(agent.total);
+            size -= agent.offers.size();
+        }
+        return ret;
+    }
+
+    // Returns true if the offer was in stock
+    synchronized boolean rescind(String offerId) {
+        arrived.remove(offerId);
+        for (Iterator<Agent> it = agents.values().iterator(); it.hasNext(); ) {
+            Agent agent = it.next();
+            Stocked stocked = agent.offers.remove(offerId);
+            if (stocked != null) {
+                agent.subtract(stocked.quantity);
+                subtract(stocked.quantity);
+                size--;
+                if (agent.offers.isEmpty()) {
+                    it.remove();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Removes offers older than maxAgeMs, to be declined
+    synchronized List<Protos.Offer> expire(long now) {
+        List<Protos.Offer> ret = new ArrayList<>();
+        if (maxAgeMs <= 0) {
+            return ret;
+        }
+        for (Agent agent : agents.values()) {
+            for (Stocked stocked : agent.offers.values()) {
+                if (now - stocked.arrived > maxAgeMs) {
+                    ret.add(stocked.offer);
+                }
+            }
+        }
+        for (Protos.Offer offer : ret) {
+            rescind(offer.getId().getValue());
+        }
+        return ret;
+    }
+
+    // Sum of all offers; nodes is the number of agents
+    synchronized ResourceQuantity total() {
+        return new ResourceQuantity(total.getCpu(), total.getMemMB(), total.getGpu(),
+                total.getPorts(), total.getDiskMB(), agents.size());
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int agents() {
+        return agents.size();
+    }
+
+    private void clear() {
+        agents.clear();
+        size = 0;
+        subtract(total);
+    }
+
+    private void subtract(ResourceQuantity q) {
+        total.add(-q.getCpu(), -q.getMemMB(), -q.getGpu(), -q.getPorts(), -q.getDiskMB());
+    }
+
+    private static final class Stocked {
+        private final Protos.Offer offer;
+        private final ResourceQuantity quantity;
+        private final long arrived;
+
+        Stocked(Protos.Offer offer, long arrived) {
+            this.offer = offer;
+            this.quantity = ResourceConstructor.decode(offer.getResourcesList()).toQuantity();
+            this.arrived = arrived;
+        }
+    }
+
+    private static final class Agent {
+        private final String slaveId;
+        private final Map<String, Stocked> offers = new LinkedHashMap<>();
+        private final ResourceQuantity total = new ResourceQuantity();
+
+        Agent(String slaveId) {
+            this.slaveId = slaveId;
+        }
+
+        void add(Stocked stocked) {
+            offers.put(stocked.offer.getId().getValue(), stocked);
+            total.add(stocked.quantity);
+        }
+
+        void subtract(ResourceQuantity q) {
+            total.add(-q.getCpu(), -q.getMemMB(), -q.getGpu(), -q.getPorts(), -q.getDiskMB());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToIntBiFunction;
+
+// Coalesces offers from consecutive resourceOffers callbacks into one planning
+// cycle in Stanchion, which runs batchMs after the first offer of the window.
+// With batchMs = 0 a cycle is run as soon as Stanchion gets free, which still
+// merges callbacks that arrived while Stanchion was busy.
+class OfferWindow {
+    private static final Logger LOG = LoggerFactory.getLogger(OfferWindow.class);
+
+    // Metrics, exposed via AdminConsole
+    static final Histogram OFFERS_PER_CYCLE = new Histogram();
+    static final Histogram CYCLE_MICROS = new Histogram();
+
+    private final int batchMs;
+    // Takes offers and returns the number of offers planned, including stocked ones
+    private final ToIntBiFunction<SchedulerDriver, List<Protos.Offer>> handler;
+
+    private final ConcurrentLinkedQueue<Protos.Offer> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService timer;
+    private volatile SchedulerDriver driver;
+
+    OfferWindow(int batchMs, ToIntBiFunction<SchedulerDriver, List<Protos.Offer>> handler) {
+        this.batchMs = batchMs;
+        this.handler = handler;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread t = new Thread(runnable, "offer-window");
+            t.setDaemon(true);
+            return t;
+        });
+        LOG.info("Offers are planned in windows of {}ms", batchMs);
+    }
+
+    void add(SchedulerDriver driver, List<Protos.Offer> offers) {
+        this.driver = driver;
+        pending.addAll(offers);
+        if (scheduled.compareAndSet(false, true)) {
+            if (batchMs > 0) {
+                timer.schedule(() -> Stanchion.schedule(Stanchion.Lane.PLANNING, this::drain), batchMs, TimeUnit.MILLISECONDS);
+            } else {
+                Stanchion.schedule(Stanchion.Lane.PLANNING, this::drain);
+            }
+        }
+    }
+
+    // Offers from lost agents must not be planned
+    void remove(String slaveId) {
+        pending.removeIf(offer -> offer.getSlaveId().getValue().equals(slaveId));
+    }
+
+    // Runs in Stanchion
+    private void drain() {
+        scheduled.set(false);
+        List<Protos.Offer> offers = new ArrayList<>();
+        Protos.Offer offer;
+        while ((offer = pending.poll()) != null) {
+            offers.add(offer);
+        }
+        if (offers.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int planned = handler.applyAsInt(driver, offers);
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        OFFERS_PER_CYCLE.record(planned);
+        CYCLE_MICROS.record(micros);
+        LOG.debug("Planning cycle over {} offers ({} fresh) took {}us", planned, offers.size(), micros);
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.ResourceQuantity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * On memory index of QUEUED jobs, sorted by the column names given as Planner.orderBy().
+ * Database is still the durable log; JobQueue writes through here only after
+ * the change has been committed to database. Jobs are copied both when put and
+ * when returned, because planners mutate Job instances (e.g. Job.starting) before
+ * JobQueue knows the result, and HTTP threads read them concurrently; a job
+ * changed in place would also break the order of the sorted map.
+ */
+class QueueIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(QueueIndex.class);
+
+    private final TreeMap<Integer, Job> byId = new TreeMap<>();
+    private final Map<Integer, SortKey> keys = new HashMap<>();
+    private final TreeMap<SortKey, Job> ordered = new TreeMap<>();
+    private List<String> orderBy;
+
+    QueueIndex(List<String> orderBy) {
+        this.orderBy = validate(orderBy);
+    }
+
+    synchronized void reset(List<Job> jobs) {
+        byId.clear();
+        keys.clear();
+        ordered.clear();
+        for (Job job : jobs) {
+            put(job);
+        }
+    }
+
+    synchronized void put(Job job) {
+        remove(job.id());
+        Job copy = copy(job);
+        SortKey key = new SortKey(orderBy, copy);
+        byId.put(copy.id(), copy);
+        keys.put(copy.id(), key);
+        ordered.put(key, copy);
+    }
+
+    synchronized void remove(int id) {
+        byId.remove(id);
+        SortKey key = keys.remove(id);
+        if (key != null) {
+            ordered.remove(key);
+        }
+    }
+
+    // Keep the job only when it is (still or again) QUEUED
+    synchronized void reflect(Job job) {
+        if (job.state() == Job.JobState.QUEUED) {
+            put(job);
+        } else {
+            remove(job.id());
+        }
+    }
+
+    // Same semantics as Database.findFit: take jobs from the head until one does not fit
+    synchronized List<Job> findFit(List<String> orderBy, int cpu, int memMB) {
+        return findFit(orderBy, cpu, memMB, 0);
+    }
+
+    // Also takes the first job that does not fit and up to 'lookahead' jobs behind it,
+    // for planners which may place jobs behind it, e.g. BestFitPlanner
+    synchronized List<Job> findFit(List<String> orderBy, int cpu, int memMB, int lookahead) {
+        if (!this.orderBy.equals(orderBy)) {
+            reorder(orderBy);
+        }
+        List<Job> ret = new LinkedList<>();
+        int totalCpu = 0;
+        int totalMem = 0;
+        // Jobs taken behind the first job that does not fit, or -1 before it
+        int behind = -1;
+        for (Job job : ordered.values()) {
+            if (behind >= 0) {
+                if (behind >= lookahead) {
+                    break;
+                }
+                ret.add(copy(job));
+                behind++;
+            } else if (totalCpu + job.resources().getCpu() <= cpu && totalMem + job.resources().getMemMB() <= memMB) {
+                ret.add(copy(job));
+                totalCpu += job.resources().getCpu();
+                totalMem += job.resources().getMemMB();
+            } else if (lookahead > 0) {
+                ret.add(copy(job));
+                behind = 0;
+            } else {
+                break;
+            }
+        }
+        return ret;
+    }
+
+    // Oldest jobs first, as Database.queued does
+    synchronized List<Job> head(int limit) {
+        List<Job> ret = new LinkedList<>();
+        for (Job job : byId.values()) {
+            if (ret.size() >= limit) {
+                break;
+            }
+            ret.add(copy(job));
+        }
+        return ret;
+    }
+
+    synchronized int size() {
+        return byId.size();
+    }
+
+    private void reorder(List<String> newOrderBy) {
+        LOG.info("Re-ordering {} queued jobs by {} (was {})", byId.size(), newOrderBy, orderBy);
+        orderBy = validate(newOrderBy);
+        keys.clear();
+        ordered.clear();
+        for (Job job : byId.values()) {
+            SortKey key = new SortKey(orderBy, job);
+            keys.put(job.id(), key);
+            ordered.put(key, job);
+        }
+    }
+
+    // Same fields as Jobs.fromResultSet gives for a row
+    private static Job copy(Job job) {
+        ResourceQuantity r = job.resources();
+        Properties props = null;
+        if (job.props() != null) {
+            props = new Properties();
+            props.putAll(job.props());
+        }
+        return new Job(job.cmd(), job.scheduled(), job.started(), job.finished(), props,
+                job.result(), job.id(), job.url(), job.reason(), job.retry(), job.priority(),
+                job.appid(), job.name(), new HashSet<>(job.tags()),
+                new ResourceQuantity(r.getCpu(), r.getMemMB(), r.getGpu(), r.getPorts(), r.getDiskMB(), r.getNodes()),
+                job.attributes(), job.taskId(), job.state());
+    }
+
+    private static List<String> validate(List<String> orderBy) {
+        for (String column : orderBy) {
+            SortKey.value(column, null);
+        }
+        return new ArrayList<>(orderBy);
+    }
+
+    // Values of ORDER BY columns in 'jobs' table, with id as the last tie breaker
+    static final class SortKey implements Comparable<SortKey> {
+        private final List<Comparable<Object>> values;
+
+        SortKey(List<String> orderBy, Job job) {
+            values = new ArrayList<>(orderBy.size() + 1);
+            for (String column : orderBy) {
+                values.add(value(column, job));
+            }
+            values.add(comparable(job.id()));
+        }
+
+        static Comparable<Object> value(String column, Job job) {
+            return comparable(column(column, job));
+        }
+
+        // Values of all columns are Integer or String, compared only with the same column
+        @SuppressWarnings("unchecked")
+        private static Comparable<Object> comparable(Object value) {
+            return (Comparable<Object>) value;
+        }
+
+        private static Object column(String column, Job job) {
+            switch (column.toLowerCase()) {
+                case "id":
+                    return job == null ? null : job.id();
+                case "name":
+                    return job == null ? null : job.name();
+                case "appid":
+                    return job == null ? null : job.appid();
+                case "cmd":
+                    return job == null ? null : job.cmd();
+                case "priority":
+                    return job == null ? null : job.priority();
+                case "started":
+                    return job == null ? null : job.started();
+                case "finished":
+                    return job == null ? null : job.finished();
+                case "taskid":
+                    return job == null ? null : job.taskId();
+                case "state":
+                    return job == null ? null : job.state().toString();
+                default:
+                    throw new IllegalArgumentException("Unknown column in orderBy: " + column);
+            }
+        }
+
+        @Override
+        public int compareTo(SortKey rhs) {
+            for (int i = 0; i < values.size(); ++i) {
+                int c = compare(values.get(i), rhs.values.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+
+        // NULLs come last, as Database.findFit orders with NULLS LAST on any backend
+        private static int compare(Comparable<Object> lhs, Comparable<Object> rhs) {
+            if (lhs == null) {
+                return rhs == null ? 0 : 1;
+            } else if (rhs == null) {
+                return -1;
+            }
+            return lhs.compareTo(rhs);
+        }
+    }
+}
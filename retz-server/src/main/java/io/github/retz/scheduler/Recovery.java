@@ -0,0 +1,225 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.db.Database;
+import io.github.retz.mesosc.MesosHTTPClient;
+import io.github.retz.mesosc.MesosHTTPFetcher;
+import io.github.retz.misc.Pair;
+import io.github.retz.protocol.data.Job;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Recovery of STARTING and STARTED jobs, whose tasks may have changed while Retz was away.
+ * Before the scheduler starts, /tasks of Mesos master is walked, a few pages at a time
+ * in parallel, until all those jobs are found or the pages end. After the scheduler has
+ * (re-)registered, jobs still running are reconciled through the driver: Mesos answers
+ * with a status update of each task, which is applied as any other update. Jobs whose
+ * tasks are not answered in time are queued again. When an agent is lost, only jobs
+ * launched there are queued again; running jobs whose agent is unknown are reconciled.
+ */
+final class Recovery {
+    private static final Logger LOG = LoggerFactory.getLogger(Recovery.class);
+
+    static final int PAGE_SIZE = 256;
+    static final int RECONCILE_TIMEOUT_SEC = 60;
+
+    // Task ids reconciled but not answered yet
+    private static final Set<String> RECONCILING = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = new Thread(runnable, "recovery-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Metrics of the last recovery at startup, and of reconciliations since then
+    private static final AtomicLong DURATION_MS = new AtomicLong(0);
+    private static final AtomicLong JOBS = new AtomicLong(0);
+    private static final AtomicLong RECOVERED = new AtomicLong(0);
+    private static final AtomicLong PAGES = new AtomicLong(0);
+    private static final AtomicLong RECONCILED = new AtomicLong(0);
+    private static final AtomicLong REQUEUED = new AtomicLong(0);
+    private static final AtomicLong SLAVES_LOST = new AtomicLong(0);
+    private static final AtomicLong LOST = new AtomicLong(0);
+
+    private Recovery() {
+    }
+
+    // Finds tasks of running jobs in Mesos master and applies their states in one transaction;
+    // returns the number of jobs changed
+    static int fromMaster(String master, String frameworkId, List<Job> running) {
+        long start = System.currentTimeMillis();
+        LOG.info("{} jobs found in DB 'STARTING' or 'STARTED' state. Looking for their tasks...", running.size());
+        Map<String, Job> remaining = running.stream().collect(Collectors.toMap(job -> job.taskId(), job -> job));
+        List<Job> recovered = new ArrayList<>();
+        int parallelism = MesosHTTPClient.parallelism();
+        int offset = 0;
+        int pages = 0;
+        boolean end = false;
+        try {
+            while (!end && !remaining.isEmpty()) {
+                List<CompletableFuture<Pair<Integer, List<Map<String, Object>>>>> wave = new ArrayList<>(parallelism);
+                for (int i = 0; i < parallelism; ++i) {
+                    int pageOffset = offset + i * PAGE_SIZE;
+                    wave.add(MesosHTTPClient.submit(() -> MesosHTTPFetcher.fetchTasks(master, frameworkId, pageOffset, PAGE_SIZE)));
+                }
+                offset += parallelism * PAGE_SIZE;
+
+                // In order of pages, as a task id may appear twice when the job has been retried
+                for (CompletableFuture<Pair<Integer, List<Map<String, Object>>>> future : wave) {
+                    Pair<Integer, List<Map<String, Object>>> page = future.get();
+                    ++pages;
+                    for (Map<String, Object> task : page.right()) {
+                        Job job = remaining.remove((String) task.get("id"));
+                        if (job != null) {
+                            recovered.add(JobQueue.updateJobStatus(job, (String) task.get("state")));
+                        }
+                    }
+                    end = end || page.left() < PAGE_SIZE;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Interrupted while fetching tasks from {}", master);
+        } catch (ExecutionException e) {
+            LOG.error("Cannot fetch tasks from {}: {}", master, e.getCause().toString());
+        }
+
+        if (!recovered.isEmpty() && !Database.getInstance().updateJobs(recovered)) {
+            LOG.error("Failed to update {} jobs recovered", recovered.size());
+        }
+        long duration = System.currentTimeMillis() - start;
+        DURATION_MS.set(duration);
+        JOBS.set(running.size());
+        RECOVERED.set(recovered.size());
+        PAGES.set(pages);
+        LOG.info("{} jobs recovered from {} pages of tasks in {}ms, {} jobs not found.",
+                recovered.size(), pages, duration, remaining.size());
+        return recovered.size();
+    }
+
+    // Asks Mesos for the latest status of tasks of all running jobs
+    static void reconcile(SchedulerDriver driver) {
+        reconcile(driver, Database.getInstance().getRunning());
+    }
+
+    // Runs in Stanchion; jobs of the slave are queued again in one transaction
+    static void slaveLost(SchedulerDriver driver, String slaveId) {
+        List<Job> lost = Database.getInstance().getRunningOnSlave(slaveId);
+        for (Job job : lost) {
+            JobQueue.retry(job, "Slave lost: " + slaveId);
+        }
+        SLAVES_LOST.incrementAndGet();
+        if (!lost.isEmpty()) {
+            if (JobQueue.updateAll(lost)) {
+                LOST.addAndGet(lost.size());
+            } else {
+                // Nothing has been changed; they are reconciled again with the next slaveLost or restart
+                LOG.error("Failed to queue {} jobs of lost slave {} again", lost.size(), slaveId);
+            }
+        }
+        // Jobs of unknown slaves may or may not have been there
+        List<Job> unknown = Database.getInstance().getRunningOnUnknownSlave();
+        LOG.info("{} jobs of lost slave {} are queued again; reconciling {} jobs of unknown slaves",
+                lost.size(), slaveId, unknown.size());
+        reconcile(driver, unknown);
+    }
+
+    private static void reconcile(SchedulerDriver driver, List<Job> jobs) {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        List<Protos.TaskStatus> statuses = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            // Mesos ignores the state, which is required in TaskStatus
+            statuses.add(Protos.TaskStatus.newBuilder()
+                    .setTaskId(Protos.TaskID.newBuilder().setValue(job.taskId()))
+                    .setState(Protos.TaskState.TASK_RUNNING)
+                    .build());
+            RECONCILING.add(job.taskId());
+        }
+        LOG.info("Reconciling {} tasks of running jobs", statuses.size());
+        driver.reconcileTasks(statuses);
+        List<String> taskIds = jobs.stream().map(job -> job.taskId()).collect(Collectors.toList());
+        TIMER.schedule(() -> Stanchion.schedule(Stanchion.Lane.UPDATE, () -> requeueUnanswered(taskIds)),
+                RECONCILE_TIMEOUT_SEC, TimeUnit.SECONDS);
+    }
+
+    // Called with every status update from Mesos
+    static void answered(String taskId) {
+        if (RECONCILING.remove(taskId)) {
+            RECONCILED.incrementAndGet();
+        }
+    }
+
+    // Runs in Stanchion; jobs are queued again in one transaction, as in slaveLost
+    static void requeueUnanswered(Collection<String> taskIds) {
+        List<String> unanswered = taskIds.stream().filter(RECONCILING::remove).collect(Collectors.toList());
+        if (unanswered.isEmpty()) {
+            return;
+        }
+        Map<String, Job> jobs = JobQueue.getFromTaskIds(unanswered);
+        List<Job> requeued = new ArrayList<>();
+        for (Job job : jobs.values()) {
+            if (job.state() == Job.JobState.STARTING || job.state() == Job.JobState.STARTED) {
+                JobQueue.retry(job, "Task not answered in reconciliation");
+                requeued.add(job);
+            }
+        }
+        LOG.warn("{} tasks not answered in {}s of reconciliation; {} jobs are queued again",
+                unanswered.size(), RECONCILE_TIMEOUT_SEC, requeued.size());
+        if (!requeued.isEmpty()) {
+            if (JobQueue.updateAll(requeued)) {
+                REQUEUED.addAndGet(requeued.size());
+            } else {
+                LOG.error("Failed to queue {} jobs not answered in reconciliation again", requeued.size());
+            }
+        }
+    }
+
+    static Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("duration-ms", DURATION_MS.get());
+        stats.put("jobs", JOBS.get());
+        stats.put("recovered", RECOVERED.get());
+        stats.put("pages", PAGES.get());
+        stats.put("reconciling", (long) RECONCILING.size());
+        stats.put("reconciled", RECONCILED.get());
+        stats.put("requeued", REQUEUED.get());
+        stats.put("slaves-lost", SLAVES_LOST.get());
+        stats.put("lost", LOST.get());
+        return stats;
+    }
+}
@@ -20,12 +20,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
+import io.github.retz.mesosc.MesosHTTPClient;
 import io.github.retz.mesosc.MesosHTTPFetcher;
 import io.github.retz.planner.*;
-import io.github.retz.planner.spi.Resource;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.ResourceQuantity;
-import io.github.retz.protocol.exception.JobNotFoundException;
 import io.github.retz.web.StatusCache;
 import org.apache.mesos.Protos;
 import org.apache.mesos.Scheduler;
@@ -33,10 +32,10 @@ import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class RetzScheduler implements Scheduler {
@@ -58,12 +57,16 @@ public class RetzScheduler implements Scheduler {
     private final ResourceQuantity MAX_JOB_SIZE;
     private final Long MAX_FILE_SIZE;
     private final ObjectMapper MAPPER = new ObjectMapper();
-    private final Map<String, Protos.Offer> OFFER_STOCK = new ConcurrentHashMap<>();
+    private final OfferInventory OFFER_STOCK;
     private final Planner PLANNER;
     private final Protos.Filters filters;
     private Launcher.Configuration conf;
     private Protos.FrameworkInfo frameworkInfo;
     private Map<String, List<Protos.SlaveID>> slaves;
+    private final StatusUpdateBatcher STATUS_UPDATES;
+    private final OfferWindow OFFER_WINDOW;
+    // Sandbox URLs being resolved out of Stanchion, by task id
+    private final Map<String, CompletableFuture<Optional<String>>> RESOLVING = new ConcurrentHashMap<>();
 
     public RetzScheduler(Launcher.Configuration conf, Protos.FrameworkInfo frameworkInfo) throws Throwable {
         MAPPER.registerModule(new Jdk8Module());
@@ -74,6 +77,11 @@ public class RetzScheduler implements Scheduler {
         this.filters = Protos.Filters.newBuilder().setRefuseSeconds(conf.getServerConfig().getRefuseSeconds()).build();
         MAX_JOB_SIZE = conf.getServerConfig().getMaxJobSize();
         MAX_FILE_SIZE = conf.getServerConfig().getMaxFileSize();
+        STATUS_UPDATES = new StatusUpdateBatcher(conf.getServerConfig().getStatusBatchSize(),
+                conf.getServerConfig().getStatusBatchMs(), this::statusUpdates);
+        Stanchion.setCapacity(conf.getServerConfig().getLaneCapacity());
+        OFFER_STOCK = new OfferInventory(TimeUnit.SECONDS.toMillis(conf.getServerConfig().getMaxStockAge()));
+        OFFER_WINDOW = new OfferWindow(conf.getServerConfig().getPlannerBatchMs(), this::planOffers);
     }
 
     @Override
@@ -95,8 +103,10 @@ public class RetzScheduler implements Scheduler {
     @Override
     public void offerRescinded(SchedulerDriver driver, Protos.OfferID offerId) {
         LOG.info("Offer rescinded: {}", offerId.getValue());
-        // Hereby offers must be removed from OFFER_STOCK, instead it's removed at slaveLost() callback.
-        // This is based on an assumption that all offerRescinded calls come with slaveLost().
+        // Offers being planned are not in stock; accepting them just fails in Mesos
+        if (OFFER_STOCK.rescind(offerId.getValue())) {
+            updateOfferStats();
+        }
     }
 
     @Override
@@ -133,62 +143,45 @@ public class RetzScheduler implements Scheduler {
     @Override
     public void resourceOffers(SchedulerDriver driver, List<Protos.Offer> offers) {
         LOG.debug("Resource offer: {}", offers.size());
+        for (Protos.Offer offer : offers) {
+            learnAgent(offer);
+        }
+        // Offers from consecutive callbacks are planned at once
+        OFFER_WINDOW.add(driver, offers);
+    }
 
-        // Merge fresh offers from Mesos and offers in stock here, declining duplicate offers
-        Stanchion.schedule(() -> {
-            List<Protos.Offer> available = new LinkedList<>();
-            synchronized (OFFER_STOCK) {
-                // TODO: cleanup this code, optimize for max.stock = 0 case
-                Map<String, List<Protos.Offer>> allOffers = new HashMap<>();
-                for (Protos.Offer offer : OFFER_STOCK.values()) {
-                    String key = offer.getSlaveId().getValue();
-                    List<Protos.Offer> list = allOffers.getOrDefault(key, new LinkedList<>());
-                    list.add(offer);
-                    allOffers.put(offer.getSlaveId().getValue(), list);
-                }
-                for (Protos.Offer offer : offers) {
-                    String key = offer.getSlaveId().getValue();
-                    List<Protos.Offer> list = allOffers.getOrDefault(key, new LinkedList<>());
-                    list.add(offer);
-                    allOffers.put(offer.getSlaveId().getValue(), list);
-                }
-
-                int declined = 0;
-                for (Map.Entry<String, List<Protos.Offer>> e : allOffers.entrySet()) {
-                    if (e.getValue().size() == 1) {
-                        available.add(e.getValue().get(0));
-                    } else {
-                        for (Protos.Offer dup : e.getValue()) {
-                            driver.declineOffer(dup.getId(), filters);
-                            declined += 1;
-                        }
-                    }
-                }
-                if (conf.fileConfig.getMaxStockSize() > 0) {
-                    LOG.info("Offer stock renewal: {} offers available ({} declined from stock)", available.size(), declined);
-                }
-                OFFER_STOCK.clear();
-            }
-
-            ResourceQuantity total = new ResourceQuantity();
-            for (Protos.Offer offer : available) {
-                LOG.debug("offer: {}", offer);
-                Resource resource = ResourceConstructor.decode(offer.getResourcesList());
-                total.add(resource.toQuantity());
-            }
-            total.setNodes(offers.size());
+    // Called in Stanchion with all offers arrived in a window; returns the number of offers planned
+    int planOffers(SchedulerDriver driver, List<Protos.Offer> fresh) {
+        // Merge fresh offers from Mesos and offers in stock by agent, e.g. another offer of
+        // an agent whose task finished; offers kept too long are given back without filters
+        // to have them re-offered
+        long now = System.currentTimeMillis();
+        for (Protos.Offer offer : fresh) {
+            OFFER_STOCK.add(offer, now);
+        }
+        List<Protos.Offer> expired = OFFER_STOCK.expire(now);
+        for (Protos.Offer offer : expired) {
+            driver.declineOffer(offer.getId());
+        }
+        ResourceQuantity total = OFFER_STOCK.total();
+        List<Protos.Offer> available = OFFER_STOCK.takeAll();
+        if (conf.fileConfig.getMaxStockSize() > 0) {
+            LOG.info("Offer stock renewal: {} offers of {} agents available ({} expired)",
+                    available.size(), total.getNodes(), expired.size());
+        }
 
-            // TODO: change findFit to consider not only CPU and Memory, but GPUs and Ports
-            List<Job> jobs = JobQueue.findFit(PLANNER.orderBy(), total);
-            handleAll(available, jobs, driver);
-            // As this section is whole serialized by Stanchion, it is safe to do fetching jobs
-            // from database and updating database state change from queued => starting at
-            // separate transactions
-        });
+        // TODO: change findFit to consider not only CPU and Memory, but GPUs and Ports
+        List<Job> jobs = JobQueue.findFit(PLANNER.orderBy(), total, PLANNER.lookahead());
+        handleAll(available, jobs, driver);
+        // As this section is whole serialized by Stanchion, it is safe to do fetching jobs
+        // from database and updating database state change from queued => starting at
+        // separate transactions
+        return available.size();
     }
 
     public void maybeInvokeNow(SchedulerDriver driver, Job job) {
-        Stanchion.schedule(() -> {
+        // The job is already queued; it is planned with the next offers anyway when Stanchion is busy
+        boolean scheduled = Stanchion.trySchedule(Stanchion.Lane.PLANNING, () -> {
             try {
                 List<Job> queued = JobQueue.queued(1);
                 if (queued.size() == 1 && queued.get(0).id() == job.id()) {
@@ -201,15 +194,17 @@ public class RetzScheduler implements Scheduler {
                 return;
             }
 
-            List<Protos.Offer> available = new LinkedList<>();
-            synchronized (OFFER_STOCK) {
-                available.addAll(OFFER_STOCK.values());
-                OFFER_STOCK.clear();
-            }
             // Only if the queue is empty, and with offer stock, try job invocation
+            if (OFFER_STOCK.size() == 0) {
+                return;
+            }
+            List<Protos.Offer> available = OFFER_STOCK.takeAll();
             List<Job> jobs = Arrays.asList(job);
             handleAll(available, jobs, driver);
         });
+        if (!scheduled) {
+            LOG.debug("Too many planning tasks; skipping invocation of job id={} from offer stock", job.id());
+        }
     }
 
     public void handleAll(List<Protos.Offer> offers, List<Job> jobs, SchedulerDriver driver) {
@@ -220,6 +215,8 @@ public class RetzScheduler implements Scheduler {
         if (running >= conf.fileConfig.getMaxSimultaneousJobs()) {
             LOG.warn("Number of concurrently running jobs has reached its limit: {} >= {} ({})",
                     running, conf.fileConfig.getMaxSimultaneousJobs(), ServerConfiguration.MAX_SIMULTANEOUS_JOBS);
+            // Kept until they expire
+            OFFER_STOCK.restock(offers, System.currentTimeMillis());
             return;
         }
 
@@ -242,14 +239,12 @@ public class RetzScheduler implements Scheduler {
             } else {
                 for (Job j : acceptor.getJobs()) {
                     // Update local database, to running
-                    JobQueue.starting(j, Optional.empty(), j.taskId());
+                    JobQueue.starting(j, Optional.empty(), j.taskId(), acceptor.getSlaveID().getValue());
                 }
                 acceptor.acceptOffers(driver, filters);
             }
         }
-        for (Protos.Offer offer : bestPlan.getToStock()) {
-            OFFER_STOCK.put(offer.getSlaveId().getValue(), offer);
-        }
+        OFFER_STOCK.restock(bestPlan.getToStock(), System.currentTimeMillis());
         LOG.info("{} accepted, {} declined ({} offers back in stock)",
                 bestPlan.getOfferAcceptors().stream().mapToInt(offerAcceptor -> offerAcceptor.getJobs().size()).sum(),
                 declined, bestPlan.getToStock().size());
@@ -270,10 +265,11 @@ public class RetzScheduler implements Scheduler {
         }
     }
 
-    // @doc Re-schedule **all** running job when a Slave is lost. I know it's a kludge.
+    // @doc Re-schedule jobs running at a Slave when it is lost; see Recovery.slaveLost
     @Override
     public void slaveLost(SchedulerDriver driver, Protos.SlaveID slaveId) {
         LOG.warn("Slave lost: {}", slaveId.getValue());
+        MesosHTTPFetcher.invalidateAgent(slaveId.getValue());
         for (Map.Entry<String, List<Protos.SlaveID>> entry : slaves.entrySet()) {
             List<Protos.SlaveID> list = entry.getValue();
             for (Protos.SlaveID s : list) {
@@ -284,8 +280,8 @@ public class RetzScheduler implements Scheduler {
             slaves.put(entry.getKey(), list);
         }
 
-        // TODO: remove **ONLY** tasks that is running on the failed slave
-        Stanchion.schedule(() -> maybeRecoverRunning(driver));
+        // Only jobs launched at the lost slave are queued again
+        Stanchion.schedule(Stanchion.Lane.UPDATE, () -> Recovery.slaveLost(driver, slaveId.getValue()));
 
         // There is a potential race between offerRescinded/slaveLost and using offer stocks;
         // in case handleAll trying to schedule tasks, offers are removed from OFFER_STOCK
@@ -295,8 +291,8 @@ public class RetzScheduler implements Scheduler {
         //
         // Clean up stocked offers from lost slave, or kept long dead
         // TODO: add tests on github #153 bug, this is a quick patch
-        synchronized (OFFER_STOCK) {
-            Protos.Offer offer = OFFER_STOCK.remove(slaveId.getValue());
+        OFFER_WINDOW.remove(slaveId.getValue());
+        for (Protos.Offer offer : OFFER_STOCK.remove(slaveId.getValue())) {
             driver.declineOffer(offer.getId());
         }
         updateOfferStats();
@@ -307,141 +303,160 @@ public class RetzScheduler implements Scheduler {
         LOG.info("Status update of task {}: {} / {} ({})",
                 status.getTaskId().getValue(), status.getState().name(), status.getMessage(),
                 status.getReason());
-        Stanchion.schedule(() -> {
-            Optional<Job> job = JobQueue.getFromTaskId(status.getTaskId().getValue());
-            if (!job.isPresent()) {
+        Recovery.answered(status.getTaskId().getValue());
+        STATUS_UPDATES.add(status);
+    }
+
+    // Called in Stanchion with status updates in arrival order. All jobs are fetched
+    // in one query, changed on memory, and written back in one transaction.
+    void statusUpdates(List<Protos.TaskStatus> statuses) {
+        statusUpdates(statuses, Collections.emptyMap());
+    }
+
+    // Sandbox URLs take HTTP requests to Mesos master and agent, which must not block
+    // Stanchion; they are resolved in MesosHTTPClient and written back later. Updates that
+    // finish a job without URL are applied after that, with 'resolved' URL, so that clients
+    // waiting for the job can get its files at once.
+    private void statusUpdates(List<Protos.TaskStatus> statuses, Map<String, Optional<String>> resolved) {
+        Set<String> taskIds = statuses.stream()
+                .map(status -> status.getTaskId().getValue())
+                .collect(Collectors.toSet());
+        Map<String, Job> jobs = JobQueue.getFromTaskIds(taskIds);
+
+        Map<Integer, Job> updated = new LinkedHashMap<>();
+        for (Protos.TaskStatus status : statuses) {
+            Job job = jobs.get(status.getTaskId().getValue());
+            if (job == null) {
                 LOG.warn("Event {} ({}) for unknown job (taskid={})",
                         status.getState().getDescriptorForType().getName(),
                         status.getMessage(), status.getTaskId().getValue());
-                return;
+                continue;
             }
-
-            JobStatem.Action action = JobStatem.handleCall(job.get(), status.getState());
-            switch (action) {
-                case FINISHED:
-                    finished(status);
-                    break;
-
-                case FAILED:
-                    failed(status);
-                    break;
-
-                case RETRY:
-                    retry(status);
-                    break;
-
-                case NOOP:
-                    break;
-
-                case NEVER:
-                    LOG.error("This cannot happen: {} {} => {}",
-                            job.get().state(), status.getState().getNumber(), action);
-                    throw new AssertionError("May be a state diagram (JobStatem) bug");
-
-                case LOG:
-                    LOG.warn("This cannot happen: {} {} => {}",
-                            job.get().state(), status.getState().getNumber(), action);
-                    break;
-
-                case STARTED:
-                    started(status);
-                    break;
-
-                case STARTING:
-                    LOG.debug("Task {} starting", status.getTaskId().getValue());
-                    JobQueue.starting(job.get(), MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
-                            status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
-                            status.getExecutorId().getValue()), status.getTaskId().getValue());
-                    break;
-
-                case KILLED: // kill by user...
-                default:
-                    break;
+            String taskId = status.getTaskId().getValue();
+            JobStatem.Action action = JobStatem.handleCall(job, status.getState());
+            boolean needsUrl = action == JobStatem.Action.STARTING || action == JobStatem.Action.STARTED
+                    || action == JobStatem.Action.FINISHED || action == JobStatem.Action.FAILED;
+            // A job is STARTING from its launch until the first update of the run; a retried
+            // job still has the URL of the last run, which may be in another agent
+            boolean newRun = job.state() == Job.JobState.STARTING;
+            if (needsUrl && (job.url() == null || newRun) && !resolved.containsKey(taskId)) {
+                CompletableFuture<Optional<String>> url = resolveSandbox(status);
+                if (action == JobStatem.Action.FINISHED || action == JobStatem.Action.FAILED) {
+                    url.whenComplete((maybeUrl, e) -> Stanchion.schedule(Stanchion.Lane.UPDATE,
+                            () -> statusUpdates(Collections.singletonList(status),
+                                    Collections.singletonMap(taskId, e == null ? maybeUrl : Optional.empty()))));
+                    continue;
+                }
+                int id = job.id();
+                url.thenAccept(maybeUrl -> maybeUrl.ifPresent(value ->
+                        Stanchion.schedule(Stanchion.Lane.UPDATE, () -> JobQueue.setUrl(id, taskId, value))));
+            }
+            if (statusUpdate(job, status, action, resolved.getOrDefault(taskId, Optional.empty()))) {
+                updated.put(job.id(), job);
             }
-        });
-    }
-
-    // Maybe Retry
-    void retry(Protos.TaskStatus status) {
-        String reason = "";
-        if (status.hasMessage()) {
-            reason = status.getMessage();
         }
-        try {
-            JobQueue.retry(status.getTaskId().getValue(), reason);
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
+        if (!updated.isEmpty() && !JobQueue.updateAll(new ArrayList<>(updated.values()))) {
+            LOG.error("Failed to apply {} job state changes", updated.size());
         }
     }
 
-    void finished(Protos.TaskStatus status) {
-        Optional<String> maybeUrl = MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
-                status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
-                status.getExecutorId().getValue());
-
-        int ret = status.getState().getNumber() - Protos.TaskState.TASK_FINISHED_VALUE;
-        String finished = TimestampHelper.now();
-        try {
-            JobQueue.finished(status.getTaskId().getValue(), maybeUrl, ret, finished);
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
+    // Changes the job on memory; returns true if it needs to be written back
+    private boolean statusUpdate(Job job, Protos.TaskStatus status, JobStatem.Action action, Optional<String> url) {
+        switch (action) {
+            case FINISHED: {
+                int ret = status.getState().getNumber() - Protos.TaskState.TASK_FINISHED_VALUE;
+                JobQueue.finished(job, url, ret, TimestampHelper.now());
+                forgetSandbox(status);
+                return true;
+            }
+            case FAILED:
+                JobQueue.failed(job, url, status.getMessage());
+                forgetSandbox(status);
+                return true;
+
+            case RETRY:
+                // Maybe Retry
+                JobQueue.retry(job, status.hasMessage() ? status.getMessage() : "");
+                forgetSandbox(status);
+                return true;
+
+            case NOOP:
+                return false;
+
+            case NEVER:
+                LOG.error("This cannot happen: {} {} => {}",
+                        job.state(), status.getState().getNumber(), action);
+                throw new AssertionError("May be a state diagram (JobStatem) bug");
+
+            case LOG:
+                LOG.warn("This cannot happen: {} {} => {}",
+                        job.state(), status.getState().getNumber(), action);
+                return false;
+
+            case STARTED:
+                job.started(status.getTaskId().getValue(), url, TimestampHelper.now());
+                return true;
+
+            case STARTING:
+                LOG.debug("Task {} starting", status.getTaskId().getValue());
+                job.starting(status.getTaskId().getValue(), url, TimestampHelper.now());
+                return true;
+
+            case KILLED: // kill by user...
+            default:
+                return false;
         }
+    }
 
+    // One request at a time per task; fails when too many requests are waiting in MesosHTTPClient
+    private CompletableFuture<Optional<String>> resolveSandbox(Protos.TaskStatus status) {
+        String taskId = status.getTaskId().getValue();
+        CompletableFuture<Optional<String>> created = new CompletableFuture<>();
+        CompletableFuture<Optional<String>> running = RESOLVING.putIfAbsent(taskId, created);
+        if (running != null) {
+            return running;
+        }
+        MesosHTTPClient.submit(() -> sandboxBaseUri(status)).whenComplete((url, e) -> {
+            RESOLVING.remove(taskId);
+            if (e != null) {
+                LOG.warn("Cannot resolve sandbox of task {}: {}", taskId, e.toString());
+                created.completeExceptionally(e);
+            } else {
+                created.complete(url);
+            }
+        });
+        return created;
     }
 
-    void failed(Protos.TaskStatus status) {
-        Optional<String> maybeUrl = MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
+    private Optional<String> sandboxBaseUri(Protos.TaskStatus status) {
+        return MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
                 status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
                 status.getExecutorId().getValue());
-        try {
-            JobQueue.failed(status.getTaskId().getValue(), maybeUrl, status.getMessage());
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
-        }
     }
 
-    void started(Protos.TaskStatus status) {
-        Optional<String> maybeUrl = MesosHTTPFetcher.sandboxBaseUri(conf.getMesosMaster(),
-                status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
+    private void forgetSandbox(Protos.TaskStatus status) {
+        MesosHTTPFetcher.forgetSandbox(status.getSlaveId().getValue(), frameworkInfo.getId().getValue(),
                 status.getExecutorId().getValue());
-        try {
-            JobQueue.started(status.getTaskId().getValue(), maybeUrl);
-        } catch (SQLException e) {
-            LOG.error(e.toString(), e);
-        } catch (JobNotFoundException e) {
-            LOG.warn(e.toString(), e);
-            // TODO: re-insert the failed job again?
-        } catch (IOException e) {
-            LOG.error(e.toString(), e);
+    }
+
+    // Same address as in pid of the agent, e.g. slave(1)@10.0.0.1:5051
+    private static void learnAgent(Protos.Offer offer) {
+        if (offer.hasUrl()) {
+            Protos.Address address = offer.getUrl().getAddress();
+            String host = address.hasIp() ? address.getIp() : address.getHostname();
+            MesosHTTPFetcher.learnAgent(offer.getSlaveId().getValue(), host + ":" + address.getPort());
         }
     }
 
     private void updateOfferStats() {
-        ResourceQuantity total = new ResourceQuantity();
-        for (Map.Entry<String, Protos.Offer> e : OFFER_STOCK.entrySet()) {
-            Resource r = ResourceConstructor.decode(e.getValue().getResourcesList());
-            total.add(r.toQuantity());
-        }
-        total.setNodes(OFFER_STOCK.size());
-        StatusCache.setOfferStats(OFFER_STOCK.size(), total);
+        StatusCache.setOfferStats(OFFER_STOCK.size(), OFFER_STOCK.total());
     }
 
     // Get all running jobs and sync its latest state in Mesos
-    // If it's not lost, just update state. Otherwise, set its state as QUEUED back.
-    // This call must be offloaded from scheduler callback thread if schedule is active;
-    // while if it's not active, it must block all other operations.
+    // Mesos answers with status updates, which change the jobs as usual; jobs not
+    // answered in time are set QUEUED back (see Recovery).
     private void maybeRecoverRunning(SchedulerDriver driver) {
-        List<Job> jobs = Database.getInstance().getRunning();
-        Database.getInstance().retryJobs(jobs.stream().map(job -> job.id()).collect(Collectors.toList()));
+        Recovery.reconcile(driver);
     }
 
     public boolean validateJob(Job job) {
@@ -17,6 +17,8 @@
 package io.github.retz.scheduler;
 
 import io.github.retz.cli.FileConfiguration;
+import io.github.retz.mesosc.MesosHTTPClient;
+import io.github.retz.mesosc.MesosHTTPFetcher;
 import io.github.retz.protocol.data.ResourceQuantity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -83,7 +85,7 @@ public class ServerConfiguration extends FileConfiguration {
 
     private final String PLANNER_NAME = "retz.planner.name";
     private final String DEFAULT_PLANNER_NAME = "naive";
-    private final String[] PLANNER_NAMES = {"naive", "priority", "fifo", "priority2"};
+    private final String[] PLANNER_NAMES = {"naive", "priority", "fifo", "priority2", "bestfit"};
 
     private final String ADDITIONAL_CLASSPATH = "retz.classpath";
     private final String DEFAULT_ADDITIONAL_CLASSPATH = "/opt/retz-server/lib";
@@ -100,6 +102,54 @@ public class ServerConfiguration extends FileConfiguration {
     private final int DEFAULT_GC_LEEWAY = 7 * 86400; // a week in seconds
     private final String GC_INTERVAL = "retz.gc.interval";
     private final int DEFAULT_GC_INTERVAL = 600; // 10 minutes in seconds
+    // Old jobs are deleted in chunks of this many jobs, each in a transaction,
+    // up to 'retz.gc.rate' jobs per second, and written to files in 'retz.gc.archive'
+    // directory before deletion if set
+    private final String GC_CHUNK_SIZE = "retz.gc.chunk-size";
+    private final String GC_RATE = "retz.gc.rate";
+    private final String GC_ARCHIVE = "retz.gc.archive";
+
+    // Status updates from Mesos are applied to database in batches; a batch
+    // is flushed when it reaches its size, or after batch-ms since its first update
+    private final String STATUS_BATCH_SIZE = "retz.status.batch-size";
+    private final int DEFAULT_STATUS_BATCH_SIZE = 256;
+    private final String STATUS_BATCH_MS = "retz.status.batch-ms";
+    private final int DEFAULT_STATUS_BATCH_MS = 10;
+
+    // Offers from Mesos arriving within this window are planned at once
+    private final String PLANNER_BATCH_MS = "retz.planner.batch-ms";
+    private final int DEFAULT_PLANNER_BATCH_MS = 0;
+
+    // Users are cached for authentication; changes via AdminConsole are applied at once
+    private final String USER_CACHE_SIZE = "retz.auth.cache.size";
+    private final int DEFAULT_USER_CACHE_SIZE = 1024;
+    private final String USER_CACHE_TTL = "retz.auth.cache.ttl";
+    private final int DEFAULT_USER_CACHE_TTL = 60; // seconds
+
+    // Max number of tasks from HTTP requests queued in each lane of Stanchion
+    private final String LANE_CAPACITY = "retz.scheduler.lane-capacity";
+    private final int DEFAULT_LANE_CAPACITY = Stanchion.DEFAULT_CAPACITY;
+
+    // HTTP requests to Mesos master and agents, e.g. to find sandbox of tasks
+    private final String MESOS_HTTP_CONNECT_TIMEOUT = "retz.mesos.http.connect-timeout";
+    private final int DEFAULT_MESOS_HTTP_CONNECT_TIMEOUT = MesosHTTPClient.DEFAULT_CONNECT_TIMEOUT_MS;
+    private final String MESOS_HTTP_READ_TIMEOUT = "retz.mesos.http.read-timeout";
+    private final int DEFAULT_MESOS_HTTP_READ_TIMEOUT = MesosHTTPClient.DEFAULT_READ_TIMEOUT_MS;
+    private final String MESOS_HTTP_PARALLELISM = "retz.mesos.http.parallelism";
+    private final int DEFAULT_MESOS_HTTP_PARALLELISM = MesosHTTPClient.DEFAULT_PARALLELISM;
+    // Addresses of agents and sandbox directories of tasks, to find sandbox of tasks
+    private final String MESOS_CACHE_SIZE = "retz.mesos.cache.size";
+    private final int DEFAULT_MESOS_CACHE_SIZE = MesosHTTPFetcher.DEFAULT_CACHE_SIZE;
+    private final String MESOS_CACHE_TTL = "retz.mesos.cache.ttl";
+    private final int DEFAULT_MESOS_CACHE_TTL = MesosHTTPFetcher.DEFAULT_CACHE_TTL_SEC;
+    // Offers kept in stock longer than this are declined, to be offered again
+    private final String MAX_STOCK_AGE = "retz.max.stock.age";
+    private final int DEFAULT_MAX_STOCK_AGE = 120;
+    // Online schema migrations, like index builds, are deferred at startup if false,
+    // to be applied with 'retz-admin migrate' while the server runs
+    private final String DATABASE_MIGRATE_ONLINE = "retz.database.migrate.online";
+    // Finished jobs are moved to monthly partitions, only on PostgreSQL
+    private final String DATABASE_PARTITION = "retz.database.partition";
 
 
     public ServerConfiguration(InputStream in) throws IOException, URISyntaxException {
@@ -144,7 +194,7 @@ public class ServerConfiguration extends FileConfiguration {
             throw new IllegalArgumentException(MESOS_REFUSE_SECONDS + " must be positive integer");
         }
 
-        LOG.info("Mesos master={}, principal={}, role={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}",
+        LOG.info("Mesos master={}, principal={}, role={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}, {}={}",
                 getMesosMaster(), getPrincipal(), getRole(), MAX_SIMULTANEOUS_JOBS, maxSimultaneousJobs,
                 DATABASE_URL, databaseURL,
                 MAX_STOCK_SIZE, getMaxStockSize(),
@@ -153,7 +203,24 @@ public class ServerConfiguration extends FileConfiguration {
                 GC_LEEWAY, getGcLeeway(),
                 GC_INTERVAL, getGcInterval(),
                 MAX_LIST_JOB_SIZE, getMaxJobSize(),
-                MAX_FILE_SIZE, getMaxFileSize());
+                MAX_FILE_SIZE, getMaxFileSize(),
+                STATUS_BATCH_SIZE, getStatusBatchSize(),
+                STATUS_BATCH_MS, getStatusBatchMs(),
+                PLANNER_BATCH_MS, getPlannerBatchMs(),
+                USER_CACHE_SIZE, getUserCacheSize(),
+                USER_CACHE_TTL, getUserCacheTtl(),
+                LANE_CAPACITY, getLaneCapacity(),
+                MESOS_HTTP_CONNECT_TIMEOUT, getMesosHTTPConnectTimeout(),
+                MESOS_HTTP_READ_TIMEOUT, getMesosHTTPReadTimeout(),
+                MESOS_HTTP_PARALLELISM, getMesosHTTPParallelism(),
+                MESOS_CACHE_SIZE, getMesosCacheSize(),
+                MESOS_CACHE_TTL, getMesosCacheTtl(),
+                MAX_STOCK_AGE, getMaxStockAge(),
+                DATABASE_MIGRATE_ONLINE, getMigrateOnline(),
+                GC_CHUNK_SIZE, getGcChunkSize(),
+                GC_RATE, getGcRate(),
+                GC_ARCHIVE, getGcArchive().orElse(""),
+                DATABASE_PARTITION, getPartition());
     }
 
     public ServerConfiguration(String file) throws IOException, URISyntaxException {
@@ -210,6 +277,19 @@ public class ServerConfiguration extends FileConfiguration {
         return Integer.parseInt(properties.getProperty(MAX_STOCK_SIZE, DEFAULT_MAX_STOCK_SIZE));
     }
 
+    // in seconds; 0 for no expiry
+    public int getMaxStockAge() {
+        return getLowerboundedIntProperty(MAX_STOCK_AGE, DEFAULT_MAX_STOCK_AGE, 0);
+    }
+
+    public boolean getMigrateOnline() {
+        return getBoolProperty(DATABASE_MIGRATE_ONLINE, true);
+    }
+
+    public boolean getPartition() {
+        return getBoolProperty(DATABASE_PARTITION, false);
+    }
+
     public String getDatabaseURL() {
         return databaseURL;
     }
@@ -256,6 +336,68 @@ public class ServerConfiguration extends FileConfiguration {
         return getLowerboundedIntProperty(GC_INTERVAL, DEFAULT_GC_INTERVAL, 1);
     }
 
+    public int getGcChunkSize() {
+        return getLowerboundedIntProperty(GC_CHUNK_SIZE, GarbageJobCollector.DEFAULT_CHUNK_SIZE, 1);
+    }
+
+    // jobs per second; 0 for no limit
+    public int getGcRate() {
+        return getLowerboundedIntProperty(GC_RATE, GarbageJobCollector.DEFAULT_RATE, 0);
+    }
+
+    public Optional<String> getGcArchive() {
+        return Optional.ofNullable(properties.getProperty(GC_ARCHIVE)).filter(dir -> !dir.isEmpty());
+    }
+
+    public int getStatusBatchSize() {
+        return getLowerboundedIntProperty(STATUS_BATCH_SIZE, DEFAULT_STATUS_BATCH_SIZE, 1);
+    }
+
+    public int getStatusBatchMs() {
+        return getLowerboundedIntProperty(STATUS_BATCH_MS, DEFAULT_STATUS_BATCH_MS, 0);
+    }
+
+    public int getPlannerBatchMs() {
+        return getLowerboundedIntProperty(PLANNER_BATCH_MS, DEFAULT_PLANNER_BATCH_MS, 0);
+    }
+
+    public int getUserCacheSize() {
+        return getLowerboundedIntProperty(USER_CACHE_SIZE, DEFAULT_USER_CACHE_SIZE, 1);
+    }
+
+    // 0 to disable
+    public int getUserCacheTtl() {
+        return getLowerboundedIntProperty(USER_CACHE_TTL, DEFAULT_USER_CACHE_TTL, 0);
+    }
+
+    public int getLaneCapacity() {
+        return getLowerboundedIntProperty(LANE_CAPACITY, DEFAULT_LANE_CAPACITY, 1);
+    }
+
+    // in milliseconds; 0 for no timeout
+    public int getMesosHTTPConnectTimeout() {
+        return getLowerboundedIntProperty(MESOS_HTTP_CONNECT_TIMEOUT, DEFAULT_MESOS_HTTP_CONNECT_TIMEOUT, 0);
+    }
+
+    // in milliseconds; 0 for no timeout
+    public int getMesosHTTPReadTimeout() {
+        return getLowerboundedIntProperty(MESOS_HTTP_READ_TIMEOUT, DEFAULT_MESOS_HTTP_READ_TIMEOUT, 0);
+    }
+
+    public int getMesosHTTPParallelism() {
+        return getLowerboundedIntProperty(MESOS_HTTP_PARALLELISM, DEFAULT_MESOS_HTTP_PARALLELISM, 1);
+    }
+
+    // 0 to disable
+    public int getMesosCacheSize() {
+        return getLowerboundedIntProperty(MESOS_CACHE_SIZE, DEFAULT_MESOS_CACHE_SIZE, 0);
+    }
+
+    // in seconds; 0 for no expiry
+    public int getMesosCacheTtl() {
+        return getLowerboundedIntProperty(MESOS_CACHE_TTL, DEFAULT_MESOS_CACHE_TTL, 0);
+    }
+
     public int getMaxListJobSize() {
         return Integer.parseInt(properties.getProperty(MAX_LIST_JOB_SIZE, DEFAULT_MAX_LIST_JOB_SIZE));
     }
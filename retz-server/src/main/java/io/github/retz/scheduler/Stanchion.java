@@ -19,33 +19,91 @@ package io.github.retz.scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-// An executor that serializes all request processing here
+// An executor that serializes all request processing here. Tasks never run
+// concurrently, so that planning, kills and status updates can read and write
+// job states in separate transactions. Tasks in a higher priority lane are taken
+// before any queued task of lower lanes, but never preempt the running one.
+//
+// Tasks from HTTP requests are bounded by capacity per lane and rejected when
+// the lane is full. Tasks from OfferWindow and StatusUpdateBatcher are always
+// accepted, as those coalesce to a few pending tasks per lane by themselves.
 public class Stanchion {
-    private static final Logger LOG = LoggerFactory.getLogger(RetzScheduler.class);
+    private static final Logger LOG = LoggerFactory.getLogger(Stanchion.class);
 
-    static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    // In order of priority
+    public enum Lane {
+        // Kills and status updates from Mesos
+        UPDATE,
+        // Offer planning and job invocation from offer stock
+        PLANNING
+    }
+
+    static final int DEFAULT_CAPACITY = 1024;
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong(0);
+    private static final Map<Lane, Counters> COUNTERS = new EnumMap<>(Lane.class);
+
+    static {
+        for (Lane lane : Lane.values()) {
+            COUNTERS.put(lane, new Counters());
+        }
+    }
+
+    // Only instances of Task are queued, which are ordered by lane and then by arrival
+    static final ExecutorService EXECUTOR = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>());
+
+    private Stanchion() {
+    }
+
+    static void setCapacity(int capacity) {
+        Stanchion.capacity = capacity;
+        LOG.info("Stanchion accepts up to {} tasks from requests per lane", capacity);
+    }
 
     static void schedule(Runnable runnable) {
-        EXECUTOR.submit( () -> {
+        schedule(Lane.PLANNING, runnable);
+    }
+
+    static void schedule(Lane lane, Runnable runnable) {
+        COUNTERS.get(lane).depth.incrementAndGet();
+        submit(lane, runnable);
+    }
+
+    // Returns false when the lane is full
+    static boolean trySchedule(Lane lane, Runnable runnable) {
+        Counters counters = COUNTERS.get(lane);
+        if (counters.depth.incrementAndGet() > capacity) {
+            counters.depth.decrementAndGet();
+            counters.rejected.incrementAndGet();
+            return false;
+        }
+        submit(lane, runnable);
+        return true;
+    }
+
+    // Runs in UPDATE lane and waits for the result; throws RejectedExecutionException when the lane is full
+    public static <R> Optional<R> call(Callable<R> callable) {
+        FutureTask<Optional<R>> future = new FutureTask<>(() -> {
             try {
-                runnable.run();
+                return Optional.of(callable.call());
             } catch (Exception e) {
-                LOG.error("Exception in Stanchion: {}", e.toString(), e);
+                LOG.debug(e.toString(), e);
+                return Optional.empty();
             }
         });
-    }
-
-    public static <R> Optional<R> call(Callable<R> callable) {
-        Future<Optional<R>> future = EXECUTOR.submit( () -> {
-        try {
-            return Optional.of(callable.call());
-        } catch (Exception e) {
-            LOG.debug(e.toString(), e);
-            return Optional.empty();
-        }});
+        if (!trySchedule(Lane.UPDATE, future)) {
+            throw new RejectedExecutionException("Too many tasks in Stanchion: " + capacity);
+        }
         try {
             return future.get();
         } catch (ExecutionException e) {
@@ -56,4 +114,73 @@ public class Stanchion {
         return Optional.empty();
     }
 
+    private static void submit(Lane lane, Runnable runnable) {
+        COUNTERS.get(lane).submitted.incrementAndGet();
+        EXECUTOR.execute(new Task(lane, runnable));
+    }
+
+    static int depth(Lane lane) {
+        return COUNTERS.get(lane).depth.get();
+    }
+
+    static long rejected(Lane lane) {
+        return COUNTERS.get(lane).rejected.get();
+    }
+
+    static Histogram waitMicros(Lane lane) {
+        return COUNTERS.get(lane).waitMicros;
+    }
+
+    // Queue depth, counts and wait time in microseconds of each lane, like "planning.wait-us.max"
+    static Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for (Lane lane : Lane.values()) {
+            Counters counters = COUNTERS.get(lane);
+            String prefix = lane.toString().toLowerCase() + ".";
+            stats.put(prefix + "depth", (long) counters.depth.get());
+            stats.put(prefix + "submitted", counters.submitted.get());
+            stats.put(prefix + "rejected", counters.rejected.get());
+            counters.waitMicros.toMap().forEach((key, value) -> stats.put(prefix + "wait-us." + key, value));
+        }
+        return stats;
+    }
+
+    private static final class Counters {
+        private final AtomicInteger depth = new AtomicInteger(0);
+        private final AtomicLong submitted = new AtomicLong(0);
+        private final AtomicLong rejected = new AtomicLong(0);
+        private final Histogram waitMicros = new Histogram();
+    }
+
+    private static final class Task implements Runnable, Comparable<Task> {
+        private final Lane lane;
+        private final long sequence;
+        private final long enqueued;
+        private final Runnable runnable;
+
+        Task(Lane lane, Runnable runnable) {
+            this.lane = lane;
+            this.sequence = SEQUENCE.getAndIncrement();
+            this.enqueued = System.nanoTime();
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            Counters counters = COUNTERS.get(lane);
+            counters.depth.decrementAndGet();
+            counters.waitMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - enqueued));
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                LOG.error("Exception in Stanchion: {}", e.toString(), e);
+            }
+        }
+
+        @Override
+        public int compareTo(Task rhs) {
+            int c = lane.compareTo(rhs.lane);
+            return c != 0 ? c : Long.compare(sequence, rhs.sequence);
+        }
+    }
 }
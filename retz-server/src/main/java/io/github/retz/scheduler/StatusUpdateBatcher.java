@@ -0,0 +1,126 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.apache.mesos.Protos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Collects status updates from Mesos and hands them to Stanchion in batches.
+// Updates that arrive while Stanchion is busy are drained together; a batch
+// is drained when it reaches maxBatchSize, or batchMs after its first update.
+class StatusUpdateBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(StatusUpdateBatcher.class);
+
+    // Metrics, exposed via AdminConsole
+    private static final AtomicLong BATCHES = new AtomicLong(0);
+    private static final AtomicLong UPDATES = new AtomicLong(0);
+    private static final AtomicInteger MAX_BATCH = new AtomicInteger(0);
+    private static final AtomicInteger LAST_BATCH = new AtomicInteger(0);
+
+    private final int maxBatchSize;
+    private final int batchMs;
+    private final Consumer<List<Protos.TaskStatus>> handler;
+
+    private final ConcurrentLinkedQueue<Protos.TaskStatus> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService timer;
+
+    StatusUpdateBatcher(int maxBatchSize, int batchMs, Consumer<List<Protos.TaskStatus>> handler) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchMs = batchMs;
+        this.handler = handler;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread t = new Thread(runnable, "status-update-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+        LOG.info("Status updates are applied in batches up to {} updates / {}ms", maxBatchSize, batchMs);
+    }
+
+    void add(Protos.TaskStatus status) {
+        pending.add(status);
+        int n = size.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            if (batchMs > 0) {
+                timer.schedule(() -> Stanchion.schedule(Stanchion.Lane.UPDATE, this::drain), batchMs, TimeUnit.MILLISECONDS);
+            } else {
+                Stanchion.schedule(Stanchion.Lane.UPDATE, this::drain);
+            }
+        } else if (n == maxBatchSize) {
+            // Don't wait for the timer; an extra drain with empty queue is harmless
+            Stanchion.schedule(Stanchion.Lane.UPDATE, this::drain);
+        }
+    }
+
+    // Runs in Stanchion
+    private void drain() {
+        scheduled.set(false);
+        List<Protos.TaskStatus> batch = new ArrayList<>();
+        Protos.TaskStatus status;
+        while (batch.size() < maxBatchSize && (status = pending.poll()) != null) {
+            batch.add(status);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        size.addAndGet(-batch.size());
+
+        BATCHES.incrementAndGet();
+        UPDATES.addAndGet(batch.size());
+        LAST_BATCH.set(batch.size());
+        MAX_BATCH.accumulateAndGet(batch.size(), Math::max);
+        LOG.debug("Applying {} status updates ({} left)", batch.size(), size.get());
+
+        try {
+            handler.accept(batch);
+        } finally {
+            // Those already waited long enough
+            if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+                Stanchion.schedule(Stanchion.Lane.UPDATE, this::drain);
+            }
+        }
+    }
+
+    static long batches() {
+        return BATCHES.get();
+    }
+
+    static long updates() {
+        return UPDATES.get();
+    }
+
+    static int maxBatchSize() {
+        return MAX_BATCH.get();
+    }
+
+    static int lastBatchSize() {
+        return LAST_BATCH.get();
+    }
+}
@@ -16,6 +16,7 @@
  */
 package io.github.retz.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -35,6 +36,7 @@ import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.exception.DownloadFileSizeExceeded;
 import io.github.retz.scheduler.*;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.slf4j.Logger;
@@ -44,13 +46,21 @@ import spark.Request;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static io.github.retz.web.WebConsole.validateOwner;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static spark.Spark.halt;
 
 public class JobRequestHandler {
@@ -61,6 +71,17 @@ public class JobRequestHandler {
     private static Optional<SchedulerDriver> driver = Optional.empty();
     private static int MAX_LIST_JOB_SIZE = Integer.MAX_VALUE;
 
+    // Length of each files/read request to agents in streamFile
+    static final int STREAM_CHUNK_BYTES = 1024 * 1024;
+    // How long streamFile follows a file, and how often it reads the file again while it doesn't grow
+    static final int STREAM_FOLLOW_MSEC = 30000;
+    static final int STREAM_FOLLOW_INTERVAL_MSEC = 1000;
+    // Each follower holds a thread of web server; kept below JobEvents.MAX_WAITERS so that
+    // followers leave waiters for other requests
+    static final int MAX_FOLLOWERS = 64;
+    private static final AtomicInteger FOLLOWING = new AtomicInteger(0);
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
     static {
         MAPPER.registerModule(new Jdk8Module());
     }
@@ -81,23 +102,34 @@ public class JobRequestHandler {
     static String listJob(spark.Request req, spark.Response res) throws IOException {
         Optional<AuthHeader> authHeaderValue = WebConsole.getAuthInfo(req);
         LOG.debug("list jobs owned by {}", authHeaderValue.get().key());
-        ListJobRequest listJobRequest = MAPPER.readValue(req.body(), ListJobRequest.class);
-        LOG.debug("q: state={}, tag={}",
-                listJobRequest.state(), listJobRequest.tag());
+        ListJobRequest listJobRequest = MAPPER.readValue(req.bodyAsBytes(), ListJobRequest.class);
+        LOG.debug("q: state={}, tag={}, after={}, limit={}",
+                listJobRequest.state(), listJobRequest.tag(), listJobRequest.after(), listJobRequest.limit());
         String user = Objects.requireNonNull(authHeaderValue.get().key());
+        int limit = Math.min(MAX_LIST_JOB_SIZE, ListJobResponse.MAX_JOB_NUMBER);
+        if (listJobRequest.limit().isPresent()) {
+            limit = Math.max(1, Math.min(limit, listJobRequest.limit().get()));
+        }
         try {
-            List<Job> jobs = JobQueue.list(user, listJobRequest.state(), listJobRequest.tag(), MAX_LIST_JOB_SIZE);
+            // One more job to know whether there is next page
+            List<Job> jobs = JobQueue.list(user, listJobRequest.state(), listJobRequest.tag(),
+                    listJobRequest.after(), limit + 1);
 
             boolean more = false;
-            if (jobs.size() > ListJobResponse.MAX_JOB_NUMBER) {
+            if (jobs.size() > limit) {
                 more = true;
-                jobs = jobs.subList(0, ListJobResponse.MAX_JOB_NUMBER);
+                jobs = jobs.subList(0, limit);
             }
             ListJobResponse listJobResponse = new ListJobResponse(jobs, more);
             listJobResponse.ok();
             res.status(200);
             res.type("application/json");
-            return MAPPER.writeValueAsString(listJobResponse);
+            // Write directly to the client instead of building whole response as a String
+            try (JsonGenerator generator = MAPPER.getFactory().createGenerator(res.raw().getOutputStream())) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                MAPPER.writeValue(generator, listJobResponse);
+            }
+            return "";
         } catch (SQLException e) {
             LOG.error(e.toString(), e);
             res.status(500);
@@ -136,6 +168,31 @@ public class JobRequestHandler {
         return MAPPER.writeValueAsString(response);
     }
 
+    // Long polling of job state; see WaitJobRequest
+    static String waitJob(spark.Request req, spark.Response res) throws IOException {
+        Optional<Job> maybeJob = getJobAndVerify(req);
+
+        res.type("application/json");
+        if (maybeJob.isPresent()) {
+            Job.JobState state;
+            int timeout;
+            try {
+                state = Job.JobState.valueOf(req.queryParams("state"));
+                timeout = Integer.parseInt(req.queryParams("timeout"));
+            } catch (IllegalArgumentException | NullPointerException e) {
+                res.status(400);
+                return MAPPER.writeValueAsString(new ErrorResponse("Invalid state or timeout: " + e.toString()));
+            }
+            int id = maybeJob.get().id();
+            maybeJob = JobEvents.await(id, state, timeout, () -> JobQueue.getJob(id));
+        }
+
+        Response response = new GetJobResponse(maybeJob);
+        response.status("ok");
+        res.status(200);
+        return MAPPER.writeValueAsString(response);
+    }
+
     static String getFile(spark.Request req, spark.Response res) throws IOException {
         Optional<Job> job = getJobAndVerify(req);
 
@@ -201,6 +258,171 @@ public class JobRequestHandler {
         }
     }
 
+    // Streams raw bytes of a file in sandbox; see StreamFileRequest. The range is given by
+    // 'offset' and 'length', or by a Range header of single byte range. A Range gets 206; its
+    // Content-Range has the end only if the whole range is read before the headers go out,
+    // otherwise like 'bytes N-*/*' as the response is sent in chunked transfer encoding.
+    static String streamFile(spark.Request req, spark.Response res) throws IOException {
+        Optional<Job> job = getJobAndVerify(req);
+        String file = req.queryParams("path");
+        long offset;
+        long length;
+        boolean follow = Boolean.parseBoolean(req.queryParams("follow"));
+        boolean ranged = false;
+        try {
+            offset = req.queryParams("offset") == null ? 0 : Long.parseLong(req.queryParams("offset"));
+            length = req.queryParams("length") == null ? -1 : Long.parseLong(req.queryParams("length"));
+            if (req.headers("Range") != null) {
+                Matcher m = RANGE.matcher(req.headers("Range"));
+                if (!m.matches()) {
+                    res.status(416);
+                    return "";
+                }
+                offset = Long.parseLong(m.group(1));
+                length = m.group(2).isEmpty() ? -1 : Long.parseLong(m.group(2)) - offset + 1;
+                if (length == 0 || length < -1) {
+                    res.status(416);
+                    return "";
+                }
+                ranged = true;
+            }
+        } catch (NumberFormatException e) {
+            res.status(400);
+            return MAPPER.writeValueAsString(new ErrorResponse("Invalid offset or length: " + e.toString()));
+        }
+        LOG.debug("stream: path={}, offset={}, length={}, follow={}", file, offset, length, follow);
+
+        // If url() is null, the job hasn't yet been started at Mesos
+        if (!job.isPresent() || job.get().url() == null
+                || (!follow && !MesosHTTPFetcher.statHTTPFile(job.get().url(), file))) {
+            res.status(404);
+            return "";
+        }
+
+        if (!follow) {
+            return sendFile(job.get(), file, offset, length, false, ranged, res);
+        }
+        if (FOLLOWING.incrementAndGet() > MAX_FOLLOWERS) {
+            FOLLOWING.decrementAndGet();
+            LOG.debug("Too many followers: rejecting stream of job id={}", job.get().id());
+            res.status(503);
+            res.type("application/json");
+            return MAPPER.writeValueAsString(new ErrorResponse("Too many requests following files; retry later"));
+        }
+        try {
+            return sendFile(job.get(), file, offset, length, true, ranged, res);
+        } finally {
+            FOLLOWING.decrementAndGet();
+        }
+    }
+
+    // Mesos files/read escapes each byte out of printable ASCII in "data" as a character of U+0000
+    // to U+00FF, so characters map 1:1 to bytes of the file in ISO-8859-1, and offsets advance by
+    // the bytes written so
+    private static String sendFile(Job job, String file, long offset, long length, boolean follow, boolean ranged,
+                                   spark.Response res) throws IOException {
+        int id = job.id();
+        String url = job.url();
+        Job.JobState state = job.state();
+        boolean last = !follow || state == Job.JobState.FINISHED || state == Job.JobState.KILLED;
+        long deadline = System.currentTimeMillis() + STREAM_FOLLOW_MSEC;
+
+        // The first chunk is read before the headers, to tell whether the range is satisfiable
+        StringWriter buffer = new StringWriter();
+        try {
+            MesosHTTPFetcher.readHTTPFile(url, file, offset, chunk(length), buffer);
+        } catch (FileNotFoundException e) {
+            if (last) {
+                res.status(404);
+                return "";
+            }
+            // Not yet created by the task
+        }
+        byte[] first = buffer.toString().getBytes(ISO_8859_1);
+        if (ranged && first.length == 0 && last) {
+            // Offset is at or beyond the end of the file
+            res.status(416);
+            return "";
+        }
+        res.type("application/octet-stream");
+        if (!ranged) {
+            res.status(200);
+        } else if (!follow && length > 0 && length <= STREAM_CHUNK_BYTES) {
+            res.status(206);
+            res.header("Content-Range", "bytes " + offset + "-" + (offset + first.length - 1) + "/*");
+            res.raw().getOutputStream().write(first);
+            return "";
+        } else {
+            res.status(206);
+            res.header("Content-Range", "bytes " + offset + "-*/*");
+        }
+
+        // No Content-Length; the response goes out in chunked transfer encoding as flushed
+        CountingOutputStream counter = new CountingOutputStream(res.raw().getOutputStream());
+        Writer out = new OutputStreamWriter(counter, ISO_8859_1);
+        try {
+            counter.write(first);
+            counter.flush();
+            long read = first.length;
+            while (true) {
+                offset += read;
+                if (length > 0) {
+                    length -= read;
+                }
+
+                if (length == 0 || (read == 0 && last)) {
+                    break;
+                } else if (!last && System.currentTimeMillis() > deadline) {
+                    break;
+                } else if (read == 0) {
+                    Optional<Job.JobState> next = awaitFollow(id, state);
+                    if (!next.isPresent()) {
+                        // No waiter available; the client requests again from here
+                        break;
+                    }
+                    // Read once more after the job finished, as the file may grow until then
+                    state = next.get();
+                    last = state == Job.JobState.FINISHED || state == Job.JobState.KILLED;
+                }
+
+                long before = counter.getByteCount();
+                try {
+                    MesosHTTPFetcher.readHTTPFile(url, file, offset, chunk(length), out);
+                } catch (FileNotFoundException e) {
+                    if (last) {
+                        break;
+                    }
+                    // Not yet created by the task
+                }
+                out.flush();
+                read = counter.getByteCount() - before;
+            }
+        } catch (IOException e) {
+            // Client went away, or agent failed in the middle; client can resume from where it got
+            LOG.debug("Streaming {} of job id={} ended at offset={}: {}", file, id, offset, e.toString());
+        }
+        return "";
+    }
+
+    private static long chunk(long length) {
+        return length < 0 ? STREAM_CHUNK_BYTES : Math.min(length, STREAM_CHUNK_BYTES);
+    }
+
+    // Returns the state after waiting for the file to grow, or empty if JobEvents has returned at once
+    // with the same state, i.e. there are too many waiters to keep following without busy reads
+    private static Optional<Job.JobState> awaitFollow(int id, Job.JobState state) {
+        long start = System.currentTimeMillis();
+        Optional<Job> current = JobEvents.await(id, state, STREAM_FOLLOW_INTERVAL_MSEC, () -> JobQueue.getJob(id));
+        if (!current.isPresent()) {
+            return Optional.of(Job.JobState.KILLED);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        if (current.get().state() == state && elapsed < STREAM_FOLLOW_INTERVAL_MSEC / 2) {
+            return Optional.empty();
+        }
+        return Optional.of(current.get().state());
+    }
+
     static String getDir(spark.Request req, spark.Response res) throws JsonProcessingException {
         Optional<Job> job;
         try {
@@ -263,24 +485,32 @@ public class JobRequestHandler {
             return MAPPER.writeValueAsString(response);
         }
 
-        Optional<Boolean> result = Stanchion.call(() -> {
-            Optional<Job> maybeJob2 = JobQueue.cancel(id, "Canceled by user");
-
-            if (maybeJob2.isPresent()) {
-                Job job = maybeJob2.get();
-                // There's a slight pitfall between cancel above and kill below where
-                // no kill may be sent, RetzScheduler is exactly in resourceOffers and being scheduled.
-                // Then this protocol returns false for sure.
-                if (job.taskId() != null && !job.taskId().isEmpty() && driver.isPresent()) {
-                    Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue(job.taskId()).build();
-                    Protos.Status status = driver.get().killTask(taskId);
-                    LOG.info("Job id={} was running and killed. status={}, taskId={}", job.id(), status, job.taskId());
+        Optional<Boolean> result;
+        try {
+            result = Stanchion.call(() -> {
+                Optional<Job> maybeJob2 = JobQueue.cancel(id, "Canceled by user");
+
+                if (maybeJob2.isPresent()) {
+                    Job job = maybeJob2.get();
+                    // There's a slight pitfall between cancel above and kill below where
+                    // no kill may be sent, RetzScheduler is exactly in resourceOffers and being scheduled.
+                    // Then this protocol returns false for sure.
+                    if (job.taskId() != null && !job.taskId().isEmpty() && driver.isPresent()) {
+                        Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue(job.taskId()).build();
+                        Protos.Status status = driver.get().killTask(taskId);
+                        LOG.info("Job id={} was running and killed. status={}, taskId={}", job.id(), status, job.taskId());
+                    }
+                    return job.state() == Job.JobState.KILLED;
                 }
-                return job.state() == Job.JobState.KILLED;
-            }
-            // Job is already finished or killed, no more running nor runnable, or something is wrong
-            return false;
-        });
+                // Job is already finished or killed, no more running nor runnable, or something is wrong
+                return false;
+            });
+        } catch (RejectedExecutionException e) {
+            // Backpressure; the job may be killed by retrying later
+            LOG.warn("Can't kill job id={}: {}", id, e.toString());
+            res.status(503);
+            return MAPPER.writeValueAsString(new ErrorResponse("Server is busy: try again later"));
+        }
 
         Response response;
         if (result.isPresent() && result.get()) {
@@ -23,25 +23,40 @@ import io.github.retz.db.Database;
 import io.github.retz.protocol.StatusResponse;
 import io.github.retz.protocol.data.Job;
 import io.github.retz.protocol.data.ResourceQuantity;
+import io.github.retz.scheduler.JobQueue;
 import io.github.retz.scheduler.RetzScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Created by kuenishi on 16/12/19.
+ *
+ * Numbers in /status are kept up to date with job state changes applied in JobQueue,
+ * and the response is serialized again only when they have changed. Running jobs are
+ * loaded from database once in RECONCILE_ROUNDS rounds, to correct drift by updates
+ * out of JobQueue, e.g. recovery at startup.
  */
 public class StatusCache implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(StatusCache.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final int RECONCILE_ROUNDS = 60;
 
     private static boolean on = true;
     private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private static final StatusResponse statusResponseCache = new StatusResponse(RetzScheduler.HTTP_SERVER_NAME);
+    // Resources of STARTING and STARTED jobs by job id, and their sum; guarded by statusResponseCache
+    private static final Map<Integer, ResourceQuantity> running = new HashMap<>();
+    private static final ResourceQuantity totalUsed = new ResourceQuantity();
+    // null when statusResponseCache has changed since serialized
+    private static byte[] serialized = null;
+    private static int rounds = 0;
 
     private final int INTERVAL;
 
@@ -55,7 +70,12 @@ public class StatusCache implements Runnable {
 
     @Override
     public void run() {
-        StatusCache.updateUsedResources();
+        if (rounds++ % RECONCILE_ROUNDS == 0) {
+            StatusCache.updateUsedResources();
+        } else {
+            // The queue length is on memory
+            refresh();
+        }
         if (on) {
             scheduler.schedule(new StatusCache(INTERVAL), INTERVAL, TimeUnit.SECONDS);
         }
@@ -70,37 +90,80 @@ public class StatusCache implements Runnable {
         on = false;
     }
 
-    static String getStatusResponse() throws JsonProcessingException {
+    static byte[] getStatusResponse() throws JsonProcessingException {
         synchronized (statusResponseCache) {
-            return MAPPER.writeValueAsString(statusResponseCache);
+            if (serialized == null) {
+                serialized = MAPPER.writeValueAsBytes(statusResponseCache);
+            }
+            return serialized;
         }
     }
 
-
     public static void setOfferStats(int size, ResourceQuantity offered) {
         synchronized (statusResponseCache) {
-            statusResponseCache.setOffers(size, offered);
+            if (size != statusResponseCache.offers() || !same(offered, statusResponseCache.totalOffered())) {
+                statusResponseCache.setOffers(size, offered);
+                serialized = null;
+            }
         }
     }
 
+    // Called by JobQueue with every job change committed to database
+    public static void reflect(Job job) {
+        synchronized (statusResponseCache) {
+            if (job.state() == Job.JobState.STARTING || job.state() == Job.JobState.STARTED) {
+                if (running.putIfAbsent(job.id(), job.resources()) == null) {
+                    totalUsed.add(job.resources());
+                }
+            } else {
+                ResourceQuantity q = running.remove(job.id());
+                if (q != null) {
+                    subtract(q);
+                }
+            }
+            refresh();
+        }
+    }
+
+    // Loads all running jobs from database
     public static void updateUsedResources() {
-        // Do cache update here
-        int queueLength = Database.getInstance().countQueued();
         List<Job> jobs = Database.getInstance().getRunning();
-        ResourceQuantity total = new ResourceQuantity();
-        for (Job  job : jobs ){
-            total.add(job.resources());
+        synchronized (statusResponseCache) {
+            running.clear();
+            subtract(totalUsed);
+            for (Job job : jobs) {
+                running.put(job.id(), job.resources());
+                totalUsed.add(job.resources());
+            }
+            refresh();
+            LOG.debug("poke len(Q)={}, len(Running)={}, totalUsed={}",
+                    statusResponseCache.queueLength(), running.size(), totalUsed);
         }
-        int running = jobs.size();
-        StatusCache.setUsedResources(queueLength, running, total);
-
-        LOG.debug("poke len(Q)={}, len(Running)={}, totalUsed={}",
-                queueLength, running, total);
     }
 
     public static void setUsedResources(int queueLength, int runningLenght, ResourceQuantity totalUsed) {
         synchronized (statusResponseCache) {
-            statusResponseCache.setUsedResources(queueLength, runningLenght, totalUsed);
+            if (queueLength != statusResponseCache.queueLength() || runningLenght != statusResponseCache.runningLength()
+                    || !same(totalUsed, statusResponseCache.totalUsed())) {
+                statusResponseCache.setUsedResources(queueLength, runningLenght, totalUsed);
+                serialized = null;
+            }
         }
     }
+
+    private static void refresh() {
+        synchronized (statusResponseCache) {
+            setUsedResources(JobQueue.countQueued(), running.size(), totalUsed.copy(totalUsed));
+        }
+    }
+
+    private static void subtract(ResourceQuantity q) {
+        totalUsed.add(-q.getCpu(), -q.getMemMB(), -q.getGpu(), -q.getPorts(), -q.getDiskMB());
+    }
+
+    private static boolean same(ResourceQuantity lhs, ResourceQuantity rhs) {
+        return lhs.getCpu() == rhs.getCpu() && lhs.getMemMB() == rhs.getMemMB() && lhs.getGpu() == rhs.getGpu()
+                && lhs.getPorts() == rhs.getPorts() && lhs.getDiskMB() == rhs.getDiskMB()
+                && lhs.getNodes() == rhs.getNodes();
+    }
 }
@@ -0,0 +1,125 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.web;
+
+import io.github.retz.auth.Authenticator;
+import io.github.retz.auth.HmacSHA256Authenticator;
+import io.github.retz.auth.NoopAuthenticator;
+import io.github.retz.db.Database;
+import io.github.retz.misc.BoundedCache;
+import io.github.retz.protocol.data.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Users and their authenticators for WebConsole.authenticate, so that each
+ * request does not hit database. Entries are least-recently-used out when
+ * the cache is full, expire after TTL, and are invalidated by Database when
+ * a user is added or enabled/disabled. Users not found are not cached.
+ */
+public class UserCache {
+    private static final Logger LOG = LoggerFactory.getLogger(UserCache.class);
+
+    private static final BoundedCache<String, CachedUser> CACHE = new BoundedCache<>(1024, 60);
+    private static boolean authenticationEnabled = true;
+
+    private UserCache() {
+    }
+
+    static synchronized void init(int capacity, int ttlSeconds, boolean authenticationEnabled) {
+        UserCache.authenticationEnabled = authenticationEnabled;
+        // TTL 0 disables this cache, while it means no expiry in BoundedCache
+        CACHE.configure(ttlSeconds > 0 ? capacity : 0, ttlSeconds);
+        LOG.info("User cache: size={}, ttl={}s", capacity, ttlSeconds);
+    }
+
+    static Optional<CachedUser> get(String keyId) throws IOException {
+        return get(keyId, Database.getInstance()::getUser);
+    }
+
+    static Optional<CachedUser> get(String keyId, Loader loader) throws IOException {
+        long loading = CACHE.generation();
+        Optional<CachedUser> cached = CACHE.get(keyId);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        // Load outside the lock; concurrent misses of a key just load twice
+        Optional<User> user = loader.load(keyId);
+        if (!user.isPresent()) {
+            return Optional.empty();
+        }
+        CachedUser entry = new CachedUser(user.get());
+        // Not cached if the user has been changed and invalidated while loading
+        CACHE.put(keyId, entry, loading);
+        return Optional.of(entry);
+    }
+
+    // Registered to Database.onUserChanged by WebConsole
+    public static void invalidate(String keyId) {
+        CACHE.remove(keyId);
+    }
+
+    public static void invalidateAll() {
+        CACHE.clear();
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    public static long hits() {
+        return CACHE.hits();
+    }
+
+    public static long misses() {
+        return CACHE.misses();
+    }
+
+    public static long evictions() {
+        return CACHE.evictions();
+    }
+
+    interface Loader {
+        Optional<User> load(String keyId) throws IOException;
+    }
+
+    static final class CachedUser {
+        private final User user;
+        private final Authenticator authenticator;
+
+        private CachedUser(User user) {
+            this.user = user;
+            if (authenticationEnabled) {
+                authenticator = new HmacSHA256Authenticator(user.keyId(), user.secret());
+            } else {
+                authenticator = new NoopAuthenticator(user.keyId());
+            }
+        }
+
+        User user() {
+            return user;
+        }
+
+        Authenticator authenticator() {
+            return authenticator;
+        }
+    }
+}
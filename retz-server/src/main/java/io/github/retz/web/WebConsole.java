@@ -21,8 +21,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.auth.AuthHeader;
 import io.github.retz.auth.Authenticator;
-import io.github.retz.auth.HmacSHA256Authenticator;
-import io.github.retz.auth.NoopAuthenticator;
 import io.github.retz.db.Database;
 import io.github.retz.protocol.*;
 import io.github.retz.protocol.data.Application;
@@ -81,6 +79,8 @@ public final class WebConsole {
 
         WebConsole.config = config;
         JobRequestHandler.setMaxListJobSize(config.getMaxListJobSize());
+        UserCache.init(config.getUserCacheSize(), config.getUserCacheTtl(), config.authenticationEnabled());
+        Database.getInstance().onUserChanged(UserCache::invalidate);
 
         before(WebConsole::authenticate);
 
@@ -114,11 +114,13 @@ public final class WebConsole {
         post(ListJobRequest.resourcePattern(), JobRequestHandler::listJob);
         // /job  PUT -> schedule, GET -> get-job, DELETE -> kill
         get(GetJobRequest.resourcePattern(), JobRequestHandler::getJob);
+        get(WaitJobRequest.resourcePattern(), JobRequestHandler::waitJob);
         post(ScheduleRequest.resourcePattern(), JobRequestHandler::schedule);
         delete(KillRequest.resourcePattern(), JobRequestHandler::kill);
         // Get a file
         get(GetFileRequest.resourcePattern(), JobRequestHandler::getFile);
         get(DownloadFileRequest.resourcePattern(), JobRequestHandler::downloadFile);
+        get(StreamFileRequest.resourcePattern(), JobRequestHandler::streamFile);
         // Get file list
         get(ListFilesRequest.resourcePattern(), JobRequestHandler::getDir);
 
@@ -189,21 +191,16 @@ public final class WebConsole {
             halt(401, "Bad Authorization header: " + req.headers(AuthHeader.AUTHORIZATION));
         }
 
-        Authenticator authenticator;
         // Not admin
-        Optional<User> u = Database.getInstance().getUser(authHeaderValue.get().key());
-        if (u.isPresent()) {
-            if (!u.get().enabled()) {
+        Optional<UserCache.CachedUser> entry = UserCache.get(authHeaderValue.get().key());
+        if (entry.isPresent()) {
+            if (!entry.get().user().enabled()) {
                 halt(403, "User disabled");
             }
         } else {
             halt(403, "No such user");
         }
-        if (config.authenticationEnabled()) {
-            authenticator = new HmacSHA256Authenticator(u.get().keyId(), u.get().secret());
-        } else {
-            authenticator = new NoopAuthenticator(u.get().keyId());
-        }
+        Authenticator authenticator = entry.get().authenticator();
 
         if (!authenticator.authenticate(verb, md5, date, resource,
                 authHeaderValue.get().key(), authHeaderValue.get().signature())) {
@@ -217,7 +214,8 @@ public final class WebConsole {
         }
     }
 
-    static String status(Request request, Response response) throws JsonProcessingException {
+    static byte[] status(Request request, Response response) throws JsonProcessingException {
+        response.type("application/json");
         return StatusCache.getStatusResponse();
     }
 
@@ -39,20 +39,38 @@ CREATE TABLE applications (
     -- FOREIGN KEY (owner) REFERENCES users(key_id)
 );
 
+CREATE INDEX applications_owner ON applications(owner);
+
 -- see io.github.retz.protocol.data.Job
+-- Only props (env) are stored as JSON; see io.github.retz.db.Jobs
 CREATE TABLE jobs(
-    name VARCHAR(32),
     id INTEGER NOT NULL UNIQUE,
+    name VARCHAR(32),
     appid varchar(32) not null,
     cmd varchar(1024) not null,
     priority INTEGER NOT NULL,
+    retry INTEGER NOT NULL,
+    result INTEGER NOT NULL,
 
+    cpu INTEGER NOT NULL,
+    mem INTEGER NOT NULL,
+    gpu INTEGER NOT NULL,
+    ports INTEGER NOT NULL,
+    disk INTEGER NOT NULL,
+    nodes INTEGER NOT NULL,
+
+    scheduled VARCHAR(32),
     started VARCHAR(32),
     finished VARCHAR(32),
     taskid VARCHAR(128), -- this introduces NULL'd index {shrug}
     state VARCHAR(16) NOT NULL,
+    url TEXT,
+    reason TEXT,
+    attributes TEXT,
+    tags TEXT, -- like ',tag1,tag2,'
+    slaveid VARCHAR(128), -- agent of the latest run, not in Job; to find jobs of a lost agent
 
-    json TEXT NOT NULL,
+    props TEXT,
     PRIMARY KEY (id)
 );
 
@@ -60,6 +78,25 @@ CREATE INDEX priority ON jobs(priority);
 CREATE INDEX taskid ON jobs(taskid);
 CREATE INDEX started ON jobs(started);
 CREATE INDEX finished ON jobs(finished);
+CREATE INDEX slaveid ON jobs(slaveid);
+-- Matched to query shapes in io.github.retz.db.Database and Jobs; also added to
+-- existing databases by JobSchemaMigration, which adds partial indexes of QUEUED
+-- jobs as well on PostgreSQL
+CREATE INDEX jobs_state_id ON jobs(state, id);
+CREATE INDEX jobs_state_priority_id ON jobs(state, priority, id);
+CREATE INDEX jobs_appid_state_id ON jobs(appid, state, id);
+CREATE INDEX jobs_state_finished ON jobs(state, finished);
+
+-- Tags of jobs, to look up jobs by a tag; same as jobs.tags, which is used to decode Job.
+-- Deleted with jobs by io.github.retz.db.Jobs, as jobs may be moved to partitions
+-- (see io.github.retz.db.JobPartitions) where a foreign key can't refer to
+CREATE TABLE job_tags(
+    id INTEGER NOT NULL,
+    tag VARCHAR(1024) NOT NULL,
+    PRIMARY KEY (tag, id)
+);
+
+CREATE INDEX job_tags_id ON job_tags(id);
 
 -- System wide properties such ad FrameworkID; see io.github.retz.dao.Property
 CREATE TABLE properties(
@@ -69,3 +106,11 @@ CREATE TABLE properties(
 );
 
 CREATE INDEX key ON properties(key);
+
+-- Schema migrations applied; see io.github.retz.db.SchemaMigrations
+CREATE TABLE schema_version(
+    version INTEGER NOT NULL,
+    description VARCHAR(256) NOT NULL,
+    applied VARCHAR(32) NOT NULL,
+    PRIMARY KEY (version)
+);
@@ -16,16 +16,31 @@
  */
 package io.github.retz.db;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import io.github.retz.cli.TimestampHelper;
 import io.github.retz.protocol.data.*;
 import io.github.retz.planner.AppJobPair;
 import io.github.retz.scheduler.JobQueue;
+import org.apache.commons.io.FileUtils;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.is;
@@ -155,12 +170,19 @@ public class DatabaseTest {
             for (Job j : db.getAllJobs(u.keyId())) {
                 System.err.println(j.id() + j.taskId() + j.state());
             }
-            db.setJobStarting(id, Optional.empty(), taskId);
+            db.setJobStarting(id, Optional.empty(), taskId, Optional.of("slave-1"));
+            assertEquals(1, db.getRunningOnSlave("slave-1").size());
+            assertEquals(0, db.getRunningOnSlave("slave-2").size());
+            assertEquals(0, db.getRunningOnUnknownSlave().size());
 
             for (Job j : db.getAllJobs(u.keyId())) {
                 System.out.println(j.pp());
             }
             assertTrue(db.getJobFromTaskId(taskId).isPresent());
+
+            assertTrue(db.setJobUrl(id, taskId, "http://example.com:5051/files/browse?path=/a"));
+            assertFalse(db.setJobUrl(id, "app-taskid-2", "http://example.com:5051/files/browse?path=/b"));
+            assertEquals("http://example.com:5051/files/browse?path=/a", db.getJob(id).get().url());
         }
         {
             Optional<AppJobPair> maybePair = db.getAppJob(id);
@@ -172,6 +194,7 @@ public class DatabaseTest {
 
         assertEquals(0, db.countQueued());
         assertEquals(1, db.countRunning());
+        assertStateCounts();
 
         {
             List<Job> jobs = db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.empty(), 1024);
@@ -189,6 +212,37 @@ public class DatabaseTest {
             List<Job> jobs = db.listJobs(u.keyId(), Job.JobState.FINISHED, Optional.empty(), 1024);
             assertEquals(0, jobs.size());
         }
+        {
+            Map<String, Job> jobs = db.getJobsFromTaskIds(Arrays.asList("app-taskid-1", "no-such-taskid"));
+            assertEquals(1, jobs.size());
+            Job job = jobs.get("app-taskid-1");
+            assertEquals(id, job.id());
+
+            job.finished(TimestampHelper.now(), Optional.empty(), 0);
+            assertTrue(db.updateJobs(Arrays.asList(job)));
+            assertEquals(Job.JobState.FINISHED, db.getJob(id).get().state());
+            assertEquals(0, db.countRunning());
+            assertStateCounts();
+            // URL of a finished job is no longer updated
+            assertFalse(db.setJobUrl(id, "app-taskid-1", "http://example.com:5051/files/browse?path=/c"));
+        }
+        {
+            // Task ids are looked up in chunks, beyond the first of them
+            List<String> taskIds = new ArrayList<>();
+            for (int i = 0; i < 1200; ++i) {
+                taskIds.add("no-such-taskid-" + i);
+            }
+            taskIds.add("app-taskid-1");
+            assertEquals(id, db.getJobsFromTaskIds(taskIds).get("app-taskid-1").id());
+        }
+    }
+
+    // Counts on memory must be same as those in database
+    private void assertStateCounts() {
+        for (Job.JobState state : Job.JobState.values()) {
+            assertEquals(state.toString(), db.countByStateInDB(state), db.countByState(state));
+            assertEquals(state.toString(), db.countByStateInDB(state), (long) db.stateCounts().get(state.toString()));
+        }
     }
 
     @Test
@@ -251,7 +305,10 @@ public class DatabaseTest {
             assertEquals(users.get(i).keyId(), jobs.get(0).name());
         }
 
+        assertEquals(10, db.countQueued());
         db.deleteAllJob(Integer.MAX_VALUE);
+        assertEquals(0, db.countQueued());
+        assertStateCounts();
     }
 
     @Test
@@ -263,7 +320,299 @@ public class DatabaseTest {
     }
 
     @Test
-    public void gc() {
-        db.deleteOldJobs(1024);
+    public void gc() throws Exception {
+        User u = db.createUser("gc test user");
+        db.addApplication(new Application("gcapp", Arrays.asList(), Arrays.asList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+        List<Integer> old = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            Job job = new Job("gcapp", "ls", null, 1, 32, 0);
+            job.addTags("gc");
+            job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+            job.finished(TimestampHelper.past(2048), Optional.empty(), 0);
+            db.safeAddJob(job);
+            old.add(job.id());
+        }
+        Job recent = new Job("gcapp", "ls", null, 1, 32, 0);
+        recent.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        recent.killed(TimestampHelper.now(), Optional.empty(), "recent");
+        db.safeAddJob(recent);
+        Job queued = new Job("gcapp", "ls", null, 1, 32, 0);
+        queued.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        db.safeAddJob(queued);
+
+        Path dir = Files.createTempDirectory("retz-gc");
+        try (JobArchive archive = new JobArchive(dir)) {
+            String before = TimestampHelper.past(1024);
+            List<Integer> ids = db.deleteOldJobs(before, Integer.MIN_VALUE, 3, Optional.of(archive));
+            assertEquals(old.subList(0, 3), ids);
+            ids = db.deleteOldJobs(before, ids.get(2), 3, Optional.of(archive));
+            assertEquals(old.subList(3, 5), ids);
+            assertTrue(db.deleteOldJobs(before, ids.get(1), 3, Optional.of(archive)).isEmpty());
+            assertEquals(5, archive.count());
+            archive.close();
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(archive.file())), UTF_8))) {
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.registerModule(new Jdk8Module());
+                for (int id : old) {
+                    Job job = mapper.readValue(reader.readLine(), Job.class);
+                    assertEquals(id, job.id());
+                    assertEquals(Job.JobState.FINISHED, job.state());
+                }
+                assertNull(reader.readLine());
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+
+        for (int id : old) {
+            assertFalse(db.getJob(id).isPresent());
+        }
+        assertTrue(db.getJob(recent.id()).isPresent());
+        assertTrue(db.getJob(queued.id()).isPresent());
+        assertTrue(db.listJobs(u.keyId(), Job.JobState.FINISHED, Optional.of("gc"), 10).isEmpty());
+        assertStateCounts();
+        db.deleteAllJob(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void usage() throws Exception {
+        User u = db.createUser("usage test user");
+        db.addApplication(new Application("usageapp", Arrays.asList(), Arrays.asList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+        // 10 seconds with 2 CPUs, 64MB and a GPU
+        Job job1 = new Job("usageapp", "ls", null, 2, 64, 0, 1, 0);
+        job1.schedule(JobQueue.issueJobId(), "2017-03-01T09:59:00.000+09:00");
+        job1.started("task-1", Optional.empty(), "2017-03-01T10:00:00.000+09:00");
+        job1.finished("2017-03-01T10:00:10.000+09:00", Optional.empty(), 0);
+        db.safeAddJob(job1);
+        // Killed before it started
+        Job job2 = new Job("usageapp", "ls", null, 2, 64, 0, 1, 0);
+        job2.schedule(JobQueue.issueJobId(), "2017-03-01T09:59:00.000+09:00");
+        job2.killed("2017-03-01T11:00:00.000+09:00", Optional.empty(), "canceled");
+        db.safeAddJob(job2);
+        Job job3 = new Job("usageapp", "ls", null, 1, 32, 0);
+        job3.schedule(JobQueue.issueJobId(), "2017-03-01T23:59:00.000+09:00");
+        job3.started("task-3", Optional.empty(), "2017-03-01T23:59:59.000+09:00");
+        job3.finished("2017-03-02T00:00:01.000+09:00", Optional.empty(), 0);
+        db.safeAddJob(job3);
+
+        Usage usage = db.usage("2017-03-01", "2017-03-03");
+        assertEquals(3, usage.jobs());
+        List<Map<String, Object>> summaries = usage.summaries();
+        assertEquals(2, summaries.size());
+        assertEquals(u.keyId(), summaries.get(0).get("owner"));
+        assertEquals("usageapp", summaries.get(0).get("appid"));
+        assertEquals("2017-03-01", summaries.get(0).get("day"));
+        assertEquals(2L, summaries.get(0).get("jobs"));
+        assertEquals(20.0, summaries.get(0).get("cpu-seconds"));
+        assertEquals(640.0, summaries.get(0).get("mem-MB-seconds"));
+        assertEquals(10.0, summaries.get(0).get("gpu-seconds"));
+        assertEquals("2017-03-02", summaries.get(1).get("day"));
+        assertEquals(64.0, summaries.get(1).get("mem-MB-seconds"));
+        assertEquals(1, db.usage("2017-03-02", "2017-03-03").jobs());
+
+        Path dir = Files.createTempDirectory("retz-usage");
+        try (JobArchive archive = new JobArchive(dir)) {
+            assertEquals(3, db.exportJobs("2017-03-01", "2017-03-03", 2, archive));
+            archive.close();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(archive.file())), UTF_8))) {
+                ObjectMapper mapper = new ObjectMapper();
+                mapper.registerModule(new Jdk8Module());
+                for (Job job : Arrays.asList(job1, job2, job3)) {
+                    assertEquals(job.id(), mapper.readValue(reader.readLine(), Job.class).id());
+                }
+                assertNull(reader.readLine());
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+        db.deleteAllJob(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void tags() throws Exception {
+        User u = db.createUser("tags test user");
+        db.addApplication(new Application("tagapp", Arrays.asList(), Arrays.asList(),
+                Optional.empty(), u.keyId(), 0, new MesosContainer(), true));
+
+        Properties props = new Properties();
+        props.setProperty("FOO", "bar");
+        Job job1 = new Job("tagapp", "ls", props, 1, 32, 0, 1, 2, "attr");
+        job1.addTags("a", "b_c");
+        job1.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        db.safeAddJob(job1);
+        Job job2 = new Job("tagapp", "ls", null, 1, 32, 0);
+        job2.addTags("bxc");
+        job2.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        db.safeAddJob(job2);
+
+        Job job = db.getJob(job1.id()).get();
+        assertEquals(job1.toString(), job.toString());
+        assertEquals("bar", job.props().getProperty("FOO"));
+        assertEquals(Optional.of("attr"), job.attributes());
+        assertEquals(1, job.resources().getGpu());
+        assertEquals(2, job.resources().getPorts());
+        assertNull(db.getJob(job2.id()).get().props());
+
+        assertEquals(1, db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.of("a"), 10).size());
+        assertEquals(1, db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.of("b_c"), 10).size());
+        assertEquals(0, db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.of("b"), 10).size());
+        assertEquals(0, db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.of("%"), 10).size());
+        assertEquals(2, db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.empty(), 10).size());
+
+        // Pages in descending order of id
+        List<Job> page = db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.empty(), Optional.empty(), 1);
+        assertEquals(job2.id(), page.get(0).id());
+        page = db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.empty(), Optional.of(job2.id()), 1);
+        assertEquals(job1.id(), page.get(0).id());
+        assertTrue(db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.empty(), Optional.of(job1.id()), 1).isEmpty());
+        assertTrue(db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.of("bxc"), Optional.of(job2.id()), 1).isEmpty());
+
+        // No length limit on values which used to be in JSON
+        String longValue = String.join("", Collections.nCopies(2048, "x"));
+        Job job3 = new Job("tagapp", "ls", new Properties(), 1, 32, 0, 0, 0, longValue);
+        for (int i = 0; i < 128; ++i) {
+            job3.addTags("long-tag-" + i);
+        }
+        job3.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        job3.started("long-task", Optional.of("http://example.com/" + longValue), TimestampHelper.now());
+        assertTrue(db.safeAddJob(job3));
+        assertEquals(job3.toString(), db.getJob(job3.id()).get().toString());
+
+        db.deleteAllJob(Integer.MAX_VALUE);
+        // Tags are deleted with jobs
+        assertEquals(0, db.listJobs(u.keyId(), Job.JobState.QUEUED, Optional.of("a"), 10).size());
+    }
+
+    @Test
+    public void migrateFromJson() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+
+        Job job = new Job("someapp", "echo", new Properties(), 2, 64, 16, 0, 1);
+        job.addTags("x", "y");
+        job.schedule(42, TimestampHelper.now());
+        job.starting("taskid-42", Optional.empty(), TimestampHelper.now());
+
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:migration;DB_CLOSE_DELAY=-1");
+             Statement statement = conn.createStatement()) {
+            createOldSchema(conn, mapper, job);
+            conn.setAutoCommit(false);
+
+            assertTrue(JobSchemaMigration.required(conn));
+            assertEquals(1, JobSchemaMigration.migrate(conn, mapper));
+            conn.commit();
+            assertFalse(JobSchemaMigration.required(conn));
+
+            Map<String, Job> jobs = new Jobs(conn, mapper).getJobsFromTaskIds(Arrays.asList("taskid-42"));
+            assertEquals(job.toString(), jobs.get("taskid-42").toString());
+            assertEquals(job.tags(), jobs.get("taskid-42").tags());
+
+            assertTrue(JobSchemaMigration.tagTableRequired(conn));
+            assertEquals(2, JobSchemaMigration.migrateTags(conn));
+            conn.commit();
+            assertFalse(JobSchemaMigration.tagTableRequired(conn));
+            try (ResultSet res = statement.executeQuery("SELECT id FROM job_tags WHERE tag = 'y'")) {
+                assertTrue(res.next());
+                assertEquals(42, res.getInt("id"));
+            }
+
+            assertTrue(JobSchemaMigration.slaveIdRequired(conn));
+            JobSchemaMigration.migrateSlaveId(conn);
+            conn.commit();
+            assertFalse(JobSchemaMigration.slaveIdRequired(conn));
+            try (ResultSet res = statement.executeQuery("SELECT id FROM jobs WHERE slaveid IS NULL")) {
+                assertTrue(res.next());
+                assertEquals(42, res.getInt("id"));
+            }
+
+            assertTrue(JobSchemaMigration.indexesRequired(conn));
+            JobSchemaMigration.migrateIndexes(conn, false);
+            conn.commit();
+            assertFalse(JobSchemaMigration.indexesRequired(conn));
+            statement.execute("DROP TABLE job_tags, jobs, applications");
+        }
+    }
+
+    @Test
+    public void migrateInVersions() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new Jdk8Module());
+
+        Job job = new Job("someapp", "echo", new Properties(), 2, 64, 16, 0, 1);
+        job.addTags("x", "y");
+        job.schedule(42, TimestampHelper.now());
+        job.starting("taskid-42", Optional.empty(), TimestampHelper.now());
+
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:migration;DB_CLOSE_DELAY=-1");
+             Statement statement = conn.createStatement()) {
+            createOldSchema(conn, mapper, job);
+            conn.setAutoCommit(false);
+
+            SchemaMigrations migrations = new SchemaMigrations(mapper);
+            {
+                List<Map<String, Object>> steps = migrations.status(conn);
+                assertEquals(4, steps.size());
+                for (Map<String, Object> step : steps) {
+                    assertNull(step.get("applied"));
+                    assertFalse(((List) step.get("statements")).isEmpty());
+                }
+            }
+
+            // Online index builds are deferred
+            assertEquals(3, migrations.migrate(conn, false));
+            assertTrue(JobSchemaMigration.indexesRequired(conn));
+            {
+                List<Map<String, Object>> steps = migrations.status(conn);
+                assertNotNull(steps.get(2).get("applied"));
+                assertNull(steps.get(3).get("applied"));
+                assertEquals(5, ((List) steps.get(3).get("statements")).size());
+            }
+            Map<String, Job> jobs = new Jobs(conn, mapper).getJobsFromTaskIds(Arrays.asList("taskid-42"));
+            assertEquals(job.toString(), jobs.get("taskid-42").toString());
+
+            assertEquals(1, migrations.migrate(conn, true));
+            assertFalse(JobSchemaMigration.indexesRequired(conn));
+            assertEquals(0, migrations.migrate(conn, true));
+            statement.execute("DROP TABLE job_tags, jobs, applications, schema_version");
+        }
+    }
+
+    @Test
+    public void schemaVersions() throws Exception {
+        // Tables created from retz-ddl.sql have all migrations, which are just recorded
+        List<Map<String, Object>> steps = db.schemaMigrations();
+        assertEquals(4, steps.size());
+        for (Map<String, Object> step : steps) {
+            assertNotNull(step.get("applied"));
+        }
+        assertEquals(0, db.migrate());
+    }
+
+    // Job table of the old schema, where whole Job is stored in 'json' column, with a job
+    private static void createOldSchema(Connection conn, ObjectMapper mapper, Job job) throws Exception {
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("CREATE TABLE jobs(name VARCHAR(32), id INTEGER NOT NULL UNIQUE, appid varchar(32) not null, "
+                    + "cmd varchar(1024) not null, priority INTEGER NOT NULL, started VARCHAR(32), finished VARCHAR(32), "
+                    + "taskid VARCHAR(128), state VARCHAR(16) NOT NULL, json TEXT NOT NULL, PRIMARY KEY (id))");
+            statement.execute("CREATE TABLE applications(appid VARCHAR(32) NOT NULL UNIQUE, owner VARCHAR(32) NOT NULL, "
+                    + "json TEXT NOT NULL, PRIMARY KEY (appid))");
+            try (PreparedStatement p = conn.prepareStatement("INSERT INTO jobs(name, id, appid, cmd, priority, taskid, state, json) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                p.setString(1, job.name());
+                p.setInt(2, job.id());
+                p.setString(3, job.appid());
+                p.setString(4, job.cmd());
+                p.setInt(5, job.priority());
+                p.setString(6, job.taskId());
+                p.setString(7, job.state().toString());
+                p.setString(8, mapper.writeValueAsString(job));
+                p.execute();
+            }
+        }
     }
 }
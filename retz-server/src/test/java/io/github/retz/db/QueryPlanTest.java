@@ -0,0 +1,195 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.db;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertTrue;
+
+// Runs EXPLAIN of job queries in Database and Jobs against tables created by
+// Database.maybeCreateTables, and fails when any of them scans a whole table.
+// The number of jobs can be changed like -Dretz.test.plan.rows=1000000, and
+// PostgreSQL is checked only when a scratch database is given like
+// -Dretz.test.postgres.url=jdbc:postgresql://localhost/retz_test?user=retz
+// ALL TABLES IN THE POSTGRESQL DATABASE ARE DROPPED.
+public class QueryPlanTest {
+    private static final int ROWS = Integer.getInteger("retz.test.plan.rows", 100000);
+
+    // Same shape as queries in Database and Jobs, with parameters filled. Queries to
+    // read whole tables, like JobStateCounts.load, countJobs, allUsers, getAllApps
+    // and the ones in JobSchemaMigration, are not here
+    private static final String[] QUERIES = {
+            // Database.listJobs
+            "SELECT j.* FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user-1' AND j.state='FINISHED'"
+                    + " ORDER BY j.id DESC LIMIT 64",
+            "SELECT j.* FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user-1' AND j.state='FINISHED'"
+                    + " AND j.id < 5000 ORDER BY j.id DESC LIMIT 64",
+            "SELECT j.* FROM job_tags t, jobs j, applications a WHERE t.tag = 'tag-1' AND t.id = j.id"
+                    + " AND j.appid = a.appid AND a.owner = 'user-1' AND j.state='FINISHED' ORDER BY j.id DESC LIMIT 64",
+            // Database.getAllJobs
+            "SELECT j.* FROM jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user-1'",
+            // Database.usage, Database.exportJobs
+            "SELECT a.owner, j.appid, j.started, j.finished, j.cpu, j.mem, j.gpu FROM jobs j LEFT JOIN applications a"
+                    + " ON j.appid = a.appid WHERE '2017-01-01T00001000.000+09:00' <= j.finished AND j.finished < '2017-01-01T00002000.000+09:00'",
+            "SELECT * FROM jobs WHERE '2017-01-01T00001000.000+09:00' <= finished AND finished < '2017-01-01T00002000.000+09:00'"
+                    + " AND id > 42 ORDER BY id LIMIT 1000",
+            // Database.findFit
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC",
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY priority ASC, id ASC",
+            // Database.queued
+            "SELECT * FROM jobs WHERE state='QUEUED' ORDER BY id ASC LIMIT 64",
+            // Database.getAppJob
+            "SELECT j.*, a.json AS ajson FROM jobs j, applications a WHERE id = 42 AND j.appid = a.appid",
+            // Database.getJob, Database.updateJob, Jobs.getJob
+            "SELECT * FROM jobs WHERE id = 42",
+            // Database.getJobFromTaskId, Jobs.getJobsFromTaskIds
+            "SELECT * FROM jobs WHERE taskid='task-42'",
+            "SELECT * FROM jobs WHERE taskid IN ('task-42', 'task-43')",
+            // Database.deleteAllJob
+            "DELETE FROM job_tags WHERE id < 42",
+            "DELETE FROM jobs WHERE id < 42",
+            // Database.setJobUrl
+            "UPDATE jobs SET url='http://example.com' WHERE id=42 AND taskid='task-42' AND state IN ('STARTING', 'STARTED')",
+            // Database.countByStateInDB
+            "SELECT count(id) FROM jobs WHERE state = 'QUEUED'",
+            // Database.getLatestJobId
+            "SELECT MAX(id) FROM jobs",
+            // Database.getRunningOnSlave, Database.getRunningOnUnknownSlave
+            "SELECT * FROM jobs WHERE slaveid = 'slave-1' AND state IN ('STARTING', 'STARTED')",
+            "SELECT * FROM jobs WHERE slaveid IS NULL AND state IN ('STARTING', 'STARTED')",
+            // Database.getByState
+            "SELECT * FROM jobs WHERE state = 'STARTED'",
+            // Jobs.getAllRunning
+            "SELECT * FROM jobs WHERE state IN ('STARTING', 'STARTED')",
+            // Jobs.updateJobs
+            "SELECT id, state FROM jobs WHERE id IN (42, 43) FOR UPDATE",
+            // Jobs.setSlaveId
+            "UPDATE jobs SET slaveid='slave-1' WHERE id=42",
+            // Jobs.collect, without and with archive
+            "SELECT id, state FROM jobs WHERE state IN ('FINISHED', 'KILLED') AND finished < '2017-01-01T00001000.000+09:00'"
+                    + " AND id > 42 ORDER BY id LIMIT 1000",
+            "SELECT * FROM jobs WHERE state IN ('FINISHED', 'KILLED') AND finished < '2017-01-01T00001000.000+09:00'"
+                    + " AND id > 42 ORDER BY id LIMIT 1000",
+            "DELETE FROM job_tags WHERE id=42",
+            "DELETE FROM jobs WHERE id=42",
+            // Database.getApp, Database.deleteApplication
+            "SELECT * FROM applications WHERE appid = 'app-1'",
+            "DELETE FROM applications where appid='app-1'",
+            // Database.getUser
+            "SELECT * FROM USERS WHERE key_id = 'user-1'",
+    };
+
+    // Queries only with retz.database.partition, which H2 doesn't run as it has no table inheritance
+    private static final String[] PARTITIONED_QUERIES = {
+            // Database.listJobs
+            "SELECT j.* FROM ONLY jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user-1' AND j.state='QUEUED'"
+                    + " ORDER BY j.id DESC LIMIT 64",
+            "SELECT j.* FROM ONLY jobs j, applications a WHERE j.appid = a.appid AND a.owner = 'user-1' AND j.state='QUEUED'"
+                    + " AND j.id < 5000 ORDER BY j.id DESC LIMIT 64",
+            "SELECT j.* FROM job_tags t, ONLY jobs j, applications a WHERE t.tag = 'tag-1' AND t.id = j.id"
+                    + " AND j.appid = a.appid AND a.owner = 'user-1' AND j.state='QUEUED' ORDER BY j.id DESC LIMIT 64",
+            // JobPartitions.move, into 'jobs' instead of a partition
+            "WITH moved AS (DELETE FROM ONLY jobs WHERE id = 42 RETURNING *) INSERT INTO jobs SELECT * FROM moved",
+            // JobPartitions.sweep
+            "SELECT id, finished FROM ONLY jobs WHERE state IN ('FINISHED', 'KILLED') ORDER BY id LIMIT 1000",
+    };
+
+    @Test
+    public void h2() throws Exception {
+        // Settings only to make the fixture faster
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:queryplan;MV_STORE=FALSE;LOG=0;UNDO_LOG=0")) {
+            check(conn, n -> "SYSTEM_RANGE(1, " + n + ")", "tableScan", QUERIES);
+        }
+    }
+
+    @Test
+    public void postgresql() throws Exception {
+        String url = System.getProperty("retz.test.postgres.url");
+        Assume.assumeNotNull(url);
+        try (Connection conn = DriverManager.getConnection(url)) {
+            try (Statement statement = conn.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS job_tags, users, jobs, applications, properties, schema_version");
+            }
+            check(conn, n -> "generate_series(1, " + n + ") AS r(x)", "Seq Scan", QUERIES, PARTITIONED_QUERIES);
+        }
+    }
+
+    private void check(Connection conn, IntFunction<String> range, String fullScan, String[]... queries) throws Exception {
+        conn.setAutoCommit(false);
+        new Database().maybeCreateTables(conn);
+        fill(conn, range);
+        conn.commit();
+        conn.setAutoCommit(true);
+
+        List<String> failures = new ArrayList<>();
+        for (String[] list : queries) {
+            for (String query : list) {
+                String plan = explain(conn, query);
+                // H2 reads MIN/MAX from an index directly, though the plan says tableScan
+                if (plan.contains(fullScan) && !plan.contains("direct lookup")) {
+                    failures.add(plan);
+                }
+            }
+        }
+        assertTrue("Full scan with " + ROWS + " jobs: " + failures, failures.isEmpty());
+    }
+
+    // 1000 applications of 100 users; 1% of jobs in QUEUED, STARTING and STARTED each
+    // and the rest finished; 30% of jobs are tagged
+    private void fill(Connection conn, IntFunction<String> range) throws SQLException {
+        String x = "CAST(x AS VARCHAR(16))";
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("INSERT INTO applications(appid, owner, json) SELECT 'app-' || " + x
+                    + ", 'user-' || CAST(MOD(x, 100) AS VARCHAR(16)), '{}' FROM "
+                    + range.apply(1000));
+            String state = "CASE MOD(x, 100) WHEN 0 THEN 'QUEUED' WHEN 1 THEN 'STARTING' WHEN 2 THEN 'STARTED'"
+                    + " ELSE 'FINISHED' END";
+            // Sorted in order of id like timestamps of TimestampHelper, though not in the same format
+            String finished = "CASE WHEN MOD(x, 100) < 3 THEN NULL ELSE '2017-01-01T' || LPAD(" + x
+                    + ", 8, '0') || '.000+09:00' END";
+            String slaveId = "CASE WHEN MOD(x, 100) IN (1, 2) THEN 'slave-' || CAST(MOD(x, 64) AS VARCHAR(16)) ELSE NULL END";
+            statement.execute("INSERT INTO jobs(id, name, appid, cmd, priority, retry, result, cpu, mem, gpu, ports, disk,"
+                    + " nodes, scheduled, started, finished, taskid, state, slaveid) SELECT x, 'job', 'app-'"
+                    + " || CAST(MOD(x, 1000) AS VARCHAR(16)), 'ls', MOD(x, 8), 0, 0, 1, 32, 0, 0, 0, 1, NULL, NULL, "
+                    + finished + ", 'task-' || " + x + ", " + state + ", " + slaveId + " FROM " + range.apply(ROWS));
+            statement.execute("INSERT INTO job_tags(id, tag) SELECT x, 'tag-' || CAST(MOD(x, 10) AS VARCHAR(16)) FROM "
+                    + range.apply(ROWS) + " WHERE MOD(x, 10) < 3");
+            statement.execute("ANALYZE");
+        }
+    }
+
+    private String explain(Connection conn, String query) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = conn.createStatement();
+             ResultSet res = statement.executeQuery("EXPLAIN " + query)) {
+            while (res.next()) {
+                plan.append(res.getString(1)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
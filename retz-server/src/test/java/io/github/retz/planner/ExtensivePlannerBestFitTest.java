@@ -0,0 +1,97 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.planner;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.scheduler.Applications;
+import io.github.retz.scheduler.RetzSchedulerTest;
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExtensivePlannerBestFitTest extends PlannerTest {
+    String makePlannerName() {
+        return "bestfit";
+    }
+
+    @Test
+    public void noHeadOfLineBlocking() {
+        Optional<Application> app = Applications.get(ANON_APPID);
+
+        List<Protos.Offer> offers = new LinkedList<>();
+        for (int i = 0; i < 2; ++i) {
+            offers.add(RetzSchedulerTest.buildOffer(fid, i, UUID.randomUUID().toString(), 16, 512));
+        }
+        List<AppJobPair> jobs = new LinkedList<>();
+        // Fits no agent
+        Job large = new Job(ANON_APPID, "large", new Properties(), 32, 512, 0);
+        large.schedule(0, TimestampHelper.now());
+        jobs.add(new AppJobPair(app, large));
+        for (int i = 1; i <= 4; ++i) {
+            Job job = new Job(ANON_APPID, "small", new Properties(), 8, 128, 0);
+            job.schedule(i, TimestampHelper.now());
+            jobs.add(new AppJobPair(app, job));
+        }
+        Plan p = planner.plan(offers, jobs, 0, "nobody");
+
+        assertEquals(2, p.getOfferAcceptors().size());
+        for (OfferAcceptor acceptor : p.getOfferAcceptors()) {
+            assertEquals(2, acceptor.getJobs().size());
+            for (Job job : acceptor.getJobs()) {
+                assertEquals("small", job.cmd());
+                assertEquals(Job.JobState.STARTING, job.state());
+            }
+        }
+        assertEquals(1, p.getToKeep().size());
+        assertEquals(0, p.getToKeep().get(0).id());
+        assertTrue(p.getToKeep().get(0).state() != Job.JobState.STARTING);
+    }
+
+    @Test
+    public void offersOfAgentPlannedAsOne() {
+        Optional<Application> app = Applications.get(ANON_APPID);
+
+        // Two offers of the same agent, and one of another
+        List<Protos.Offer> offers = new LinkedList<>();
+        offers.add(RetzSchedulerTest.buildOffer(fid, 0, UUID.randomUUID().toString(), 8, 512));
+        offers.add(RetzSchedulerTest.buildOffer(fid, 0, UUID.randomUUID().toString(), 8, 512));
+        offers.add(RetzSchedulerTest.buildOffer(fid, 1, UUID.randomUUID().toString(), 8, 512));
+        Job job = new Job(ANON_APPID, "cmd", new Properties(), 12, 512, 0);
+        job.schedule(0, TimestampHelper.now());
+        Plan p = planner.plan(offers, Arrays.asList(new AppJobPair(app, job)), 0, "nobody");
+
+        // Fits neither offer alone, but the sum of offers of the first agent
+        assertEquals(2, p.getOfferAcceptors().size());
+        OfferAcceptor acceptor = p.getOfferAcceptors().get(0);
+        assertEquals(2, acceptor.getOffers().size());
+        assertEquals(1, acceptor.getJobs().size());
+        assertEquals(Job.JobState.STARTING, job.state());
+        assertTrue(p.getOfferAcceptors().get(1).getJobs().isEmpty());
+        assertEquals(0, p.getToKeep().size());
+    }
+}
@@ -16,8 +16,20 @@
  */
 package io.github.retz.planner;
 
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.planner.spi.Resource;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.Range;
+import io.github.retz.scheduler.Applications;
+import io.github.retz.scheduler.RetzSchedulerTest;
+import org.apache.mesos.Protos;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
 import static org.junit.Assert.assertEquals;
 
 public class ExtensivePlannerTest2 extends PlannerTest {
@@ -30,4 +42,28 @@ public class ExtensivePlannerTest2 extends PlannerTest {
         assertEquals("priority", planner.orderBy().get(0));
         assertEquals("id", planner.orderBy().get(1));
     }
+
+    @Test
+    public void ports() {
+        Resource resource = new Resource(16, 512, 0, 0, new LinkedList<>(Arrays.asList(new Range(31000, 31009))));
+        Protos.Offer offer = RetzSchedulerTest.buildOffer(fid, 0, "offer", 16, 512).toBuilder()
+                .clearResources().addAllResources(ResourceConstructor.construct(resource)).build();
+        List<AppJobPair> jobs = new LinkedList<>();
+        for (int i = 0; i < 2; ++i) {
+            Job job = new Job(ANON_APPID, "cmd", new Properties(), 1, 32, 0, 0, 2);
+            job.schedule(i, TimestampHelper.now());
+            jobs.add(new AppJobPair(Applications.get(ANON_APPID), job));
+        }
+        Plan p = planner.plan(Arrays.asList(offer), jobs, 0, "nobody");
+
+        // Ports are cut from the lowest, next to those of the previous task
+        List<Protos.TaskInfo> tasks = p.getOfferAcceptors().get(0).getTasks();
+        assertEquals(2, tasks.size());
+        for (int i = 0; i < 2; ++i) {
+            Resource assigned = ResourceConstructor.decode(tasks.get(i).getResourcesList());
+            assertEquals(1, assigned.ports().size());
+            assertEquals(31000 + 2 * i, assigned.ports().get(0).getMin());
+            assertEquals(31001 + 2 * i, assigned.ports().get(0).getMax());
+        }
+    }
 }
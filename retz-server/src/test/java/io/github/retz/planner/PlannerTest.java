@@ -44,9 +44,9 @@ import static org.junit.Assert.assertTrue;
 @Ignore
 public class PlannerTest {
     protected Planner planner;
-    private Protos.FrameworkID fid;
+    Protos.FrameworkID fid;
 
-    private static final String ANON_APPID = "anon";
+    static final String ANON_APPID = "anon";
 
     String makePlannerName() throws Exception {
         throw new RuntimeException("This class shouldn't be tested");
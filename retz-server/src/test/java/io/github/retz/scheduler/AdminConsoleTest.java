@@ -24,12 +24,17 @@ import io.github.retz.admin.AdminConsoleClient;
 import io.github.retz.cli.FileConfiguration;
 import io.github.retz.db.Database;
 import io.github.retz.protocol.data.User;
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.Assert.*;
@@ -88,6 +93,33 @@ public class AdminConsoleTest {
                 assertNotNull(user);
                 assertFalse(user.enabled());
             }
+
+            {
+                // Counts are checked in tests of each component
+                assertEquals(Arrays.asList("status-updates", "planning", "user-cache", "lanes",
+                        "mesos-http", "mesos-cache", "recovery", "job-states"), client.listStats());
+                Map<String, Long> counts = client.getStats("job-states");
+                assertEquals(Database.getInstance().stateCounts(), counts);
+                assertEquals(Stanchion.stats().keySet(), client.getStats("lanes").keySet());
+                assertTrue(client.getStats("no-such-stats").isEmpty());
+            }
+            {
+                assertTrue(client.migrate());
+                List<Map<String, Object>> steps = mapper.readValue(client.getSchemaMigrations(), List.class);
+                assertEquals(Database.getInstance().schemaMigrations().size(), steps.size());
+                assertNotNull(steps.get(0).get("applied"));
+            }
+            {
+                // No jobs have finished
+                assertTrue(client.getUsage("0000-01-01", "9999-12-32").isEmpty());
+                Path dir = Files.createTempDirectory("retz-usage");
+                try {
+                    Map<String, Object> result = mapper.readValue(client.exportUsage("0000-01-01", "9999-12-32", dir.toString()), Map.class);
+                    assertEquals(0, result.get("jobs"));
+                } finally {
+                    FileUtils.deleteDirectory(dir.toFile());
+                }
+            }
         }
     }
 }
@@ -0,0 +1,109 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Job;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class JobEventsTest {
+
+    private static Job job(int id) {
+        Job job = new Job("app", "ls", null, 1, 32, 0);
+        job.schedule(id, TimestampHelper.now());
+        return job;
+    }
+
+    @Test
+    public void wakeUp() throws Exception {
+        Job job = job(1);
+        AtomicReference<Job> current = new AtomicReference<>(job);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Optional<Job>> future = executor.submit(() ->
+                    JobEvents.await(1, Job.JobState.QUEUED, 20000, () -> Optional.of(current.get())));
+            while (JobEvents.waiting() == 0) {
+                Thread.sleep(10);
+            }
+            // Other jobs don't wake it up
+            JobEvents.publish(job(2));
+            assertFalse(future.isDone());
+
+            Job started = job(1);
+            started.starting("task-1", Optional.empty(), TimestampHelper.now());
+            current.set(started);
+            JobEvents.publish(started);
+
+            Optional<Job> result = future.get(10, TimeUnit.SECONDS);
+            assertEquals(Job.JobState.STARTING, result.get().state());
+            assertEquals(0, JobEvents.waiting());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void noWait() {
+        Job job = job(3);
+        // Already changed from what the client knows
+        long start = System.currentTimeMillis();
+        assertEquals(Optional.of(job), JobEvents.await(3, Job.JobState.STARTED, 20000, () -> Optional.of(job)));
+        assertEquals(Optional.empty(), JobEvents.await(4, Job.JobState.QUEUED, 20000, Optional::empty));
+        assertTrue(System.currentTimeMillis() - start < 10000);
+
+        // Timeout
+        assertEquals(Optional.of(job), JobEvents.await(3, Job.JobState.QUEUED, 100, () -> Optional.of(job)));
+        assertEquals(0, JobEvents.waiting());
+    }
+
+    @Test
+    public void tooManyWaiters() throws Exception {
+        Job job = job(5);
+        ExecutorService executor = Executors.newFixedThreadPool(JobEvents.MAX_WAITERS);
+        try {
+            List<Future<Optional<Job>>> futures = new ArrayList<>();
+            for (int i = 0; i < JobEvents.MAX_WAITERS; ++i) {
+                futures.add(executor.submit(() ->
+                        JobEvents.await(5, Job.JobState.QUEUED, 20000, () -> Optional.of(job))));
+            }
+            while (JobEvents.waiting() < JobEvents.MAX_WAITERS) {
+                Thread.sleep(10);
+            }
+            long start = System.currentTimeMillis();
+            assertEquals(Optional.of(job), JobEvents.await(6, Job.JobState.QUEUED, 20000, () -> Optional.of(job)));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+
+            JobEvents.publish(job);
+            for (Future<Optional<Job>> future : futures) {
+                assertEquals(Optional.of(job), future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -44,6 +44,7 @@ public class JobQueueTest {
 
         ServerConfiguration config = new ServerConfiguration(in);
         Database.getInstance().getInstance().init(config);
+        JobQueue.rebuild();
     }
     @After
     public void after() throws Exception {
@@ -70,7 +71,7 @@ public class JobQueueTest {
             System.err.println(job2.size());
             assertFalse(job2.isEmpty());
             assertThat(job2.get(0).appid(), is(job.appid()));
-            JobQueue.starting(job2.get(0), Optional.empty(), "foobar-taskid");
+            JobQueue.starting(job2.get(0), Optional.empty(), "foobar-taskid", "foobar-slaveid");
 
             Optional<Job> j = Database.getInstance().getJobFromTaskId("foobar-taskid");
             assertTrue(j.isPresent());
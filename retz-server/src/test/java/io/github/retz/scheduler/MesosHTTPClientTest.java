@@ -0,0 +1,137 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.retz.mesosc.MesosHTTPClient;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class MesosHTTPClientTest {
+    private HttpServer server;
+    private String base;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/state", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "{\"id\":\"agent\"}".getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+        MesosHTTPClient.configure(MesosHTTPClient.DEFAULT_CONNECT_TIMEOUT_MS,
+                MesosHTTPClient.DEFAULT_READ_TIMEOUT_MS, MesosHTTPClient.DEFAULT_PARALLELISM);
+    }
+
+    @Test
+    public void keepAlive() throws IOException {
+        long requests = MesosHTTPClient.requests();
+        long failures = MesosHTTPClient.failures();
+        for (int i = 0; i < 10; ++i) {
+            String body = MesosHTTPClient.getOK(base + "/state", (status, message, in) -> IOUtils.toString(in, UTF_8));
+            assertThat(body, is("{\"id\":\"agent\"}"));
+        }
+        // All requests went through one connection
+        assertThat(clientPorts.size(), is(1));
+
+        try {
+            MesosHTTPClient.getOK(base + "/nothing", (status, message, in) -> null);
+            fail();
+        } catch (FileNotFoundException e) {
+        }
+        assertThat(MesosHTTPClient.get(base + "/nothing", (status, message, in) -> status), is(404));
+        // Only 404 of getOK is a failure
+        assertThat(MesosHTTPClient.requests() - requests, is(12L));
+        assertThat(MesosHTTPClient.failures() - failures, is(1L));
+    }
+
+    @Test
+    public void timeout() throws IOException {
+        MesosHTTPClient.configure(1000, 100, MesosHTTPClient.DEFAULT_PARALLELISM);
+        long failures = MesosHTTPClient.failures();
+        try {
+            MesosHTTPClient.get(base + "/slow", (status, message, in) -> status);
+            fail();
+        } catch (SocketTimeoutException e) {
+        }
+        assertThat(MesosHTTPClient.failures() - failures, is(1L));
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        MesosHTTPClient.configure(1000, 1000, 1);
+        CountDownLatch latch = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocked = MesosHTTPClient.submit(() -> latch.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Integer> last = null;
+        for (int i = 0; i < MesosHTTPClient.MAX_QUEUED; ++i) {
+            last = MesosHTTPClient.submit(() -> 0);
+        }
+        assertThat(MesosHTTPClient.queued(), is(MesosHTTPClient.MAX_QUEUED));
+        long rejectedBefore = MesosHTTPClient.rejected();
+        CompletableFuture<Integer> rejected = MesosHTTPClient.submit(() -> 0);
+        assertThat(MesosHTTPClient.rejected() - rejectedBefore, is(1L));
+        try {
+            rejected.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+        }
+        latch.countDown();
+        assertThat(blocked.get(10, TimeUnit.SECONDS), is(true));
+        assertThat(last.get(10, TimeUnit.SECONDS), is(0));
+    }
+}
@@ -16,17 +16,26 @@
  */
 package io.github.retz.scheduler;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import io.github.retz.mesosc.MesosHTTPFetcher;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -60,6 +69,131 @@ public class MesosHTTPFetcherTest {
                 is("/tmp/mesos/slaves/6c751ae7-6856-4127-aea1-42f3a9210846-S0/frameworks/3a3e9491-84a5-4c9d-8fed-5ca10c23d922-0000/executors/sum/runs/927b4c8a-bcfb-40fb-bf24-fcd4a430e2aa"));
     }
 
+    @Test
+    public void extractAll() throws IOException {
+        InputStream in = MesosHTTPFetcherTest.class.getResourceAsStream("/master-slaves.json");
+        Map<String, String> addrs = MesosHTTPFetcher.extractSlaveAddrs(in);
+        assertThat(addrs.size(), is(1));
+        assertThat(addrs.get("6c751ae7-6856-4127-aea1-42f3a9210846-S0"), is("127.0.0.1:5051"));
+
+        in = MesosHTTPFetcherTest.class.getResourceAsStream("/slave-state.json");
+        Map<String, String> dirs = MesosHTTPFetcher.extractDirectories(in, "3a3e9491-84a5-4c9d-8fed-5ca10c23d922-0000");
+        assertThat(dirs.size(), is(1));
+        assertThat(dirs.get("sum"),
+                is("/tmp/mesos/slaves/6c751ae7-6856-4127-aea1-42f3a9210846-S0/frameworks/3a3e9491-84a5-4c9d-8fed-5ca10c23d922-0000/executors/sum/runs/927b4c8a-bcfb-40fb-bf24-fcd4a430e2aa"));
+
+        in = MesosHTTPFetcherTest.class.getResourceAsStream("/slave-state.json");
+        assertTrue(MesosHTTPFetcher.extractDirectories(in, "no-such-framework").isEmpty());
+    }
+
+    @Test
+    public void parseNestedJSON() throws IOException {
+        // Nested objects have same field names, and "id" of a framework may come after its executors
+        String state = "{\"id\":\"S0\",\"frameworks\":["
+                + "{\"executors\":[{\"tasks\":[{\"id\":\"e1\",\"directory\":\"/wrong\"}],\"id\":\"e1\",\"directory\":\"/other/e1\"}],\"id\":\"F1\"},"
+                + "{\"completed_executors\":[{\"id\":\"e1\",\"directory\":\"/completed/e1\"}],"
+                + "\"executors\":[{\"id\":\"e2\",\"labels\":{\"directory\":\"/wrong\"},\"directory\":\"/d/e2\",\"container\":\"c2\"},"
+                + "{\"id\":\"e1\",\"directory\":\"/d/e1\",\"container\":\"c1\"}],\"id\":\"F0\"}]}";
+        assertThat(MesosHTTPFetcher.extractDirectory(stream(state), "F0", "e1").get(), is("/d/e1"));
+        assertThat(MesosHTTPFetcher.extractDirectory(stream(state), "F1", "e1").get(), is("/other/e1"));
+        assertThat(MesosHTTPFetcher.extractContainerId(stream(state), "F0", "e2").get(), is("c2"));
+        assertFalse(MesosHTTPFetcher.extractDirectory(stream(state), "F2", "e1").isPresent());
+        Map<String, String> dirs = MesosHTTPFetcher.extractDirectories(stream(state), "F0");
+        assertThat(dirs.size(), is(2));
+        assertThat(dirs.get("e2"), is("/d/e2"));
+
+        String slaves = "{\"slaves\":[{\"attributes\":{\"id\":\"S1\"},\"id\":\"S0\",\"pid\":\"slave(1)@10.0.0.1:5051\"},"
+                + "{\"pid\":\"slave(1)@10.0.0.2:5051\",\"id\":\"S1\"}]}";
+        assertThat(MesosHTTPFetcher.extractSlaveAddr(stream(slaves), "S1").get(), is("10.0.0.2:5051"));
+        assertFalse(MesosHTTPFetcher.extractSlaveAddr(stream(slaves), "S2").isPresent());
+
+        String tasks = "{\"tasks\":[{\"id\":\"t0\",\"framework_id\":\"F1\",\"state\":\"TASK_RUNNING\"},"
+                + "{\"id\":\"t1\",\"statuses\":[{\"state\":\"TASK_RUNNING\"}],\"state\":\"TASK_FINISHED\",\"framework_id\":\"F0\",\"resources\":{\"cpus\":1.0}},"
+                + "{\"id\":\"t2\",\"state\":\"TASK_RUNNING\"}]}";
+        List<Map<String, Object>> result = MesosHTTPFetcher.parseTasks(stream(tasks), "F0");
+        assertThat(result.size(), is(1));
+        assertThat(result.get(0).get("id"), is("t1"));
+        assertThat(result.get(0).get("state"), is("TASK_FINISHED"));
+        assertFalse(result.get(0).containsKey("statuses"));
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(UTF_8));
+    }
+
+    @Test
+    public void cachedSandbox() throws IOException {
+        AtomicInteger slaves = new AtomicInteger(0);
+        AtomicInteger states = new AtomicInteger(0);
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        String master = "127.0.0.1:" + server.getAddress().getPort();
+        server.createContext("/slaves", exchange -> {
+            slaves.incrementAndGet();
+            respond(exchange, "{\"slaves\":[{\"id\":\"S0\",\"pid\":\"slave(1)@" + master + "\"},"
+                    + "{\"id\":\"S1\",\"pid\":\"slave(1)@127.0.0.2:5051\"}]}");
+        });
+        server.createContext("/state", exchange -> {
+            states.incrementAndGet();
+            respond(exchange, "{\"frameworks\":[{\"id\":\"F0\",\"executors\":["
+                    + "{\"id\":\"e1\",\"directory\":\"/d/e1\"},{\"id\":\"e2\",\"directory\":\"/d/e2\"}]},"
+                    + "{\"id\":\"F1\",\"executors\":[{\"id\":\"e3\",\"directory\":\"/d/e3\"}]}]}");
+        });
+        server.start();
+        MesosHTTPFetcher.configureCaches(16, 60);
+        long agentHits = MesosHTTPFetcher.cacheStats().get("agents.hits");
+        long sandboxHits = MesosHTTPFetcher.cacheStats().get("sandboxes.hits");
+        try {
+            Optional<String> url = MesosHTTPFetcher.sandboxBaseUri(master, "S0", "F0", "e1");
+            assertThat(url.get(), is("http://" + master + "/files/browse?path=%2Fd%2Fe1"));
+            assertThat(slaves.get(), is(1));
+            assertThat(states.get(), is(1));
+
+            // Other executors of the framework in the agent have been cached at once
+            url = MesosHTTPFetcher.sandboxBaseUri(master, "S0", "F0", "e2");
+            assertThat(url.get(), is("http://" + master + "/files/browse?path=%2Fd%2Fe2"));
+            assertFalse(MesosHTTPFetcher.sandboxBaseUri(master, "S0", "F0", "e3").isPresent());
+            assertThat(slaves.get(), is(1));
+            assertThat(states.get(), is(2));
+
+            MesosHTTPFetcher.forgetSandbox("S0", "F0", "e1");
+            assertTrue(MesosHTTPFetcher.sandboxBaseUri(master, "S0", "F0", "e1").isPresent());
+            assertThat(slaves.get(), is(1));
+            assertThat(states.get(), is(3));
+
+            MesosHTTPFetcher.invalidateAgent("S0");
+            assertTrue(MesosHTTPFetcher.sandboxBaseUri(master, "S0", "F0", "e2").isPresent());
+            assertThat(slaves.get(), is(2));
+            assertThat(states.get(), is(4));
+
+            Map<String, Long> stats = MesosHTTPFetcher.cacheStats();
+            assertThat(stats.get("agents.hits") - agentHits, is(3L));
+            assertThat(stats.get("sandboxes.hits") - sandboxHits, is(1L));
+        } finally {
+            server.stop(0);
+            MesosHTTPFetcher.configureCaches(MesosHTTPFetcher.DEFAULT_CACHE_SIZE, MesosHTTPFetcher.DEFAULT_CACHE_TTL_SEC);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    public void copyFileData() throws IOException {
+        StringWriter out = new StringWriter();
+        String json = "{\"offset\":3,\"extra\":{\"data\":\"no\"},\"data\":\"foo\\nbar \\u00e9\\\"\"}";
+        MesosHTTPFetcher.copyFileData(new ByteArrayInputStream(json.getBytes(UTF_8)), out);
+        assertThat(out.toString(), is("foo\nbar \u00e9\""));
+
+        out = new StringWriter();
+        MesosHTTPFetcher.copyFileData(new ByteArrayInputStream("{\"data\":\"\",\"offset\":0}".getBytes(UTF_8)), out);
+        assertThat(out.toString(), is(""));
+    }
+
     @Test
     public void parseTask() throws IOException {
         InputStream in = MesosHTTPFetcherTest.class.getResourceAsStream("/master-tasks.json");
@@ -41,6 +41,7 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
 
     List<Protos.OfferID> accepted;
     List<Protos.TaskInfo> tasks;
+    List<Protos.TaskStatus> reconciled;
 
 //    List<Protos.Resource> reserved;
 //    List<Protos.Resource> volumes;
@@ -75,6 +76,7 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         declined = new LinkedList<>();
         accepted = new LinkedList<>();
         tasks = new LinkedList<>();
+        reconciled = new LinkedList<>();
     }
 
     public Protos.Status start() {
@@ -150,8 +152,14 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
     public Protos.Status acceptOffers(Collection<Protos.OfferID> offerIds,
                                       Collection<Protos.Offer.Operation> operations,
                                       Protos.Filters filters) {
-        // Shouldn't be used
-        throw new UnknownError();
+        // Only tasks launched are recorded
+        accepted.addAll(offerIds);
+        for (Protos.Offer.Operation op : operations) {
+            if (op.getType() == Protos.Offer.Operation.Type.LAUNCH) {
+                tasks.addAll(op.getLaunch().getTaskInfosList());
+            }
+        }
+        return Protos.Status.DRIVER_RUNNING;
 //        this.accepted.addAll(offerIds);
 //        for (Protos.OfferID id : offerIds) {
 //            Protos.Offer.Builder ob = offers.get(id).toBuilder();
@@ -221,6 +229,7 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
     }
 
     public Protos.Status reconcileTasks(Collection<Protos.TaskStatus> statuses) {
+        reconciled.addAll(statuses);
         return Protos.Status.DRIVER_RUNNING;
     }
 
@@ -244,10 +253,15 @@ public class MesosSchedulerDummyDriver implements SchedulerDriver {
         return tasks;
     }
 
+    public List<Protos.TaskStatus> getReconciled() {
+        return reconciled;
+    }
+
     public void clear() {
         declined.clear();
         accepted.clear();
         tasks.clear();
+        reconciled.clear();
     }
 
     public void dummyTaskStarted() {
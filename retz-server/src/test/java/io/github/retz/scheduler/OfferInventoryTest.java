@@ -0,0 +1,103 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.planner.ResourceConstructor;
+import io.github.retz.protocol.data.ResourceQuantity;
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfferInventoryTest {
+
+    private static Protos.Offer offer(String id, String slave, int cpus, int memMB) {
+        return Protos.Offer.newBuilder()
+                .addAllResources(ResourceConstructor.construct(cpus, memMB))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(slave).build())
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework").build())
+                .setHostname("host-" + slave)
+                .setId(Protos.OfferID.newBuilder().setValue(id).build())
+                .build();
+    }
+
+    @Test
+    public void merge() {
+        OfferInventory inventory = new OfferInventory(0);
+        inventory.add(offer("o1", "s1", 2, 1024), 0);
+        inventory.add(offer("o2", "s1", 2, 1024), 0);
+        inventory.add(offer("o3", "s2", 1, 512), 0);
+        // Same offer twice is counted once
+        inventory.add(offer("o3", "s2", 1, 512), 0);
+
+        assertEquals(3, inventory.size());
+        assertEquals(2, inventory.agents());
+        ResourceQuantity total = inventory.total();
+        assertEquals(5, total.getCpu());
+        assertEquals(2560, total.getMemMB());
+        assertEquals(2, total.getNodes());
+
+        // Offers of an agent are taken out together
+        List<Protos.Offer> all = inventory.takeAll();
+        assertEquals("s1", all.get(0).getSlaveId().getValue());
+        assertEquals("s1", all.get(1).getSlaveId().getValue());
+        inventory.restock(all, 0);
+
+        assertTrue(inventory.rescind("o1"));
+        assertFalse(inventory.rescind("o1"));
+        assertEquals(3, inventory.total().getCpu());
+        assertEquals(1, inventory.remove("s2").size());
+        assertEquals(1, inventory.size());
+        assertEquals(2, inventory.total().getCpu());
+        assertEquals(1, inventory.total().getNodes());
+    }
+
+    @Test
+    public void expire() {
+        OfferInventory inventory = new OfferInventory(1000);
+        inventory.add(offer("o1", "s1", 2, 1024), 0);
+        inventory.add(offer("o2", "s2", 2, 1024), 0);
+
+        // Planned, and o1 is put back with its original age
+        List<Protos.Offer> planned = inventory.takeAll();
+        assertEquals(2, planned.size());
+        assertEquals(0, inventory.size());
+        assertEquals(0, inventory.total().getCpu());
+        inventory.restock(Arrays.asList(planned.get(0)), 900);
+        inventory.add(offer("o3", "s2", 2, 1024), 900);
+        assertTrue(inventory.expire(1000).isEmpty());
+
+        List<Protos.Offer> expired = inventory.expire(1001);
+        assertEquals(1, expired.size());
+        assertEquals("o1", expired.get(0).getId().getValue());
+        assertEquals(1, inventory.size());
+        assertEquals(2, inventory.total().getCpu());
+
+        // o2 was accepted, and its age is forgotten
+        inventory.restock(Arrays.asList(), 1001);
+        inventory.add(planned.get(1), 1900);
+        expired = inventory.expire(2000);
+        assertEquals(1, expired.size());
+        assertEquals("o3", expired.get(0).getId().getValue());
+        assertEquals(1, inventory.size());
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.planner.ResourceConstructor;
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OfferWindowTest {
+
+    private static Protos.Offer offer(int i) {
+        return Protos.Offer.newBuilder()
+                .addAllResources(ResourceConstructor.construct(2, 1024))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue("slave-" + i).build())
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("framework").build())
+                .setHostname("host-" + i)
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + i).build())
+                .build();
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        int callbacks = 100;
+        List<Integer> cycles = new ArrayList<>();
+        List<String> received = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(callbacks - 1);
+
+        long before = OfferWindow.OFFERS_PER_CYCLE.count();
+        OfferWindow window = new OfferWindow(200, (driver, offers) -> {
+            cycles.add(offers.size());
+            for (Protos.Offer offer : offers) {
+                received.add(offer.getId().getValue());
+                latch.countDown();
+            }
+            return offers.size();
+        });
+
+        for (int i = 0; i < callbacks; ++i) {
+            window.add(null, Arrays.asList(offer(i)));
+        }
+        // Offers from lost agents are never planned
+        window.remove("slave-42");
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // Wait for the cycle to be recorded in Stanchion
+        CountDownLatch done = new CountDownLatch(1);
+        Stanchion.schedule(done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(callbacks - 1, received.size());
+        assertTrue(!received.contains("offer-42"));
+        // All callbacks in the window are planned in a single cycle
+        assertEquals(1, cycles.size());
+        assertEquals(1, OfferWindow.OFFERS_PER_CYCLE.count() - before);
+        assertTrue(OfferWindow.OFFERS_PER_CYCLE.max() >= callbacks - 1);
+    }
+
+    @Test
+    public void histogram() {
+        Histogram h = new Histogram();
+        for (long v : new long[]{0, 1, 2, 3, 4, 5, 1000}) {
+            h.record(v);
+        }
+        assertEquals(0, Histogram.bucket(1));
+        assertEquals(2, Histogram.bucket(4));
+        assertEquals(3, Histogram.bucket(5));
+
+        Map<String, Long> map = h.toMap();
+        assertEquals(7L, (long) map.get("count"));
+        assertEquals(1015L, (long) map.get("sum"));
+        assertEquals(1000L, (long) map.get("max"));
+        assertEquals(2L, (long) map.get("<=1"));
+        assertEquals(1L, (long) map.get("<=2"));
+        assertEquals(2L, (long) map.get("<=4"));
+        assertEquals(1L, (long) map.get("<=8"));
+        assertEquals(1L, (long) map.get("<=1024"));
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.protocol.data.Job;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueueIndexTest {
+
+    private static Job job(int id, int priority, int cpu) {
+        Job job = new Job("app", "cmd", null, cpu, 32, 0);
+        job.schedule(id, TimestampHelper.now());
+        job.setPriority(priority);
+        return job;
+    }
+
+    @Test
+    public void findFitInOrder() {
+        QueueIndex index = new QueueIndex(Arrays.asList("id"));
+        index.reset(Arrays.asList(job(3, 0, 1), job(1, 1, 1), job(2, -1, 1)));
+        assertEquals(3, index.size());
+
+        List<Job> fit = index.findFit(Arrays.asList("id"), 2, 1024);
+        assertEquals(2, fit.size());
+        assertEquals(1, fit.get(0).id());
+        assertEquals(2, fit.get(1).id());
+
+        fit = index.findFit(Arrays.asList("priority", "id"), 3, 1024);
+        assertEquals(3, fit.size());
+        assertEquals(2, fit.get(0).id());
+        assertEquals(3, fit.get(1).id());
+        assertEquals(1, fit.get(2).id());
+
+        // Stops at the first job that does not fit, as database does
+        index.put(job(0, -2, 10));
+        assertTrue(index.findFit(Arrays.asList("priority", "id"), 3, 1024).isEmpty());
+        assertEquals(0, index.head(1).get(0).id());
+    }
+
+    @Test
+    public void findFitWithLookahead() {
+        QueueIndex index = new QueueIndex(Arrays.asList("id"));
+        index.reset(Arrays.asList(job(1, 0, 32), job(2, 0, 8), job(3, 0, 8), job(4, 0, 8), job(5, 0, 8)));
+
+        assertEquals(1, index.findFit(Arrays.asList("id"), 32, 1024).size());
+        // The first job that does not fit and jobs behind it
+        List<Job> fit = index.findFit(Arrays.asList("id"), 32, 1024, 2);
+        assertEquals(Arrays.asList(1, 2, 3, 4), fit.stream().map(Job::id).collect(Collectors.toList()));
+        assertEquals(5, index.findFit(Arrays.asList("id"), 32, 1024, 100).size());
+        assertEquals(3, index.findFit(Arrays.asList("id"), 16, 1024, 2).size());
+    }
+
+    @Test
+    public void reflect() {
+        QueueIndex index = new QueueIndex(Arrays.asList("id"));
+        Job job = job(1, 0, 1);
+        index.reflect(job);
+        assertEquals(1, index.size());
+
+        job.starting("taskid", Optional.empty(), TimestampHelper.now());
+        index.reflect(job);
+        assertEquals(0, index.size());
+
+        job.doRetry();
+        index.reflect(job);
+        assertEquals(1, index.size());
+
+        index.remove(1);
+        assertTrue(index.head(10).isEmpty());
+    }
+
+    @Test
+    public void copies() {
+        QueueIndex index = new QueueIndex(Arrays.asList("priority", "id"));
+        Job job = job(1, 0, 1);
+        index.put(job);
+        index.put(job(2, 1, 1));
+
+        // Neither the job put nor the job returned is the one in the index
+        job.setPriority(2);
+        index.findFit(Arrays.asList("priority", "id"), 2, 1024).get(0).setPriority(3);
+        index.head(1).get(0).starting("taskid", Optional.empty(), TimestampHelper.now());
+        List<Job> fit = index.findFit(Arrays.asList("priority", "id"), 2, 1024);
+        assertEquals(Arrays.asList(1, 2), fit.stream().map(Job::id).collect(Collectors.toList()));
+        assertEquals(0, fit.get(0).priority());
+        assertEquals(Job.JobState.QUEUED, fit.get(0).state());
+
+        index.remove(1);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void nullsLast() {
+        QueueIndex index = new QueueIndex(Arrays.asList("id"));
+        Job retried = job(2, 0, 1);
+        retried.starting("taskid", Optional.empty(), TimestampHelper.now());
+        retried.doRetry();
+        index.reset(Arrays.asList(job(1, 0, 1), retried));
+
+        List<Job> fit = index.findFit(Arrays.asList("taskid", "id"), 2, 1024);
+        assertEquals(Arrays.asList(2, 1), fit.stream().map(Job::id).collect(Collectors.toList()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownColumn() {
+        new QueueIndex(Arrays.asList("id; DROP TABLE jobs"));
+    }
+}
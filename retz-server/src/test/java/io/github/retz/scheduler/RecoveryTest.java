@@ -0,0 +1,222 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.retz.cli.TimestampHelper;
+import io.github.retz.db.Database;
+import io.github.retz.mesosc.MesosHTTPClient;
+import io.github.retz.protocol.data.Application;
+import io.github.retz.protocol.data.Job;
+import io.github.retz.protocol.data.MesosContainer;
+import org.apache.mesos.Protos;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class RecoveryTest {
+    private static final int TASKS = 4000;
+    private static final Pattern PAGE = Pattern.compile("offset=(\\d+)&limit=(\\d+)");
+
+    private HttpServer server;
+    private String master;
+    private final AtomicInteger pages = new AtomicInteger(0);
+
+    @Before
+    public void before() throws Exception {
+        InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
+        Database.getInstance().init(new ServerConfiguration(in));
+        // Jobs queued again by former tests are left in the index otherwise
+        JobQueue.rebuild();
+        Applications.load(new Application("recovery-app", Arrays.asList(), Arrays.asList(),
+                Optional.empty(), "deadbeef", 0, new MesosContainer(), true));
+
+        // Tasks of this framework and others, in turn; task i of this framework is "task-i"
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/tasks", exchange -> {
+            pages.incrementAndGet();
+            Matcher m = PAGE.matcher(exchange.getRequestURI().getQuery());
+            m.find();
+            int offset = Integer.parseInt(m.group(1));
+            int limit = Integer.parseInt(m.group(2));
+            StringBuilder json = new StringBuilder("{\"tasks\":[");
+            for (int i = offset; i < Math.min(offset + limit, TASKS); ++i) {
+                if (i > offset) {
+                    json.append(',');
+                }
+                String state = i == 10 ? "TASK_FINISHED" : i == 700 ? "TASK_LOST" : "TASK_RUNNING";
+                json.append("{\"id\":\"task-").append(i).append("\",\"framework_id\":\"")
+                        .append(i % 2 == 0 ? "F0" : "F1").append("\",\"state\":\"").append(state)
+                        .append("\",\"statuses\":[{\"state\":\"TASK_RUNNING\"}]}");
+            }
+            json.append("]}");
+            byte[] body = json.toString().getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        master = "127.0.0.1:" + server.getAddress().getPort();
+        MesosHTTPClient.configure(MesosHTTPClient.DEFAULT_CONNECT_TIMEOUT_MS, MesosHTTPClient.DEFAULT_READ_TIMEOUT_MS, 2);
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+        MesosHTTPClient.configure(MesosHTTPClient.DEFAULT_CONNECT_TIMEOUT_MS,
+                MesosHTTPClient.DEFAULT_READ_TIMEOUT_MS, MesosHTTPClient.DEFAULT_PARALLELISM);
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    private Job start(String taskId) throws Exception {
+        return start(taskId, Optional.empty());
+    }
+
+    private Job start(String taskId, Optional<String> slaveId) throws Exception {
+        Job job = new Job("recovery-app", "ls", null, 1, 32, 0);
+        job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        Database.getInstance().safeAddJob(job);
+        Database.getInstance().setJobStarting(job.id(), Optional.empty(), taskId, slaveId);
+        return job;
+    }
+
+    @Test
+    public void fromMaster() throws Exception {
+        Job finished = start("task-10");
+        Job lost = start("task-700");
+        Job running = start("task-1000");
+        List<Job> jobs = Database.getInstance().getRunning();
+        assertThat(jobs.size(), is(3));
+
+        assertThat(Recovery.fromMaster(master, "F0", jobs), is(3));
+        // Two pages at a time; stops after the 4th page, where the last job was found
+        assertThat(pages.get(), is(4));
+
+        assertThat(Database.getInstance().getJob(finished.id()).get().state(), is(Job.JobState.FINISHED));
+        assertThat(Database.getInstance().getJob(lost.id()).get().state(), is(Job.JobState.QUEUED));
+        assertThat(Database.getInstance().getJob(running.id()).get().state(), is(Job.JobState.STARTED));
+        Map<String, Long> stats = Recovery.stats();
+        assertThat(stats.get("recovered").intValue(), is(3));
+        assertThat(stats.get("pages").intValue(), is(4));
+    }
+
+    @Test
+    public void notFound() throws Exception {
+        Job job = start("task-no-such");
+        assertThat(Recovery.fromMaster(master, "F0", Database.getInstance().getRunning()), is(0));
+        // All 16 pages, the last of which is not full, and no more
+        assertThat(pages.get(), is(16));
+        assertThat(Database.getInstance().getJob(job.id()).get().state(), is(Job.JobState.STARTING));
+    }
+
+    private MesosSchedulerDummyDriver driver() throws Throwable {
+        Protos.FrameworkInfo frameworkInfo = Protos.FrameworkInfo.newBuilder()
+                .setUser("")
+                .setName(RetzScheduler.FRAMEWORK_NAME)
+                .build();
+        InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
+        Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(in));
+        RetzScheduler scheduler = new RetzScheduler(conf, frameworkInfo);
+        return new MesosSchedulerDummyDriver(scheduler, frameworkInfo, conf.getMesosMaster());
+    }
+
+    @Test
+    public void reconcile() throws Throwable {
+        start("task-reconcile");
+        MesosSchedulerDummyDriver driver = driver();
+        long reconciled = Recovery.stats().get("reconciled").longValue();
+
+        Recovery.reconcile(driver);
+        assertThat(driver.getReconciled().size(), is(1));
+        assertThat(driver.getReconciled().get(0).getTaskId().getValue(), is("task-reconcile"));
+        assertThat(Recovery.stats().get("reconciling").intValue(), is(1));
+        Recovery.answered("task-reconcile");
+        Recovery.answered("task-reconcile");
+        assertThat(Recovery.stats().get("reconciling").intValue(), is(0));
+        assertThat(Recovery.stats().get("reconciled").longValue(), is(reconciled + 1));
+    }
+
+    @Test
+    public void requeueUnanswered() throws Throwable {
+        Job job = start("task-unanswered");
+        MesosSchedulerDummyDriver driver = driver();
+        long requeued = Recovery.stats().get("requeued").longValue();
+        Recovery.reconcile(driver);
+
+        // A waiter for the job is woken up by the change, not by timeout
+        CompletableFuture<Optional<Job>> waiter = CompletableFuture.supplyAsync(() ->
+                JobEvents.await(job.id(), Job.JobState.STARTING, JobEvents.MAX_TIMEOUT_MS, () -> JobQueue.getJob(job.id())));
+        while (JobEvents.waiting() == 0) {
+            Thread.sleep(10);
+        }
+        Recovery.requeueUnanswered(Arrays.asList("task-unanswered"));
+        assertThat(waiter.get(5, TimeUnit.SECONDS).get().state(), is(Job.JobState.QUEUED));
+
+        assertThat(Database.getInstance().getJob(job.id()).get().retry(), is(1));
+        assertThat(JobQueue.countQueued(), is(1));
+        assertThat(Recovery.stats().get("reconciling").intValue(), is(0));
+        assertThat(Recovery.stats().get("requeued").longValue(), is(requeued + 1));
+    }
+
+    @Test
+    public void slaveLost() throws Throwable {
+        Job lost1 = start("task-lost-1", Optional.of("S1"));
+        Job lost2 = start("task-lost-2", Optional.of("S1"));
+        Job alive = start("task-alive", Optional.of("S2"));
+        Job unknown = start("task-unknown");
+        MesosSchedulerDummyDriver driver = driver();
+        long slavesLost = Recovery.stats().get("slaves-lost").longValue();
+
+        Recovery.slaveLost(driver, "S1");
+        assertThat(Database.getInstance().getJob(lost1.id()).get().state(), is(Job.JobState.QUEUED));
+        assertThat(Database.getInstance().getJob(lost2.id()).get().state(), is(Job.JobState.QUEUED));
+        assertThat(Database.getInstance().getJob(lost1.id()).get().retry(), is(1));
+        assertThat(Database.getInstance().getJob(alive.id()).get().state(), is(Job.JobState.STARTING));
+        assertThat(Database.getInstance().getJob(unknown.id()).get().state(), is(Job.JobState.STARTING));
+        assertThat(JobQueue.countQueued(), is(2));
+
+        // Only the job of unknown slave is asked to Mesos
+        assertThat(driver.getReconciled().size(), is(1));
+        assertThat(driver.getReconciled().get(0).getTaskId().getValue(), is("task-unknown"));
+        Recovery.answered("task-unknown");
+        assertThat(Recovery.stats().get("slaves-lost").longValue(), is(slavesLost + 1));
+
+        // Nothing more when the same slave is reported again
+        Recovery.slaveLost(driver, "S1");
+        assertThat(Database.getInstance().getJob(lost1.id()).get().retry(), is(1));
+        Recovery.answered("task-unknown");
+    }
+}
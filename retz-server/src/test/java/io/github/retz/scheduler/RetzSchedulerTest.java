@@ -19,6 +19,7 @@ package io.github.retz.scheduler;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.github.retz.cli.TimestampHelper;
 import io.github.retz.db.Database;
 import io.github.retz.planner.ResourceConstructor;
 import io.github.retz.protocol.data.*;
@@ -27,11 +28,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Optional;
+import java.util.*;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -58,6 +59,7 @@ public class RetzSchedulerTest {
         Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(in));
 
         Database.getInstance().init(conf.getServerConfig());
+        JobQueue.rebuild();
         scheduler = new RetzScheduler(conf, frameworkInfo);
         driver = new MesosSchedulerDummyDriver(scheduler, frameworkInfo, conf.getMesosMaster());
     }
@@ -167,6 +169,52 @@ public class RetzSchedulerTest {
         driver.stop();
     }
 
+    @Test
+    public void noHeadOfLineBlocking() throws Throwable {
+        Properties props = new Properties();
+        try (InputStream in = Launcher.class.getResourceAsStream("/retz.properties")) {
+            props.load(in);
+        }
+        props.setProperty("retz.planner.name", "bestfit");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        props.store(out, null);
+        Launcher.Configuration conf = new Launcher.Configuration(new ServerConfiguration(new ByteArrayInputStream(out.toByteArray())));
+        RetzScheduler bestFit = new RetzScheduler(conf, driver.getFrameworkInfo());
+
+        Database.getInstance().addUser(new User("Deadbeef", "cafebabe", true, "noHeadOfLineBlocking test user"));
+        Applications.load(new Application("fooapp", Arrays.asList(), Arrays.asList(), Optional.empty(), "Deadbeef",
+                0, new MesosContainer(), true));
+        // Fits in total of offers but in no agent, at the head of the queue
+        Job large = new Job("fooapp", "large", new Properties(), 32, 512, 0);
+        large.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+        JobQueue.push(large);
+        List<Job> small = new LinkedList<>();
+        for (int i = 0; i < 4; ++i) {
+            Job job = new Job("fooapp", "small", new Properties(), 8, 128, 0);
+            job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
+            JobQueue.push(job);
+            small.add(job);
+        }
+
+        List<Protos.Offer> offers = new LinkedList<>();
+        for (int i = 0; i < 2; ++i) {
+            offers.add(buildOffer(driver.frameworkInfo.getId(), i, UUID.randomUUID().toString(), 16, 512));
+        }
+        driver.clear();
+        assertThat(bestFit.planOffers(driver, offers), is(2));
+
+        assertThat(driver.getAccepted().size(), is(2));
+        assertThat(driver.getTasks().size(), is(4));
+        for (Job job : small) {
+            assertThat(JobQueue.getJob(job.id()).get().state(), is(Job.JobState.STARTING));
+        }
+        assertThat(JobQueue.getJob(large.id()).get().state(), is(Job.JobState.QUEUED));
+        assertThat(JobQueue.countQueued(), is(1));
+
+        JobQueue.clear();
+        Applications.unload("fooapp");
+    }
+
     // TODO: @Test
     public void slaveFail() throws InterruptedException, JsonProcessingException, IOException {
         String files[] = {"http://foobar.boom.co.jp/foo.tar.gz"};
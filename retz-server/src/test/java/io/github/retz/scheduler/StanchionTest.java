@@ -0,0 +1,111 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StanchionTest {
+
+    @After
+    public void after() {
+        Stanchion.setCapacity(Stanchion.DEFAULT_CAPACITY);
+    }
+
+    // Blocks Stanchion until the returned latch is counted down
+    private static CountDownLatch block() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        Stanchion.schedule(Stanchion.Lane.PLANNING, () -> {
+            started.countDown();
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return blocker;
+    }
+
+    @Test
+    public void lanes() throws Exception {
+        List<String> order = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(5);
+
+        CountDownLatch blocker = block();
+        Stanchion.schedule(Stanchion.Lane.PLANNING, () -> { order.add("plan-0"); done.countDown(); });
+        Stanchion.schedule(Stanchion.Lane.UPDATE, () -> { order.add("update-0"); done.countDown(); });
+        Stanchion.schedule(Stanchion.Lane.PLANNING, () -> { order.add("plan-1"); done.countDown(); });
+        Stanchion.schedule(Stanchion.Lane.UPDATE, () -> { order.add("update-1"); done.countDown(); });
+        Stanchion.schedule(() -> { order.add("plan-2"); done.countDown(); });
+        assertEquals(3, Stanchion.depth(Stanchion.Lane.PLANNING));
+        assertEquals(2, Stanchion.depth(Stanchion.Lane.UPDATE));
+        blocker.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // Updates first, and in arrival order within each lane
+        assertEquals(Arrays.asList("update-0", "update-1", "plan-0", "plan-1", "plan-2"), order);
+        assertEquals(0, Stanchion.depth(Stanchion.Lane.PLANNING));
+        assertEquals(0, Stanchion.depth(Stanchion.Lane.UPDATE));
+
+        assertTrue(Stanchion.waitMicros(Stanchion.Lane.PLANNING).count() >= 3);
+    }
+
+    @Test
+    public void backpressure() throws Exception {
+        Stanchion.setCapacity(2);
+        CountDownLatch done = new CountDownLatch(3);
+
+        CountDownLatch blocker = block();
+        long rejected = Stanchion.rejected(Stanchion.Lane.PLANNING);
+        assertTrue(Stanchion.trySchedule(Stanchion.Lane.PLANNING, done::countDown));
+        assertTrue(Stanchion.trySchedule(Stanchion.Lane.PLANNING, done::countDown));
+        assertFalse(Stanchion.trySchedule(Stanchion.Lane.PLANNING, done::countDown));
+        assertEquals(rejected + 1, Stanchion.rejected(Stanchion.Lane.PLANNING));
+        assertEquals(rejected + 1, (long) Stanchion.stats().get("planning.rejected"));
+        assertEquals(2L, (long) Stanchion.stats().get("planning.depth"));
+        // Internal tasks are never rejected
+        Stanchion.schedule(Stanchion.Lane.PLANNING, done::countDown);
+
+        // Other lanes are not affected
+        assertTrue(Stanchion.trySchedule(Stanchion.Lane.UPDATE, () -> { }));
+        assertTrue(Stanchion.trySchedule(Stanchion.Lane.UPDATE, () -> { }));
+        try {
+            Stanchion.call(() -> true);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        blocker.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Optional.of(true), Stanchion.call(() -> true));
+        // Exceptions in the callable are not thrown to the caller
+        assertEquals(Optional.empty(), Stanchion.call(() -> {
+            throw new IllegalStateException();
+        }));
+    }
+}
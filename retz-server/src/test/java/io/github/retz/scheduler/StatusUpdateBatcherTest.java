@@ -0,0 +1,81 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.scheduler;
+
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatusUpdateBatcherTest {
+
+    private static Protos.TaskStatus status(int i) {
+        return Protos.TaskStatus.newBuilder()
+                .setTaskId(Protos.TaskID.newBuilder().setValue("task-" + i).build())
+                .setState(Protos.TaskState.TASK_FINISHED)
+                .build();
+    }
+
+    @Test
+    public void batches() throws Exception {
+        int total = 1000;
+        int maxBatchSize = 64;
+        List<Integer> sizes = new ArrayList<>();
+        List<String> received = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(total);
+
+        StatusUpdateBatcher batcher = new StatusUpdateBatcher(maxBatchSize, 50, statuses -> {
+            sizes.add(statuses.size());
+            for (Protos.TaskStatus status : statuses) {
+                received.add(status.getTaskId().getValue());
+                latch.countDown();
+            }
+        });
+
+        long before = StatusUpdateBatcher.updates();
+        // Block Stanchion so that updates pile up
+        CountDownLatch blocker = new CountDownLatch(1);
+        Stanchion.schedule(() -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        for (int i = 0; i < total; ++i) {
+            batcher.add(status(i));
+        }
+        blocker.countDown();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(total, received.size());
+        for (int i = 0; i < total; ++i) {
+            assertEquals("task-" + i, received.get(i));
+        }
+        for (int size : sizes) {
+            assertTrue(size <= maxBatchSize);
+        }
+        assertTrue(sizes.size() < total);
+        assertEquals(total, StatusUpdateBatcher.updates() - before);
+        assertTrue(StatusUpdateBatcher.maxBatchSize() <= maxBatchSize);
+    }
+}
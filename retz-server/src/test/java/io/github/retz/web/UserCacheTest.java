@@ -0,0 +1,121 @@
+/**
+ *    Retz
+ *    Copyright (C) 2016-2017 Nautilus Technologies, Inc.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package io.github.retz.web;
+
+import io.github.retz.auth.HmacSHA256Authenticator;
+import io.github.retz.db.Database;
+import io.github.retz.protocol.data.User;
+import io.github.retz.scheduler.Launcher;
+import io.github.retz.scheduler.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class UserCacheTest {
+
+    @Before
+    public void before() throws Exception {
+        InputStream in = Launcher.class.getResourceAsStream("/retz.properties");
+        ServerConfiguration config = new ServerConfiguration(in);
+        Database.getInstance().init(config);
+        UserCache.init(2, 60, true);
+        // As WebConsole does
+        Database.getInstance().onUserChanged(UserCache::invalidate);
+    }
+
+    @After
+    public void after() {
+        Database.getInstance().clear();
+        Database.getInstance().stop();
+    }
+
+    @Test
+    public void cache() throws Exception {
+        User user = Database.getInstance().createUser("cache test");
+
+        long misses = UserCache.misses();
+        long hits = UserCache.hits();
+        Optional<UserCache.CachedUser> entry = UserCache.get(user.keyId());
+        assertTrue(entry.isPresent());
+        assertEquals(user.keyId(), entry.get().user().keyId());
+        assertTrue(entry.get().authenticator() instanceof HmacSHA256Authenticator);
+        assertEquals(misses + 1, UserCache.misses());
+
+        // Same authenticator instance is reused
+        assertSame(entry.get(), UserCache.get(user.keyId()).get());
+        assertEquals(hits + 1, UserCache.hits());
+
+        // Unknown users are not cached
+        assertFalse(UserCache.get("no-such-user").isPresent());
+        assertFalse(UserCache.get("no-such-user").isPresent());
+        assertEquals(1, UserCache.size());
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        User user = Database.getInstance().createUser("invalidate test");
+        assertTrue(UserCache.get(user.keyId()).get().user().enabled());
+
+        Database.getInstance().enableUser(user.keyId(), false);
+        assertEquals(0, UserCache.size());
+        assertFalse(UserCache.get(user.keyId()).get().user().enabled());
+    }
+
+    @Test
+    public void invalidateWhileLoading() throws Exception {
+        User user = Database.getInstance().createUser("stale test");
+
+        // Disabled after the user is read from database, before it is cached
+        Optional<UserCache.CachedUser> stale = UserCache.get(user.keyId(), keyId -> {
+            Optional<User> loaded = Database.getInstance().getUser(keyId);
+            try {
+                Database.getInstance().enableUser(keyId, false);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            return loaded;
+        });
+        assertTrue(stale.get().user().enabled());
+        assertEquals(0, UserCache.size());
+        assertFalse(UserCache.get(user.keyId()).get().user().enabled());
+        assertEquals(1, UserCache.size());
+    }
+
+    @Test
+    public void evict() throws Exception {
+        long evictions = UserCache.evictions();
+        for (int i = 0; i < 3; ++i) {
+            User user = Database.getInstance().createUser("evict test " + i);
+            assertTrue(UserCache.get(user.keyId()).isPresent());
+        }
+        assertEquals(2, UserCache.size());
+        assertEquals(evictions + 1, UserCache.evictions());
+
+        // Expired at once
+        UserCache.init(2, 0, true);
+        User user = Database.getInstance().createUser("ttl test");
+        assertTrue(UserCache.get(user.keyId()).isPresent());
+        assertEquals(0, UserCache.size());
+    }
+}
@@ -24,11 +24,14 @@ import io.github.retz.db.Database;
 import io.github.retz.misc.ApplicationBuilder;
 import io.github.retz.protocol.*;
 import io.github.retz.protocol.data.*;
+import io.github.retz.protocol.exception.JobNotFoundException;
 import io.github.retz.scheduler.*;
 import org.apache.mesos.Protos;
 import org.hamcrest.Matchers;
 import org.junit.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
 
@@ -75,6 +78,7 @@ public class WebConsoleCommonTests {
         config = conf.getServerConfig();
         Database.getInstance().init(config);
         assertTrue(Database.getInstance().allTableExists());
+        JobQueue.rebuild();
 
         WebConsole.set(scheduler, null);
         WebConsole.start(config);
@@ -127,6 +131,73 @@ public class WebConsoleCommonTests {
         }
     }
 
+    @Test
+    public void listPages() throws Exception {
+        Application app = new Application("pager", new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), config.getUser().keyId(), 0, new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+
+        List<Integer> ids = new LinkedList<>();
+        for (int i = 0; i < 5; ++i) {
+            Job job = new Job("pager", "ls " + i, null, 1, 32, 0);
+            if (i % 2 == 0) {
+                job.addTags("even");
+            }
+            ScheduleResponse res = (ScheduleResponse) webClient.schedule(job);
+            ids.add(0, res.job.id());
+        }
+
+        ListJobResponse page1 = (ListJobResponse) webClient.list(Job.JobState.QUEUED, Optional.empty(), Optional.empty(), 2);
+        assertThat(page1.jobs().size(), is(2));
+        assertTrue(page1.more());
+        assertThat(page1.jobs().get(0).id(), is(ids.get(0)));
+
+        ListJobResponse page3 = (ListJobResponse) webClient.list(Job.JobState.QUEUED, Optional.empty(),
+                Optional.of(ids.get(3)), 2);
+        assertThat(page3.jobs().size(), is(1));
+        assertFalse(page3.more());
+        assertThat(page3.jobs().get(0).id(), is(ids.get(4)));
+
+        List<Integer> all = new LinkedList<>();
+        ClientHelper.jobs(webClient, Job.JobState.QUEUED, Optional.empty(), 2).forEach(job -> all.add(job.id()));
+        assertEquals(ids, all);
+        assertThat(ClientHelper.queue(webClient).size(), is(5));
+        assertThat(ClientHelper.jobs(webClient, Job.JobState.QUEUED, Optional.of("even"), 2).count(), is(3L));
+        assertThat(ClientHelper.jobs(webClient, Job.JobState.STARTED, Optional.empty(), 2).count(), is(0L));
+    }
+
+    @Test
+    public void waitJob() throws Exception {
+        Application app = new Application("waiter", new LinkedList<>(), new LinkedList<>(),
+                Optional.empty(), config.getUser().keyId(), 0, new MesosContainer(), true);
+        assertThat(webClient.load(app), instanceOf(LoadAppResponse.class));
+        Job job = ((ScheduleResponse) webClient.schedule(new Job("waiter", "ls", null, 1, 32, 0))).job();
+
+        {
+            GetJobResponse res = (GetJobResponse) webClient.waitJob(job.id(), Job.JobState.QUEUED, 100);
+            assertThat(res.job().get().state(), is(Job.JobState.QUEUED));
+        }
+
+        Thread killer = new Thread(() -> {
+            try {
+                Thread.sleep(500);
+                JobQueue.cancel(job.id(), "test");
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        killer.start();
+        long start = System.currentTimeMillis();
+        GetJobResponse res = (GetJobResponse) webClient.waitJob(job.id(), Job.JobState.QUEUED, 20000);
+        assertThat(res.job().get().state(), is(Job.JobState.KILLED));
+        assertThat(System.currentTimeMillis() - start, lessThan(10000L));
+        killer.join();
+
+        // No such job
+        res = (GetJobResponse) webClient.waitJob(job.id() + 1000, Job.JobState.QUEUED, 100);
+        assertFalse(res.job().isPresent());
+    }
+
     @Test
     public void loadApp() throws Exception {
         {
@@ -218,6 +289,18 @@ public class WebConsoleCommonTests {
 
             GetFileResponse getFileResponse = (GetFileResponse) webClient.getFile(sres.job.id(), "stdout", 0, 20000);
             assertFalse(getFileResponse.file().isPresent());
+
+            // Not yet started at Mesos
+            try {
+                ClientHelper.streamWholeFile(webClient, sres.job.id(), "stdout", false, new ByteArrayOutputStream(), 0, -1, null);
+                fail();
+            } catch (FileNotFoundException e) {
+            }
+            try {
+                ClientHelper.streamWholeFile(webClient, sres.job.id() + 1000, "stdout", false, new ByteArrayOutputStream(), 0, -1, null);
+                fail();
+            } catch (JobNotFoundException e) {
+            }
         }
 
         {
@@ -283,7 +366,12 @@ public class WebConsoleCommonTests {
         Job job = new Job(app.getAppid(), "foocmd", null, 12000, 12000, 12000);
         job.schedule(JobQueue.issueJobId(), TimestampHelper.now());
         JobQueue.push(job);
+        // Updated with the job queued, and not serialized again until anything changes
+        byte[] cached = StatusCache.getStatusResponse();
+        assertThat(cached.length > 0, is(true));
+        assertTrue(cached == StatusCache.getStatusResponse());
         StatusCache.updateUsedResources();
+        assertTrue(cached == StatusCache.getStatusResponse());
 
         try (Client c = Client.newBuilder(config.getUri())
                 .setAuthenticator(config.getAuthenticator())